@@ -0,0 +1,75 @@
+package org.seismotech.ground.mem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A benchmark comparing the flavors of {@link ByteArray}
+ * on byte[] and direct ByteBuffer storage.
+ *
+ * <p>Every benchmark scans {@link #SIZE} bytes with a different access pattern:
+ * <ul>
+ * <li>{@code aligned64}: full 64 bits words, with a stride of 8 bytes.
+ * <li>{@code padded64}: padded 64 bits words at every byte offset;
+ * it includes the extremes, where *fast* flavor avoids the tail branches.
+ * <li>{@code clamped64}: clamped 64 bits writes at every 7 bytes offset,
+ * as PacketArray does for wide entries.
+ * </ul>
+ * Run it with {@code ./gradlew jmh -Pjmhinc=ByteArrayBenchmark}.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 2, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 2, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class ByteArrayBenchmark {
+
+  static final int SIZE = 1 << 14;
+
+  @Param({"CHECKED", "UNCHECKED", "FAST", "UNSAFE"})
+  ByteArray.Flavor flavor;
+
+  @Param({"heap", "direct"})
+  String storage;
+
+  ByteArray arr;
+
+  @Setup
+  public void initArray() {
+    final int total = SIZE + ByteArray.FAST_PADDING;
+    final Random rnd = new Random(0);
+    if ("heap".equals(storage)) {
+      final byte[] bs = new byte[total];
+      rnd.nextBytes(bs);
+      arr = flavor.on(bs, 0, SIZE);
+    } else {
+      final ByteBuffer bb = ByteBuffer.allocateDirect(total)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < total; i++) bb.put(i, (byte) rnd.nextInt());
+      arr = flavor.on(bb, 0, SIZE);
+    }
+  }
+
+  @Benchmark
+  public long aligned64() {
+    long acc = 0;
+    for (int i = 0; i+8 <= SIZE; i += 8) acc += arr.get64(i);
+    return acc;
+  }
+
+  @Benchmark
+  public long padded64() {
+    long acc = 0;
+    for (int i = 0; i < SIZE; i++) acc ^= arr.pget64(i);
+    return acc;
+  }
+
+  @Benchmark
+  public ByteArray clamped64() {
+    for (int i = 0; i < SIZE; i += 7) arr.cset64(i, i);
+    return arr;
+  }
+}
@@ -0,0 +1,79 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.seismotech.ground.cursor.CursorOf;
+
+/**
+ * A benchmark comparing entry by entry, sequential and bulk access
+ * to a {@link PacketArray} of {@link #SIZE} entries.
+ * Sequential access uses the cursor and writer of the array;
+ * bulk access decodes blocks of 64 entries with the
+ * width-specialized code of {@link PacketCodec}.
+ * Run it with {@code ./gradlew jmh -Pjmhinc=PacketArrayBenchmark}.
+ */
+@Fork(value = 1)
+@Warmup(iterations = 2, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 2, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PacketArrayBenchmark {
+
+  static final int SIZE = 1 << 16;
+
+  @Param({"3", "12", "25", "41"})
+  int width;
+
+  PacketArray arr;
+  long[] values;
+
+  @Setup
+  public void initArray() {
+    final Random rnd = new Random(0);
+    arr = PacketArray.unchecked(
+      ByteArray.unchecked(new byte[SIZE * width / 8 + 8]), width, 0, SIZE);
+    values = new long[SIZE];
+    for (int i = 0; i < SIZE; i++) arr.set(i, rnd.nextLong());
+  }
+
+  @Benchmark
+  public long[] singleGet() {
+    for (int i = 0; i < SIZE; i++) values[i] = arr.get(i);
+    return values;
+  }
+
+  @Benchmark
+  public long[] cursorGet() {
+    final CursorOf.Longs it = arr.longs(0, SIZE);
+    for (int i = 0; it.advance(); i++) values[i] = it.longValue();
+    return values;
+  }
+
+  @Benchmark
+  public long[] bulkGet() {
+    arr.get(0, values, 0, SIZE);
+    return values;
+  }
+
+  @Benchmark
+  public PacketArray singleSet() {
+    for (int i = 0; i < SIZE; i++) arr.set(i, values[i]);
+    return arr;
+  }
+
+  @Benchmark
+  public PacketArray writerSet() {
+    final PacketArray.Writer w = arr.writer(0);
+    for (int i = 0; i < SIZE; i++) w.put(values[i]);
+    w.flush();
+    return arr;
+  }
+
+  @Benchmark
+  public PacketArray bulkSet() {
+    arr.set(0, values, 0, SIZE);
+    return arr;
+  }
+}
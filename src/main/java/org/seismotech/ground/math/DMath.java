@@ -72,4 +72,65 @@ public class DMath {
   public static int clog2(long n) {
     return (64 - Long.numberOfLeadingZeros(n-1)) & 63;
   }
+
+  //----------------------------------------------------------------------
+  // Broadword bit selection
+
+  private static final long ONES_STEP_4 = 0x1111_1111_1111_1111L;
+  private static final long ONES_STEP_8 = 0x0101_0101_0101_0101L;
+  private static final long MSBS_STEP_8 = 0x80L * ONES_STEP_8;
+
+  /** Position of the {@code r}-th bit (from 0) in byte {@code b},
+   * at {@code SELECT_IN_BYTE[r << 8 | b]}. */
+  private static final byte[] SELECT_IN_BYTE = selectInByte();
+
+  private static byte[] selectInByte() {
+    final byte[] t = new byte[8 << 8];
+    for (int b = 0; b < 256; b++) {
+      for (int i = 0, r = 0; i < 8; i++) {
+        if ((b & (1 << i)) != 0) t[(r++ << 8) | b] = (byte) i;
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Position of the {@code r}-th bit (counting from 0) to 1 in {@code x},
+   * for {@code 0 <= r < bitCount(x)}; otherwise the result is undefined.
+   * Branchless broadword algorithm, by Sebastiano Vigna:
+   * byte popcounts are accumulated in parallel, compared at once
+   * with {@code r} to find the byte, and solved with a table inside the byte.
+   */
+  public static int select1(long x, int r) {
+    long sums = x - ((x & 0xA * ONES_STEP_4) >>> 1);
+    sums = (sums & 3 * ONES_STEP_4) + ((sums >>> 2) & 3 * ONES_STEP_4);
+    sums = (sums + (sums >>> 4)) & 0x0F * ONES_STEP_8;
+    //Byte k has the count of bits to 1 in bytes [0,k]
+    sums *= ONES_STEP_8;
+    final long rs = r * ONES_STEP_8;
+    final int byteOff = (int) (((((rs | MSBS_STEP_8) - sums) & MSBS_STEP_8)
+        >>> 7) * ONES_STEP_8 >>> 53) & ~7;
+    final int byteRank = r - (int) (((sums << 8) >>> byteOff) & 0xFF);
+    return byteOff
+      + SELECT_IN_BYTE[(byteRank << 8) | (int) ((x >>> byteOff) & 0xFF)];
+  }
+
+  /** Similar to {@link #select1(long,int)}, on 32 bits words. */
+  public static int select1(int x, int r) {
+    int sums = x - ((x & 0xA * (int) ONES_STEP_4) >>> 1);
+    sums = (sums & 3 * (int) ONES_STEP_4)
+      + ((sums >>> 2) & 3 * (int) ONES_STEP_4);
+    sums = (sums + (sums >>> 4)) & 0x0F * (int) ONES_STEP_8;
+    sums *= (int) ONES_STEP_8;
+    final int rs = r * (int) ONES_STEP_8;
+    final int byteOff = (((((rs | (int) MSBS_STEP_8) - sums)
+        & (int) MSBS_STEP_8) >>> 7) * (int) ONES_STEP_8 >>> 21) & ~7;
+    final int byteRank = r - (((sums << 8) >>> byteOff) & 0xFF);
+    return byteOff + SELECT_IN_BYTE[(byteRank << 8) | ((x >>> byteOff) & 0xFF)];
+  }
+
+  /** Similar to {@link #select1(long,int)}, but for bits to 0. */
+  public static int select0(long x, int r) {
+    return select1(~x, r);
+  }
 }
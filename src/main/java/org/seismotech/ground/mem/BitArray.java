@@ -2,11 +2,12 @@ package org.seismotech.ground.mem;
 
 import static java.lang.Integer.bitCount;
 import static java.lang.Integer.numberOfTrailingZeros;
-import static java.lang.Integer.lowestOneBit;
 import static java.lang.Long.bitCount;
 import static java.lang.Long.numberOfTrailingZeros;
-import static java.lang.Long.lowestOneBit;
+import static java.lang.Long.numberOfLeadingZeros;
 
+import org.seismotech.ground.cursor.CursorOf;
+import org.seismotech.ground.math.DMath;
 import org.seismotech.ground.util.Bounds;
 
 public interface BitArray {
@@ -45,6 +46,48 @@ public interface BitArray {
    * or {@code end} if there is no next bit to 1 in that range. */
   int next1(int init, int end);
 
+  /** Equivalent to {@code next0(init, size())} */
+  default int next0(int init) {return next0(init, size());}
+
+  /** Position of the next bit to 0 starting at {@code init},
+   * or {@code end} if there is no next bit to 0 in that range. */
+  default int next0(int init, int end) {
+    for (int p = init; p < end; p += 64) {
+      final int w = Math.min(64, end-p);
+      final long b = ~get64(p, w) & (-1L >>> (64-w));
+      if (b != 0) return p + numberOfTrailingZeros(b);
+    }
+    return end;
+  }
+
+  /** Equivalent to {@code prev1(0, end)} */
+  default int prev1(int end) {return prev1(0, end);}
+
+  /** Position of the last bit to 1 before {@code end} (exclusive),
+   * or {@code init-1} if there is no bit to 1 in [init,end). */
+  default int prev1(int init, int end) {
+    for (int p = end; p > init; p -= 64) {
+      final int q = Math.max(init, p-64);
+      final long b = get64(q, p-q);
+      if (b != 0) return q + 63 - numberOfLeadingZeros(b);
+    }
+    return init-1;
+  }
+
+  /** Equivalent to {@code prev0(0, end)} */
+  default int prev0(int end) {return prev0(0, end);}
+
+  /** Position of the last bit to 0 before {@code end} (exclusive),
+   * or {@code init-1} if there is no bit to 0 in [init,end). */
+  default int prev0(int init, int end) {
+    for (int p = end; p > init; p -= 64) {
+      final int q = Math.max(init, p-64);
+      final long b = ~get64(q, p-q) & (-1L >>> (64-(p-q)));
+      if (b != 0) return q + 63 - numberOfLeadingZeros(b);
+    }
+    return init-1;
+  }
+
   /** Equivalent to {@code next1n(init, size(), n)} */
   default int next1n(int init, int n) {return next1n(init, size(), n);}
 
@@ -53,12 +96,104 @@ public interface BitArray {
    * {@code n} starts counting at 0 */
   int next1n(int init, int end, int n);
 
-  /** Gets w-bits integer starting at position i */
+  /** Gets w-bits integer starting at position i (bit i is the lsb).
+   * {@code w} should be in the range [1,32]. */
   int get(int i, int w);
 
-  /** Sets w-bits integer starting at position i */
+  /** Sets w-bits integer starting at position i to the lower w bits of v.
+   * {@code w} should be in the range [1,32]. */
   void set(int i, int w, int v);
 
+  /** Similar to {@link #get(int,int)}, but with {@code w} in [1,64]. */
+  long get64(int i, int w);
+
+  /** Similar to {@link #set(int,int,int)}, but with {@code w} in [1,64]. */
+  void set64(int i, int w, long v);
+
+  //----------------------------------------------------------------------
+  // Bulk boolean operations.
+  // Ranges can start at any bit offset; words of the source are aligned
+  // to the target with a funnel shift (see {@link #get64(int,int)}).
+  // If source and target ranges overlap, i should be <= j.
+
+  /** {@code this[i,i+len) = this[i,i+len) op src[j,j+len)}. */
+  default void combine(BitOp op, int i, BitArray src, int j, int len) {
+    int k = 0;
+    for (; k+64 <= len; k+=64) {
+      set64(i+k, 64, op.apply(get64(i+k, 64), src.get64(j+k, 64)));
+    }
+    if (k < len) {
+      final int w = len-k;
+      set64(i+k, w, op.apply(get64(i+k, w), src.get64(j+k, w)));
+    }
+  }
+
+  /** {@code this[i,i+len) = a[j,j+len) op b[k,k+len)}. */
+  default void combine(BitOp op, int i,
+      BitArray a, int j, BitArray b, int k, int len) {
+    for (int p = 0; p < len; p += 64) {
+      final int w = Math.min(64, len-p);
+      set64(i+p, w, op.apply(a.get64(j+p, w), b.get64(k+p, w)));
+    }
+  }
+
+  default void and(int i, BitArray src, int j, int len) {
+    combine(BitOp.AND, i, src, j, len);
+  }
+
+  default void or(int i, BitArray src, int j, int len) {
+    combine(BitOp.OR, i, src, j, len);
+  }
+
+  default void xor(int i, BitArray src, int j, int len) {
+    combine(BitOp.XOR, i, src, j, len);
+  }
+
+  default void andNot(int i, BitArray src, int j, int len) {
+    combine(BitOp.ANDNOT, i, src, j, len);
+  }
+
+  /** Flips all bits in [{@code init}, {@code end}). */
+  default void not(int init, int end) {
+    for (int p = init; p < end; p += 64) {
+      final int w = Math.min(64, end-p);
+      set64(p, w, ~get64(p, w));
+    }
+  }
+
+  /** Number of 1s in {@code this[i,i+len) op other[j,j+len)},
+   * without materializing the combination. */
+  default int popcnt(BitOp op, int i, BitArray other, int j, int len) {
+    int n = 0;
+    for (int p = 0; p < len; p += 64) {
+      final int w = Math.min(64, len-p);
+      n += Long.bitCount(op.apply(get64(i+p, w), other.get64(j+p, w)));
+    }
+    return n;
+  }
+
+  /** Size of the intersection of {@code this[i,i+len)}
+   * and {@code other[j,j+len)}. */
+  default int andPopcnt(int i, BitArray other, int j, int len) {
+    return popcnt(BitOp.AND, i, other, j, len);
+  }
+
+  //----------------------------------------------------------------------
+  /** Cursor on the positions of the bits to 1, in increasing order. */
+  default CursorOf.Ints ones() {return ones(0, size());}
+
+  /** Cursor on the positions of the bits to 1 in [init,end),
+   * in increasing order. */
+  default CursorOf.Ints ones(int init, int end) {
+    return new Ones(this, init, end);
+  }
+
+  /** Cursor on the positions of the bits to 1 in [init,end),
+   * in decreasing order. */
+  default CursorOf.Ints onesReversed(int init, int end) {
+    return new OnesReversed(this, init, end);
+  }
+
   /** Clears the array: set all bits to 0 */
   default void clear() {clear(0, size());}
 
@@ -71,7 +206,74 @@ public interface BitArray {
   default BitArray subarrayClamped(int init, int end) {
     final int effinit = Bounds.clamp(0, init, size());
     final int effend = Bounds.clamp(effinit, end, size());
-    return subarray(init, end);
+    return subarray(effinit, effend);
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Cursor on the bits to 1 of a BitArray.
+   * It reads a 64 bits word at a time, and extracts its 1s
+   * clearing the lowest one, without touching the BitArray again.
+   */
+  public static class Ones implements CursorOf.Ints {
+    private final BitArray bits;
+    private final int end;
+    private int base;
+    private long word;
+    private int current;
+
+    public Ones(BitArray bits, int init, int end) {
+      this.bits = bits;
+      this.end = end;
+      this.base = init;
+      this.word = (init < end) ? bits.get64(init, Math.min(64, end-init)) : 0;
+      this.current = init-1;
+    }
+
+    @Override public boolean advance() {
+      while (word == 0) {
+        base += 64;
+        if (end <= base) return false;
+        word = bits.get64(base, Math.min(64, end-base));
+      }
+      current = base + numberOfTrailingZeros(word);
+      word &= word-1;
+      return true;
+    }
+
+    @Override public int intValue() {return current;}
+  }
+
+  /** Similar to {@link Ones}, but walking from the end to the start. */
+  public static class OnesReversed implements CursorOf.Ints {
+    private final BitArray bits;
+    private final int init;
+    private int base;
+    private long word;
+    private int current;
+
+    public OnesReversed(BitArray bits, int init, int end) {
+      this.bits = bits;
+      this.init = init;
+      this.base = Math.max(init, end-64);
+      this.word = (init < end) ? bits.get64(base, end-base) : 0;
+      this.current = end;
+    }
+
+    @Override public boolean advance() {
+      while (word == 0) {
+        if (base <= init) return false;
+        final int end = base;
+        base = Math.max(init, end-64);
+        word = bits.get64(base, end-base);
+      }
+      final int hi = 63 - numberOfLeadingZeros(word);
+      current = base + hi;
+      word ^= 1L << hi;
+      return true;
+    }
+
+    @Override public int intValue() {return current;}
   }
 
   //----------------------------------------------------------------------
@@ -83,6 +285,165 @@ public interface BitArray {
     return new OnByteArray(store, bitinit, Math.max(0, bitend - bitinit));
   }
 
+  /** A thread-safe BitArray on the whole 64 bits words of {@code store}.
+   * See {@link Concurrent}. */
+  public static Concurrent concurrent(ByteArray store) {
+    return concurrent(store, 0, 64*(store.size()/8));
+  }
+
+  /** A thread-safe BitArray on bits [bitinit,bitend) of {@code store}.
+   * See {@link Concurrent}. */
+  public static Concurrent concurrent(
+      ByteArray store, int bitinit, int bitend) {
+    final int len = Math.max(0, bitend - bitinit);
+    final int minsize = 8 * DMath.cdiv(bitinit + len, 64);
+    if (store.size() < minsize) throw new IllegalArgumentException(
+      "Store of size " + store.size() + " is not big enough to support a"
+      + " concurrent BitArray on bits [" + bitinit + "," + bitend
+      + "); whole 64 bits words are needed, at least " + minsize + " bytes");
+    return new Concurrent(store, bitinit, len);
+  }
+
+  /**
+   * A thread-safe BitArray.
+   * Bits are kept in little endian 64 bits words of a store supporting
+   * atomic access (see {@link ByteArray#getAndBitwiseOr64(int,long)});
+   * the store should be 8 bytes aligned.
+   * Single bit updates are atomic ({@code getAndBitwiseOr/And}),
+   * and {@link #testAndSet(int)} and {@link #testAndClear(int)}
+   * tell whether the bit was already set.
+   * Multibit fields are updated with a CAS loop per word;
+   * fields crossing a word boundary are not updated atomically as a whole.
+   * Reads have acquire semantics;
+   * multiword reads ({@code popcnt}, searches, cursors) are weakly
+   * consistent snapshots: each word is read atomically,
+   * but concurrent updates to other words may or may not be seen.
+   */
+  public static class Concurrent implements BitArray {
+    private final ByteArray st;
+    private final int off;
+    private final int len;
+
+    public Concurrent(ByteArray store, int bitoff, int bitlen) {
+      this.st = store;
+      this.off = bitoff;
+      this.len = bitlen;
+    }
+
+    @Override public int size() {return len;}
+
+    private long word(int k) {return st.get64Acquire(k << 3);}
+
+    private static long bit(int p) {return 1L << p;}
+
+    @Override public int get(int i) {
+      final int p = off+i;
+      return (int) (word(p >>> 6) >>> p) & 1;
+    }
+
+    @Override public void set(int i, int v) {
+      if ((v & 1) != 0) set(i); else clear(i);
+    }
+
+    @Override public void set(int i) {
+      final int p = off+i;
+      st.getAndBitwiseOr64((p >>> 6) << 3, bit(p));
+    }
+
+    @Override public void clear(int i) {
+      final int p = off+i;
+      st.getAndBitwiseAnd64((p >>> 6) << 3, ~bit(p));
+    }
+
+    /** Sets bit {@code i} atomically, returning whether it was already set.
+     * Exactly one of many threads racing to set the same bit
+     * gets {@code false}. */
+    public boolean testAndSet(int i) {
+      final int p = off+i;
+      return (st.getAndBitwiseOr64((p >>> 6) << 3, bit(p)) & bit(p)) != 0;
+    }
+
+    /** Clears bit {@code i} atomically, returning whether it was set. */
+    public boolean testAndClear(int i) {
+      final int p = off+i;
+      return (st.getAndBitwiseAnd64((p >>> 6) << 3, ~bit(p)) & bit(p)) != 0;
+    }
+
+    @Override public int get(int i, int w) {return (int) get64(i, w);}
+
+    @Override public void set(int i, int w, int v) {set64(i, w, v);}
+
+    @Override public long get64(int i, int w) {
+      final int p = off+i, k = p >>> 6, s = p & 63;
+      long v = word(k) >>> s;
+      if (s + w > 64) v |= word(k+1) << (64-s);
+      return v & (-1L >>> (64-w));
+    }
+
+    @Override public void set64(int i, int w, long v) {
+      final int p = off+i, k = p >>> 6, s = p & 63;
+      final long m = -1L >>> (64-w);
+      update(k, m << s, v << s);
+      if (s + w > 64) update(k+1, m >>> (64-s), v >>> (64-s));
+    }
+
+    /** Sets the bits of word {@code k} selected by {@code mask}
+     * to those of {@code v}. */
+    private void update(int k, long mask, long v) {
+      final int b = k << 3;
+      long old;
+      do {
+        old = st.get64Volatile(b);
+      } while (!st.compareAndSet64(b, old, old & ~mask | v & mask));
+    }
+
+    @Override public void clear(int init, int end) {
+      for (int p = off+init, pend = off+end; p < pend; ) {
+        final int s = p & 63, w = Math.min(64-s, pend-p);
+        st.getAndBitwiseAnd64((p >>> 6) << 3, ~((-1L >>> (64-w)) << s));
+        p += w;
+      }
+    }
+
+    @Override public int popcnt(int init, int end) {
+      int n = 0;
+      for (int p = init; p < end; ) {
+        final int w = Math.min(64 - ((off+p) & 63), end-p);
+        n += Long.bitCount(get64(p, w));
+        p += w;
+      }
+      return n;
+    }
+
+    @Override public int next1(int init, int end) {
+      for (int p = init; p < end; ) {
+        final int w = Math.min(64 - ((off+p) & 63), end-p);
+        final long b = get64(p, w);
+        if (b != 0) return p + numberOfTrailingZeros(b);
+        p += w;
+      }
+      return end;
+    }
+
+    @Override public int next1n(int init, int end, int n) {
+      if (n <= 0) return init;
+      int r = n-1;
+      for (int p = init; p < end; ) {
+        final int w = Math.min(64 - ((off+p) & 63), end-p);
+        final long b = get64(p, w);
+        final int c = Long.bitCount(b);
+        if (r < c) return p + DMath.select1(b, r);
+        r -= c;
+        p += w;
+      }
+      return end;
+    }
+
+    @Override public Concurrent subarray(int init, int end) {
+      return new Concurrent(st, off+init, Math.max(0, end-init));
+    }
+  }
+
   public static class OnByteArray implements BitArray {
     private final ByteArray st;
     private final int off;
@@ -96,6 +457,9 @@ public interface BitArray {
 
     @Override public int size() {return len;}
 
+    /** Bit of the store at index 0 of this array. */
+    int storeOffset() {return off;}
+
     @Override public int get(int i) {
       return (st.get(block8(i)) >>> shift8(i)) & 1;
     }
@@ -224,41 +588,76 @@ public interface BitArray {
     }
 
     private static int next1n32(int p, int b, int n) {
-      int mask;
-      for (;;) {
-        mask = lowestOneBit(b);
-        n--;
-        if (n == 0) break;
-        b ^= mask;
-      }
-      return p + numberOfTrailingZeros(mask);
+      return p + DMath.select1(b, n-1);
     }
 
     private static int next1n64(int p, long b, int n) {
-      long mask;
-      for (;;) {
-        mask = lowestOneBit(b);
-        n--;
-        if (n == 0) break;
-        b ^= mask;
-      }
-      return p + numberOfTrailingZeros(mask);
+      return p + DMath.select1(b, n-1);
     }
 
     @Override public int get(int i, int w) {
-      throw new UnsupportedOperationException("FIXME: TODO");
+      final int b = block8(i), s = shift8(i);
+      return (s + w <= 32) ? (st.pget32(b) >>> s) & mask32(w)
+        : (int) (st.pget64(b) >>> s) & mask32(w);
     }
 
     @Override public void set(int i, int w, int v) {
-      throw new UnsupportedOperationException("FIXME: TODO");
+      final int b = block8(i), s = shift8(i);
+      if (s + w <= 32) {
+        final int m = mask32(w) << s;
+        st.cset32(b, st.pget32(b) & ~m | ((v << s) & m));
+      } else {
+        final long m = mask64(w) << s;
+        st.cset64(b, st.pget64(b) & ~m | (((long) v << s) & m));
+      }
     }
 
+    @Override public long get64(int i, int w) {
+      final int b = block8(i), s = shift8(i);
+      long v = st.pget64(b) >>> s;
+      //Crossing a 64 bits boundary needs a second word
+      if (s + w > 64) v |= st.pget64(b+8) << (64-s);
+      return v & mask64(w);
+    }
+
+    @Override public void set64(int i, int w, long v) {
+      final int b = block8(i), s = shift8(i);
+      final long m = mask64(w);
+      st.cset64(b, st.pget64(b) & ~(m << s) | ((v & m) << s));
+      if (s + w > 64) {
+        final long mh = m >>> (64-s);
+        st.cset64(b+8, st.pget64(b+8) & ~mh | ((v >>> (64-s)) & mh));
+      }
+    }
+
+    /** Aligns the target to whole words of the store,
+     * so that only the source needs a funnel shift. */
+    @Override
+    public void combine(BitOp op, int i, BitArray src, int j, int len) {
+      final int head = Math.min(len, (64 - ((off+i) & 63)) & 63);
+      if (head > 0) {
+        set64(i, head, op.apply(get64(i, head), src.get64(j, head)));
+      }
+      int k = head;
+      for (; k+64 <= len; k+=64) {
+        final int b = block8(i+k);
+        st.set64(b, op.apply(st.get64(b), src.get64(j+k, 64)));
+      }
+      if (k < len) {
+        final int w = len-k;
+        set64(i+k, w, op.apply(get64(i+k, w), src.get64(j+k, w)));
+      }
+    }
+
+    private static int mask32(int w) {return -1 >>> (32-w);}
+    private static long mask64(int w) {return -1L >>> (64-w);}
+
     @Override public void clear(int init, int end) {
       st.clear(block8(init), shift8(init), block8(end), shift8(end));
     }
 
     @Override public BitArray subarray(int init, int end) {
-      return new OnByteArray(st, off+init, off+end);
+      return new OnByteArray(st, off+init, Math.max(0, end-init));
     }
 
     private int block8(int i) {return (off + i) >>> 3;}
@@ -0,0 +1,30 @@
+package org.seismotech.ground.mem;
+
+/**
+ * Bitwise binary operations, to be applied in bulk on memory.
+ * Operations are described as {@code a = a OP b},
+ * where {@code a} is the target and {@code b} the source.
+ */
+public enum BitOp {
+  AND, OR, XOR,
+  /** {@code a & ~b} */
+  ANDNOT;
+
+  public long apply(long a, long b) {
+    switch (this) {
+    case AND: return a & b;
+    case OR: return a | b;
+    case XOR: return a ^ b;
+    default: return a & ~b;
+    }
+  }
+
+  public int apply(int a, int b) {
+    switch (this) {
+    case AND: return a & b;
+    case OR: return a | b;
+    case XOR: return a ^ b;
+    default: return a & ~b;
+    }
+  }
+}
@@ -132,6 +132,14 @@ public class Bits {
   // Accessing ByteBuffer with bigger word sizes.
   // Methods for tail access, because ByteBuffer already supports full access
 
+  public static final VarHandle LE32_ON_BUFFER
+    = MethodHandles.byteBufferViewVarHandle(
+      int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  public static final VarHandle LE64_ON_BUFFER
+    = MethodHandles.byteBufferViewVarHandle(
+      long[].class, ByteOrder.LITTLE_ENDIAN);
+
   public static void checkLittleEndian(ByteBuffer bb) {
     check(bb, ByteOrder.LITTLE_ENDIAN);
   }
@@ -0,0 +1,207 @@
+package org.seismotech.ground.mem;
+
+/**
+ * A blocked Bloom filter (Putze, Sanders and Singler) on a ByteArray.
+ * The filter is an array of blocks of 512 bits, a cache line;
+ * each element sets {@code k} bits inside a single block,
+ * so that a lookup costs at most one cache miss instead of {@code k}.
+ *
+ * <p>Elements are given as 64 bits hashes, that should be well mixed.
+ * The high 32 bits select the block with a multiply-high range reduction
+ * ({@code (h * blocks) >>> 32}, by Lemire),
+ * that works for any number of blocks without a division.
+ * The low 32 bits are multiplied by {@code k} odd salts;
+ * the 9 high bits of each product are a position inside the block.
+ *
+ * <p>The serialized form is a header of {@value #HEADER} bytes
+ * followed by the blocks, so that blocks keep the 64 bytes alignment
+ * of the storage (a memory-mapped file, for instance).
+ * {@link #view(ByteArray,int)} builds a filter on a serialized form
+ * without copying it.
+ */
+public class BlockedBloomFilter {
+
+  public static final int BLOCK_BITS = 512;
+  public static final int BLOCK_BYTES = BLOCK_BITS / 8;
+  public static final int MAX_K = 16;
+
+  /** "BBF1" in little endian */
+  private static final int MAGIC = 0x3146_4242;
+  public static final int HEADER = 64;
+
+  private static final int[] SALTS = {
+    0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+    0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31,
+    0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f,
+    0x165667b1, 0xd3a2646d, 0xfd7046c5, 0xb55a4f09,
+  };
+
+  /** Hashes processed together by the bulk operations. */
+  private static final int BATCH = 64;
+
+  private final ByteArray st;
+  private final int blocks;
+  private final int k;
+
+  /** A filter on the first {@code blocks} blocks of {@code store},
+   * setting {@code k} bits per element. */
+  public BlockedBloomFilter(ByteArray store, int blocks, int k) {
+    if (blocks <= 0 || k < 1 || MAX_K < k) {
+      throw new IllegalArgumentException(
+        "Illegal blocked Bloom filter with " + blocks + " blocks and k " + k
+        + ": at least one block and k in [1," + MAX_K + "] expected");
+    }
+    if (store.size() / BLOCK_BYTES < blocks) {
+      throw new IllegalArgumentException(
+        "Store of size " + store.size() + " is not big enough for "
+        + blocks + " blocks of " + BLOCK_BYTES + " bytes");
+    }
+    this.st = store;
+    this.blocks = blocks;
+    this.k = k;
+  }
+
+  /** An empty filter on the heap, for {@code n} elements
+   * with a false positive probability around {@code fpp}. */
+  public static BlockedBloomFilter create(long n, double fpp) {
+    final double ln2 = Math.log(2);
+    final double bits = Math.max(1, n) * -Math.log(fpp) / (ln2 * ln2);
+    //Blocking raises the fpp a bit; compensate with some extra space
+    final long blocks = (long) Math.ceil(1.1 * bits / BLOCK_BITS);
+    if (Integer.MAX_VALUE / BLOCK_BYTES < blocks) {
+      throw new IllegalArgumentException(
+        "A blocked Bloom filter for " + n + " elements with fpp " + fpp
+        + " needs " + blocks + " blocks, more than a ByteArray can hold");
+    }
+    final int k = (int) Math.max(1, Math.min(MAX_K,
+        Math.round(BLOCK_BITS * blocks / (double) Math.max(1, n) * ln2)));
+    return new BlockedBloomFilter(
+      ByteArray.on(new byte[(int) blocks * BLOCK_BYTES]), (int) blocks, k);
+  }
+
+  public int blocks() {return blocks;}
+
+  public int k() {return k;}
+
+  public ByteArray store() {return st;}
+
+  public void clear() {st.clear(0, blocks * BLOCK_BYTES);}
+
+  /** Byte offset of the block of hash {@code h}. */
+  private int block(long h) {
+    return (int) (((h >>> 32) * blocks) >>> 32) * BLOCK_BYTES;
+  }
+
+  /** Position inside a block of the {@code i}-th bit of hash {@code h}. */
+  private static int bit(long h, int i) {
+    return ((int) h * SALTS[i]) >>> 23;
+  }
+
+  public void add(long h) {add(block(h), h);}
+
+  private void add(int b, long h) {
+    for (int i = 0; i < k; i++) {
+      final int p = bit(h, i), w = b + ((p >>> 6) << 3);
+      st.set64(w, st.get64(w) | (1L << p));
+    }
+  }
+
+  /**
+   * Similar to {@link #add(long)}, but safe to be called concurrently
+   * from several threads on the same filter.
+   * The store should support atomic access
+   * (see {@link ByteArray#getAndBitwiseOr64(int,long)})
+   * and be 8 bytes aligned.
+   */
+  public void addAtomic(long h) {
+    final int b = block(h);
+    for (int i = 0; i < k; i++) {
+      final int p = bit(h, i);
+      st.getAndBitwiseOr64(b + ((p >>> 6) << 3), 1L << p);
+    }
+  }
+
+  /** Whether {@code h} could have been added;
+   * if {@code false}, it was certainly not added. */
+  public boolean mightContain(long h) {return mightContain(block(h), h);}
+
+  private boolean mightContain(int b, long h) {
+    for (int i = 0; i < k; i++) {
+      final int p = bit(h, i);
+      if ((st.get64(b + ((p >>> 6) << 3)) & (1L << p)) == 0) return false;
+    }
+    return true;
+  }
+
+  //----------------------------------------------------------------------
+  // Bulk operations.
+  // Block offsets of a batch are computed before touching any block,
+  // so that the CPU can overlap the cache misses of independent probes.
+
+  public void addAll(long[] hs, int off, int len) {
+    final int[] bs = new int[Math.min(BATCH, len)];
+    for (int base = 0; base < len; base += BATCH) {
+      final int n = Math.min(BATCH, len - base);
+      for (int j = 0; j < n; j++) bs[j] = block(hs[off+base+j]);
+      for (int j = 0; j < n; j++) add(bs[j], hs[off+base+j]);
+    }
+  }
+
+  /**
+   * Stores in {@code result[roff+j]} whether {@code hs[off+j]} could have
+   * been added, for {@code j} in [0,len),
+   * returning how many of them could have been added.
+   */
+  public int mightContainAll(long[] hs, int off, int len,
+      boolean[] result, int roff) {
+    final int[] bs = new int[Math.min(BATCH, len)];
+    int found = 0;
+    for (int base = 0; base < len; base += BATCH) {
+      final int n = Math.min(BATCH, len - base);
+      for (int j = 0; j < n; j++) bs[j] = block(hs[off+base+j]);
+      for (int j = 0; j < n; j++) {
+        final boolean in = mightContain(bs[j], hs[off+base+j]);
+        result[roff+base+j] = in;
+        if (in) found++;
+      }
+    }
+    return found;
+  }
+
+  //----------------------------------------------------------------------
+  // Serialization.
+  // Little endian layout: int32 magic, int32 blocks, int32 k,
+  // zero padding up to HEADER bytes, and the blocks.
+
+  public int serializedSize() {return HEADER + blocks * BLOCK_BYTES;}
+
+  /** Writes this filter to {@code trg} starting at {@code off},
+   * returning the number of bytes written. */
+  public int serialize(ByteArray trg, int off) {
+    final int size = serializedSize();
+    if (trg.size() - off < size) throw new IllegalArgumentException(
+      "Serializing a blocked Bloom filter needs " + size
+      + " bytes, but only " + (trg.size() - off) + " are available at "
+      + off);
+    trg.clear(off, off + HEADER);
+    trg.set32(off, MAGIC);
+    trg.set32(off+4, blocks);
+    trg.set32(off+8, k);
+    st.copyTo(0, trg, off + HEADER, blocks * BLOCK_BYTES);
+    return size;
+  }
+
+  /**
+   * A filter on the serialized form at {@code src[off...]}, without copying.
+   * Adding elements to the filter updates {@code src}.
+   */
+  public static BlockedBloomFilter view(ByteArray src, int off) {
+    if (src.get32(off) != MAGIC) throw new IllegalArgumentException(
+      "No serialized blocked Bloom filter at offset " + off);
+    final int blocks = src.get32(off+4);
+    final int k = src.get32(off+8);
+    return new BlockedBloomFilter(
+      src.subarrayClamped(off + HEADER, off + HEADER + blocks * BLOCK_BYTES),
+      blocks, k);
+  }
+}
@@ -2,6 +2,7 @@ package org.seismotech.ground.mem;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Objects;
 
 import org.seismotech.ground.util.Bounds;
 
@@ -26,8 +27,15 @@ import org.seismotech.ground.util.Bounds;
  * *Fast* will check at construction (and assume afterward) that
  * the underlying storage is long enough to perform the multibyte operation.
  * On the contrary, *unchecked* will work with the available space.
- * <p>Nevertheless, currently the only implementation is *unchecked*,
- * therefore all those differences are only theoretical differences.
+ * <p>Every flavor can be built on byte[] and on ByteBuffer
+ * with its own static factory
+ * ({@link #checked}, {@link #unchecked}, {@link #fast}, {@link #unsafe}).
+ * Factories {@link #on} build the flavor selected with system property
+ * {@value Flavor#PROPERTY} ({@link Flavor#UNCHECKED} by default),
+ * allowing to change the implementation of some code without touching it.
+ * {@link Flavor#FAST} builds *unchecked* ByteArrays on storage without
+ * {@link #FAST_PADDING} extra bytes after the logical end of the array,
+ * so code aiming to get *fast* ones from it should allocate them.
  */
 public interface ByteArray {
 
@@ -100,7 +108,320 @@ public interface ByteArray {
 
   int set(int i, byte[] srt, int off, int len);
 
+  /**
+   * Copies {@code len} bytes from this array, starting at {@code i},
+   * to {@code trg}, starting at {@code j}.
+   * The amount of bytes is clamped to the available space in both arrays,
+   * and it is returned.
+   * The fastest mechanism for both storages is used:
+   * {@code System.arraycopy}, ByteBuffer bulk operations
+   * or raw memory copy.
+   * Overlapping regions are correctly copied,
+   * except for different views of the same storage
+   * not backed by byte[], ByteBuffer or raw memory.
+   */
+  default int copyTo(int i, ByteArray trg, int j, int len) {
+    final int n = Math.min(len, Math.min(size()-i, trg.size()-j));
+    if (n <= 0) return 0;
+    transfer(this, i, trg, j, n);
+    return n;
+  }
+
+  private static void transfer(
+      ByteArray src, int i, ByteArray trg, int j, int n) {
+    if (src instanceof OnBytes s) {
+      trg.set(j, s.st, s.off+i, n);
+    } else if (trg instanceof OnBytes t) {
+      src.get(i, t.st, t.off+j, n);
+    } else if (src instanceof OnByteBuffer s && trg instanceof OnByteBuffer t) {
+      t.st.put(t.off+j, s.st, s.off+i, n);
+    } else if (src instanceof UnsafeOnMemory s
+        && trg instanceof UnsafeOnMemory t) {
+      s.checkRaw(i, n);
+      t.checkRaw(j, n);
+      Unsafes.copyMemory(s.base, s.addr+i, t.base, t.addr+j, n);
+    } else if (src instanceof UnsafeOnMemory s
+        && trg instanceof OnByteBuffer t && t.isRawWritable()) {
+      s.checkRaw(i, n);
+      Unsafes.copyMemory(s.base, s.addr+i,
+        Unsafes.base(t.st), Unsafes.address(t.st)+t.off+j, n);
+    } else if (src instanceof OnByteBuffer s && s.isRawReadable()
+        && trg instanceof UnsafeOnMemory t) {
+      t.checkRaw(j, n);
+      Unsafes.copyMemory(
+        Unsafes.base(s.st), Unsafes.address(s.st)+s.off+i,
+        t.base, t.addr+j, n);
+    } else if (src == trg && i < j) {
+      int k = n;
+      for (; k >= 8; k-=8) trg.set64(j+k-8, src.get64(i+k-8));
+      for (; k > 0; k--) trg.set(j+k-1, src.get(i+k-1));
+    } else {
+      int k = 0;
+      for (; k+8 <= n; k+=8) trg.set64(j+k, src.get64(i+k));
+      for (; k < n; k++) trg.set(j+k, src.get(i+k));
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Bulk operations.
+  // Generic implementations work with 64 bits words;
+  // arrays on byte[] and ByteBuffer use the vectorized JDK operations,
+  // or simple loops on byte[] that the JIT can vectorize.
+
+  /**
+   * Index (relative to {@code i} and {@code j}) of the first mismatch
+   * between {@code this[i,i+len)} and {@code other[j,j+len)},
+   * or -1 if both ranges are equal.
+   */
+  default int mismatch(int i, ByteArray other, int j, int len) {
+    if (this instanceof OnBytes a && other instanceof OnBytes b) {
+      return Arrays.mismatch(
+        a.st, a.off+i, a.off+i+len, b.st, b.off+j, b.off+j+len);
+    }
+    if (this instanceof OnByteBuffer a && other instanceof OnByteBuffer b) {
+      return a.st.slice(a.off+i, len).mismatch(b.st.slice(b.off+j, len));
+    }
+    int k = 0;
+    for (; k+8 <= len; k+=8) {
+      final long x = get64(i+k) ^ other.get64(j+k);
+      if (x != 0) return k + (Long.numberOfTrailingZeros(x) >>> 3);
+    }
+    for (; k < len; k++) {
+      if (get(i+k) != other.get(j+k)) return k;
+    }
+    return -1;
+  }
+
+  /** Whether {@code this[i,i+len)} and {@code other[j,j+len)} are equal. */
+  default boolean equals(int i, ByteArray other, int j, int len) {
+    return mismatch(i, other, j, len) < 0;
+  }
+
+  /**
+   * Lexicographic comparison of {@code this[i,i+ilen)}
+   * and {@code other[j,j+jlen)}, with bytes as unsigned values.
+   */
+  default int compareUnsigned(
+      int i, int ilen, ByteArray other, int j, int jlen) {
+    final int k = mismatch(i, other, j, Math.min(ilen, jlen));
+    return (k < 0) ? Integer.compare(ilen, jlen)
+      : Integer.compare(get8u(i+k), other.get8u(j+k));
+  }
+
+  /** {@code this[i,i+len) = this[i,i+len) op src[j,j+len)}. */
+  default void combine(BitOp op, int i, ByteArray src, int j, int len) {
+    if (this instanceof OnBytes a && src instanceof OnBytes b) {
+      combine(op, a.st, a.off+i, b.st, b.off+j, len);
+      return;
+    }
+    int k = 0;
+    for (; k+8 <= len; k+=8) {
+      set64(i+k, op.apply(get64(i+k), src.get64(j+k)));
+    }
+    for (; k < len; k++) {
+      set(i+k, (byte) op.apply(get(i+k), src.get(j+k)));
+    }
+  }
+
+  private static void combine(BitOp op,
+      byte[] a, int aoff, byte[] b, int boff, int len) {
+    switch (op) {
+    case AND:
+      for (int k = 0; k < len; k++) a[aoff+k] &= b[boff+k];
+      break;
+    case OR:
+      for (int k = 0; k < len; k++) a[aoff+k] |= b[boff+k];
+      break;
+    case XOR:
+      for (int k = 0; k < len; k++) a[aoff+k] ^= b[boff+k];
+      break;
+    default:
+      for (int k = 0; k < len; k++) a[aoff+k] &= ~b[boff+k];
+    }
+  }
+
+  default void and(int i, ByteArray src, int j, int len) {
+    combine(BitOp.AND, i, src, j, len);
+  }
+
+  default void or(int i, ByteArray src, int j, int len) {
+    combine(BitOp.OR, i, src, j, len);
+  }
+
+  default void xor(int i, ByteArray src, int j, int len) {
+    combine(BitOp.XOR, i, src, j, len);
+  }
+
+  default void andNot(int i, ByteArray src, int j, int len) {
+    combine(BitOp.ANDNOT, i, src, j, len);
+  }
+
+  /** Sets all bytes in [{@code init}, {@code end}) to {@code v}. */
+  default void fill(int init, int end, byte v) {
+    fill64(init, end, 0x0101_0101_0101_0101L * Bits.ubyte(v));
+  }
+
+  /**
+   * Fills [{@code init}, {@code end}) repeating the 8 bytes of
+   * {@code pattern} (in little endian order) from {@code init};
+   * the last repetition could be incomplete.
+   */
+  default void fill64(int init, int end, long pattern) {
+    int i = init;
+    for (; i+8 <= end; i+=8) set64(i, pattern);
+    for (long v = pattern; i < end; i++, v >>>= 8) set(i, (byte) v);
+  }
+
+  //----------------------------------------------------------------------
+  // Atomic and ordered access on little endian words.
+  // See compareAndSet32 for the alignment and support rules.
+
+  /** Like {@code VarHandle.getAcquire};
+   * see {@link #compareAndSet32} for alignment. */
+  default int get32Acquire(int i) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.getVolatile};
+   * see {@link #compareAndSet32} for alignment. */
+  default int get32Volatile(int i) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.setRelease};
+   * see {@link #compareAndSet32} for alignment. */
+  default void set32Release(int i, int v) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.setVolatile};
+   * see {@link #compareAndSet32} for alignment. */
+  default void set32Volatile(int i, int v) {throw noAtomicAccess(this);}
+
+  /**
+   * Atomically sets the little endian 32 bits word at {@code i}
+   * to {@code update} if it is {@code expect},
+   * like {@code VarHandle.compareAndSet};
+   * returns whether it was set.
+   * <p>As every atomic and ordered access of this interface,
+   * the word should be aligned:
+   * the address of byte {@code i} in the underlying memory should be
+   * a multiple of the word size (4 or 8 bytes).
+   * On 64 bits JVMs, byte[], direct buffers and off-heap blocks start
+   * at addresses multiple of 8; therefore, the word is aligned
+   * if the index of byte {@code i} in the underlying storage
+   * is a multiple of the word size.
+   * Misaligned access throws {@code IllegalStateException} on byte[] and
+   * ByteBuffer storage, and has undefined behaviour on unsafe
+   * implementations.
+   * @throws UnsupportedOperationException if the implementation
+   *   has no atomic access
+   */
+  default boolean compareAndSet32(int i, int expect, int update) {
+    throw noAtomicAccess(this);
+  }
+
+  /** Like {@code VarHandle.getAndAdd};
+   * see {@link #compareAndSet32} for alignment. */
+  default int getAndAdd32(int i, int delta) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.getAndBitwiseOr};
+   * see {@link #compareAndSet32} for alignment. */
+  default int getAndBitwiseOr32(int i, int bits) {
+    throw noAtomicAccess(this);
+  }
+
+  /** Like {@code VarHandle.getAndBitwiseAnd};
+   * see {@link #compareAndSet32} for alignment. */
+  default int getAndBitwiseAnd32(int i, int bits) {
+    throw noAtomicAccess(this);
+  }
+
+  /** Like {@code VarHandle.getAcquire};
+   * see {@link #compareAndSet32} for alignment. */
+  default long get64Acquire(int i) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.getVolatile};
+   * see {@link #compareAndSet32} for alignment. */
+  default long get64Volatile(int i) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.setRelease};
+   * see {@link #compareAndSet32} for alignment. */
+  default void set64Release(int i, long v) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.setVolatile};
+   * see {@link #compareAndSet32} for alignment. */
+  default void set64Volatile(int i, long v) {throw noAtomicAccess(this);}
+
+  /**
+   * Atomically sets the little endian 64 bits word at {@code i}
+   * to {@code update} if it is {@code expect};
+   * returns whether it was set.
+   * See {@link #compareAndSet32} for alignment.
+   * @throws UnsupportedOperationException if the implementation
+   *   has no atomic access
+   */
+  default boolean compareAndSet64(int i, long expect, long update) {
+    throw noAtomicAccess(this);
+  }
+
+  /** Like {@code VarHandle.getAndAdd};
+   * see {@link #compareAndSet32} for alignment. */
+  default long getAndAdd64(int i, long delta) {throw noAtomicAccess(this);}
+
+  /** Like {@code VarHandle.getAndBitwiseOr};
+   * see {@link #compareAndSet32} for alignment. */
+  default long getAndBitwiseOr64(int i, long bits) {
+    throw noAtomicAccess(this);
+  }
+
+  /** Like {@code VarHandle.getAndBitwiseAnd};
+   * see {@link #compareAndSet32} for alignment. */
+  default long getAndBitwiseAnd64(int i, long bits) {
+    throw noAtomicAccess(this);
+  }
+
+  private static UnsupportedOperationException noAtomicAccess(ByteArray a) {
+    return new UnsupportedOperationException(
+      "Atomic access is not supported by " + a.getClass().getName());
+  }
+
   //----------------------------------------------------------------------
+  /**
+   * Bytes needed after the logical end of a *fast* ByteArray,
+   * so that any multibyte access starting inside the array
+   * stays inside the underlying storage.
+   */
+  public static final int FAST_PADDING = Long.BYTES - 1;
+
+  static ByteArray on(byte[] store) {
+    return on(store, 0, store.length);
+  }
+
+  static ByteArray on(byte[] store, int init, int end) {
+    return Flavor.DEFAULT.on(store, init, end);
+  }
+
+  static ByteArray on(ByteBuffer store) {
+    return on(store, store.position(), store.limit());
+  }
+
+  static ByteArray on(ByteBuffer store, int init, int end) {
+    return Flavor.DEFAULT.on(store, init, end);
+  }
+
+  static ByteArray checked(byte[] store) {
+    return checked(store, 0, store.length);
+  }
+
+  static ByteArray checked(byte[] store, int init, int end) {
+    Objects.checkFromToIndex(init, end, store.length);
+    return new CheckedOnBytes(store, init, end);
+  }
+
+  static ByteArray checked(ByteBuffer store) {
+    return checked(store, store.position(), store.limit());
+  }
+
+  static ByteArray checked(ByteBuffer store, int init, int end) {
+    Objects.checkFromToIndex(init, end, store.limit());
+    return new CheckedOnByteBuffer(store, init, end);
+  }
+
   static ByteArray unchecked(byte[] store) {
     return unchecked(store, 0, store.length);
   }
@@ -109,110 +430,1080 @@ public interface ByteArray {
     return new UncheckedOnBytes(store, init, end);
   }
 
-  static ByteArray unchecked(ByteBuffer store) {
-    return unchecked(store, store.position(), store.limit());
-  }
+  static ByteArray unchecked(ByteBuffer store) {
+    return unchecked(store, store.position(), store.limit());
+  }
+
+  static ByteArray unchecked(ByteBuffer store, int init, int end) {
+    return new UncheckedOnByteBuffer(store, init, end);
+  }
+
+  /**
+   * A fast ByteArray on {@code store[init,end)}.
+   * {@code store} should have at least {@link #FAST_PADDING} bytes
+   * after {@code end}.
+   */
+  static ByteArray fast(byte[] store, int init, int end) {
+    checkFast(store.length, init, end);
+    return new FastOnBytes(store, init, end);
+  }
+
+  /**
+   * A fast ByteArray on {@code store[init,end)}.
+   * {@code store} limit should be at least {@link #FAST_PADDING} bytes
+   * after {@code end}.
+   */
+  static ByteArray fast(ByteBuffer store, int init, int end) {
+    checkFast(store.limit(), init, end);
+    return new FastOnByteBuffer(store, init, end);
+  }
+
+  private static void checkFast(int storeSize, int init, int end) {
+    if (init < 0 || end < init || storeSize - FAST_PADDING < end) {
+      throw new IllegalArgumentException(
+        "Store of size " + storeSize + " is not big enough to support a fast"
+        + " ByteArray on range [" + init + "," + end + "); at least "
+        + ((long) end + FAST_PADDING) + " bytes are needed");
+    }
+  }
+
+  static ByteArray unsafe(byte[] store) {
+    return unsafe(store, 0, store.length);
+  }
+
+  static ByteArray unsafe(byte[] store, int init, int end) {
+    return new UnsafeOnMemory(
+      store, store, Unsafes.BYTES_BASE + init, end - init);
+  }
+
+  static ByteArray unsafe(ByteBuffer store) {
+    return unsafe(store, store.position(), store.limit());
+  }
+
+  /**
+   * An unsafe ByteArray on {@code store[init,end)}.
+   * {@code store} should be direct or array backed.
+   * Caller is responsible of keeping {@code store} reachable
+   * while the returned ByteArray is in use.
+   */
+  static ByteArray unsafe(ByteBuffer store, int init, int end) {
+    Bits.checkLittleEndian(store);
+    return new UnsafeOnMemory(store,
+      Unsafes.base(store), Unsafes.address(store) + init, end - init);
+  }
+
+  /**
+   * The available flavors of ByteArray,
+   * to select an implementation at runtime.
+   */
+  public static enum Flavor {
+    CHECKED {
+      @Override public ByteArray on(byte[] store, int init, int end) {
+        return checked(store, init, end);
+      }
+      @Override public ByteArray on(ByteBuffer store, int init, int end) {
+        return checked(store, init, end);
+      }
+    },
+    UNCHECKED {
+      @Override public ByteArray on(byte[] store, int init, int end) {
+        return unchecked(store, init, end);
+      }
+      @Override public ByteArray on(ByteBuffer store, int init, int end) {
+        return unchecked(store, init, end);
+      }
+    },
+    /**
+     * Fast ByteArrays on stores with {@link #FAST_PADDING} bytes
+     * after the logical end; unchecked ones on stores without them,
+     * that behave the same way.
+     */
+    FAST {
+      @Override public ByteArray on(byte[] store, int init, int end) {
+        return (end <= store.length - FAST_PADDING)
+          ? fast(store, init, end) : unchecked(store, init, end);
+      }
+      @Override public ByteArray on(ByteBuffer store, int init, int end) {
+        return (end <= store.limit() - FAST_PADDING)
+          ? fast(store, init, end) : unchecked(store, init, end);
+      }
+    },
+    UNSAFE {
+      @Override public ByteArray on(byte[] store, int init, int end) {
+        return unsafe(store, init, end);
+      }
+      @Override public ByteArray on(ByteBuffer store, int init, int end) {
+        return unsafe(store, init, end);
+      }
+    };
+
+    /** System property with the name of the default flavor. */
+    public static final String PROPERTY = "org.seismotech.ground.mem.flavor";
+
+    /** Flavor used by {@link ByteArray#on} factories. */
+    public static final Flavor DEFAULT = named(System.getProperty(PROPERTY));
+
+    /**
+     * The flavor called {@code name} (ignoring case),
+     * or silently {@link #UNCHECKED} if {@code name} is null
+     * or not a flavor.
+     */
+    static Flavor named(String name) {
+      if (name == null) return UNCHECKED;
+      for (final Flavor f: values()) {
+        if (f.name().equalsIgnoreCase(name)) return f;
+      }
+      return UNCHECKED;
+    }
+
+    public abstract ByteArray on(byte[] store, int init, int end);
+
+    public abstract ByteArray on(ByteBuffer store, int init, int end);
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Base of ByteArray implementations backed by a byte[].
+   * Implements the operations that are equal for
+   * *unchecked* and *fast* flavors.
+   */
+  public static abstract class OnBytes implements ByteArray {
+    protected final byte[] st;
+    protected final int off;
+    protected final int len;
+
+    protected OnBytes(byte[] st, int init, int end) {
+      this.st = st;
+      this.off = init;
+      this.len = Math.max(0, end-init);
+    }
+
+    @Override
+    public int size() {return len;}
+
+    @Override public byte get(int i) {return st[off+i];}
+    @Override public short getShort(int i) {return Bits.le16(st, off+i);}
+    @Override public int getInt(int i) {return Bits.le32(st, off+i);}
+    @Override public long getLong(int i) {return Bits.le64(st, off+i);}
+
+    @Override public void set(int i, byte v) {st[off+i] = v;}
+    @Override public void setShort(int i, short v) {Bits.le16(st, off+i, v);}
+    @Override public void setInt(int i, int v) {Bits.le32(st, off+i, v);}
+    @Override public void setLong(int i, long v) {Bits.le64(st, off+i, v);}
+
+    @Override
+    public void clear(int init, int end) {
+      Arrays.fill(st, off+init, off+end, (byte) 0);
+    }
+
+    @Override
+    public void fill(int init, int end, byte v) {
+      Arrays.fill(st, off+init, off+end, v);
+    }
+
+    @Override
+    public void clear(int init, int sinit, int end, int send) {
+      if (init < end) {
+        int j = init;
+        if (0 < sinit) {st[off+j] &= ~(0xFF << sinit); j++;}
+        Arrays.fill(st, off+j, off+end, (byte) 0);
+      }
+      if (0 < send) {
+        int mask = 0xFF << send;
+        if (init == end && 0 < sinit) mask |= ~(0xFF << sinit);
+        st[off+end] &= mask;
+      }
+    }
+
+    @Override
+    public int get(int i, byte[] trg, int off, int len) {
+      final int tocopy = Math.min(this.len-i, len);
+      if (tocopy <= 0) return 0;
+      System.arraycopy(st, this.off+i, trg, off, tocopy);
+      return tocopy;
+    }
+
+    @Override
+    public int set(int i, byte[] src, int off, int len) {
+      final int tocopy = Math.min(this.len-i, len);
+      if (tocopy <= 0) return 0;
+      System.arraycopy(src, off, st, this.off+i, tocopy);
+      return tocopy;
+    }
+
+    @Override public int get32Acquire(int i) {
+      return (int) Bits.LE32_ON_BYTES.getAcquire(st, off+i);
+    }
+    @Override public int get32Volatile(int i) {
+      return (int) Bits.LE32_ON_BYTES.getVolatile(st, off+i);
+    }
+    @Override public void set32Release(int i, int v) {
+      Bits.LE32_ON_BYTES.setRelease(st, off+i, v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      Bits.LE32_ON_BYTES.setVolatile(st, off+i, v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      return Bits.LE32_ON_BYTES.compareAndSet(st, off+i, expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return (int) Bits.LE32_ON_BYTES.getAndAdd(st, off+i, delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      return (int) Bits.LE32_ON_BYTES.getAndBitwiseOr(st, off+i, bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      return (int) Bits.LE32_ON_BYTES.getAndBitwiseAnd(st, off+i, bits);
+    }
+
+    @Override public long get64Acquire(int i) {
+      return (long) Bits.LE64_ON_BYTES.getAcquire(st, off+i);
+    }
+    @Override public long get64Volatile(int i) {
+      return (long) Bits.LE64_ON_BYTES.getVolatile(st, off+i);
+    }
+    @Override public void set64Release(int i, long v) {
+      Bits.LE64_ON_BYTES.setRelease(st, off+i, v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      Bits.LE64_ON_BYTES.setVolatile(st, off+i, v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      return Bits.LE64_ON_BYTES.compareAndSet(st, off+i, expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return (long) Bits.LE64_ON_BYTES.getAndAdd(st, off+i, delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      return (long) Bits.LE64_ON_BYTES.getAndBitwiseOr(st, off+i, bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      return (long) Bits.LE64_ON_BYTES.getAndBitwiseAnd(st, off+i, bits);
+    }
+  }
+
+  /**
+   * An unchecked implementation of ByteArray backed by a byte[].
+   */
+  public static class UncheckedOnBytes extends OnBytes {
+    public UncheckedOnBytes(byte[] st, int init, int end) {
+      super(st, init, end);
+    }
+
+    @Override
+    public ByteArray subarray(int init, int end) {
+      return new UncheckedOnBytes(st, off+init, off+end);
+    }
+
+    @Override
+    public short getPaddedShort(int i) {
+      return (i <= len-2) ? getShort(i) : (short) Bits.ubyte(st[off+i]);
+    }
+
+    @Override
+    public int getPaddedInt(int i) {
+      final int j = off+i, tail = len-i;
+      if (j <= st.length-4) {
+        final int v = Bits.le32(st, j);
+        return (tail >= 4) ? v : v & ((1 << 8*tail) - 1);
+      } else {
+        return Bits.le32tail(st, j, tail);
+      }
+    }
+
+    @Override
+    public long getPaddedLong(int i) {
+      final int j = off+i, tail = len-i;
+      if (j <= st.length-8) {
+        final long v = Bits.le64(st, j);
+        return (tail >= 8) ? v : v & ((1L << 8*tail) - 1);
+      } else {
+        return Bits.le64tail(st, j, tail);
+      }
+    }
+
+    @Override
+    public void setClampedShort(int i, short v) {
+      if (i <= len-2) setShort(i,v);
+      else set(i, (byte) v);
+    }
+
+    @Override
+    public void setClampedInt(int i, int v) {
+      final int tail = len-i;
+      if (tail >= 4) setInt(i, v);
+      else Bits.le32tail(st, off+i, tail, v);
+    }
+
+    @Override
+    public void setClampedLong(int i, long v) {
+      final int tail = len-i;
+      if (tail >= 8) setLong(i, v);
+      else Bits.le64tail(st, off+i, tail, v);
+    }
+  }
+
+  /**
+   * A fast implementation of ByteArray backed by a byte[].
+   * The byte[] is assumed to have {@link #FAST_PADDING} bytes after
+   * the logical end, therefore multibyte access at the extremes
+   * is solved with a full word access and a mask, without branches.
+   * Clamped writes are read-modify-write operations on the full word,
+   * preserving the bytes after the logical end.
+   */
+  public static class FastOnBytes extends OnBytes {
+    public FastOnBytes(byte[] st, int init, int end) {
+      super(st, init, end);
+    }
+
+    @Override
+    public ByteArray subarray(int init, int end) {
+      return new FastOnBytes(st, off+init, off+end);
+    }
+
+    @Override
+    public short getPaddedShort(int i) {
+      return (short) (Bits.le16(st, off+i) & mask16(len-i));
+    }
+
+    @Override
+    public int getPaddedInt(int i) {
+      return Bits.le32(st, off+i) & mask32(len-i);
+    }
+
+    @Override
+    public long getPaddedLong(int i) {
+      return Bits.le64(st, off+i) & mask64(len-i);
+    }
+
+    @Override
+    public void setClampedShort(int i, short v) {
+      final int j = off+i, m = mask16(len-i);
+      Bits.le16(st, j, (short) (Bits.le16(st, j) & ~m | v & m));
+    }
+
+    @Override
+    public void setClampedInt(int i, int v) {
+      final int j = off+i, m = mask32(len-i);
+      Bits.le32(st, j, Bits.le32(st, j) & ~m | v & m);
+    }
+
+    @Override
+    public void setClampedLong(int i, long v) {
+      final int j = off+i;
+      final long m = mask64(len-i);
+      Bits.le64(st, j, Bits.le64(st, j) & ~m | v & m);
+    }
+  }
+
+  /** Mask for the first {@code tail} bytes of a 16 bits word */
+  private static int mask16(int tail) {
+    return 0xFFFF >>> 8*(2 - Math.min(tail, 2));
+  }
+
+  /** Mask for the first {@code tail} bytes of a 32 bits word */
+  private static int mask32(int tail) {
+    return (tail <= 0) ? 0 : -1 >>> 8*(4 - Math.min(tail, 4));
+  }
+
+  /** Mask for the first {@code tail} bytes of a 64 bits word */
+  private static long mask64(int tail) {
+    return (tail <= 0) ? 0 : -1L >>> 8*(8 - Math.min(tail, 8));
+  }
+
+  /**
+   * A checked implementation of ByteArray backed by a byte[].
+   * Any access out of {@code [0,size())} throws
+   * {@code IndexOutOfBoundsException}.
+   */
+  public static class CheckedOnBytes extends UncheckedOnBytes {
+    public CheckedOnBytes(byte[] st, int init, int end) {
+      super(st, init, end);
+    }
+
+    @Override
+    public ByteArray subarray(int init, int end) {
+      Objects.checkFromToIndex(init, end, len);
+      return new CheckedOnBytes(st, off+init, off+end);
+    }
+
+    @Override public byte get(int i) {
+      return super.get(Objects.checkIndex(i, len));
+    }
+    @Override public short getShort(int i) {
+      return super.getShort(Objects.checkFromIndexSize(i, 2, len));
+    }
+    @Override public int getInt(int i) {
+      return super.getInt(Objects.checkFromIndexSize(i, 4, len));
+    }
+    @Override public long getLong(int i) {
+      return super.getLong(Objects.checkFromIndexSize(i, 8, len));
+    }
+
+    @Override public void set(int i, byte v) {
+      super.set(Objects.checkIndex(i, len), v);
+    }
+    @Override public void setShort(int i, short v) {
+      super.setShort(Objects.checkFromIndexSize(i, 2, len), v);
+    }
+    @Override public void setInt(int i, int v) {
+      super.setInt(Objects.checkFromIndexSize(i, 4, len), v);
+    }
+    @Override public void setLong(int i, long v) {
+      super.setLong(Objects.checkFromIndexSize(i, 8, len), v);
+    }
+
+    @Override public short getPaddedShort(int i) {
+      return super.getPaddedShort(Objects.checkIndex(i, len));
+    }
+    @Override public int getPaddedInt(int i) {
+      return super.getPaddedInt(Objects.checkIndex(i, len));
+    }
+    @Override public long getPaddedLong(int i) {
+      return super.getPaddedLong(Objects.checkIndex(i, len));
+    }
+
+    @Override public void setClampedShort(int i, short v) {
+      super.setClampedShort(Objects.checkIndex(i, len), v);
+    }
+    @Override public void setClampedInt(int i, int v) {
+      super.setClampedInt(Objects.checkIndex(i, len), v);
+    }
+    @Override public void setClampedLong(int i, long v) {
+      super.setClampedLong(Objects.checkIndex(i, len), v);
+    }
+
+    @Override
+    public void clear(int init, int end) {
+      Objects.checkFromToIndex(init, end, len);
+      super.clear(init, end);
+    }
+
+    @Override
+    public void clear(int init, int sinit, int end, int send) {
+      checkClear(init, end, send, len);
+      super.clear(init, sinit, end, send);
+    }
+
+    @Override
+    public int get(int i, byte[] trg, int off, int len) {
+      Objects.checkFromIndexSize(i, 0, this.len);
+      Objects.checkFromIndexSize(off, len, trg.length);
+      return super.get(i, trg, off, len);
+    }
+
+    @Override
+    public int set(int i, byte[] src, int off, int len) {
+      Objects.checkFromIndexSize(i, 0, this.len);
+      Objects.checkFromIndexSize(off, len, src.length);
+      return super.set(i, src, off, len);
+    }
+
+    @Override
+    public int copyTo(int i, ByteArray trg, int j, int len) {
+      Objects.checkFromIndexSize(i, 0, this.len);
+      Objects.checkFromIndexSize(j, 0, trg.size());
+      return super.copyTo(i, trg, j, len);
+    }
+
+    @Override
+    public int mismatch(int i, ByteArray other, int j, int len) {
+      Objects.checkFromIndexSize(i, len, this.len);
+      Objects.checkFromIndexSize(j, len, other.size());
+      return super.mismatch(i, other, j, len);
+    }
+
+    @Override
+    public void combine(BitOp op, int i, ByteArray src, int j, int len) {
+      Objects.checkFromIndexSize(i, len, this.len);
+      Objects.checkFromIndexSize(j, len, src.size());
+      super.combine(op, i, src, j, len);
+    }
+
+    @Override
+    public void fill(int init, int end, byte v) {
+      Objects.checkFromToIndex(init, end, len);
+      super.fill(init, end, v);
+    }
+
+    @Override
+    public void fill64(int init, int end, long pattern) {
+      Objects.checkFromToIndex(init, end, len);
+      super.fill64(init, end, pattern);
+    }
+
+    @Override public int get32Acquire(int i) {
+      return super.get32Acquire(Objects.checkFromIndexSize(i, 4, len));
+    }
+    @Override public int get32Volatile(int i) {
+      return super.get32Volatile(Objects.checkFromIndexSize(i, 4, len));
+    }
+    @Override public void set32Release(int i, int v) {
+      super.set32Release(Objects.checkFromIndexSize(i, 4, len), v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      super.set32Volatile(Objects.checkFromIndexSize(i, 4, len), v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      Objects.checkFromIndexSize(i, 4, len);
+      return super.compareAndSet32(i, expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return super.getAndAdd32(Objects.checkFromIndexSize(i, 4, len), delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      Objects.checkFromIndexSize(i, 4, len);
+      return super.getAndBitwiseOr32(i, bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      Objects.checkFromIndexSize(i, 4, len);
+      return super.getAndBitwiseAnd32(i, bits);
+    }
+
+    @Override public long get64Acquire(int i) {
+      return super.get64Acquire(Objects.checkFromIndexSize(i, 8, len));
+    }
+    @Override public long get64Volatile(int i) {
+      return super.get64Volatile(Objects.checkFromIndexSize(i, 8, len));
+    }
+    @Override public void set64Release(int i, long v) {
+      super.set64Release(Objects.checkFromIndexSize(i, 8, len), v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      super.set64Volatile(Objects.checkFromIndexSize(i, 8, len), v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      Objects.checkFromIndexSize(i, 8, len);
+      return super.compareAndSet64(i, expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return super.getAndAdd64(Objects.checkFromIndexSize(i, 8, len), delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      Objects.checkFromIndexSize(i, 8, len);
+      return super.getAndBitwiseOr64(i, bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      Objects.checkFromIndexSize(i, 8, len);
+      return super.getAndBitwiseAnd64(i, bits);
+    }
+  }
+
+  private static void checkClear(int init, int end, int send, int len) {
+    Objects.checkFromToIndex(init, end, len);
+    if (0 < send) Objects.checkIndex(end, len);
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Base of ByteArray implementations backed by a ByteBuffer.
+   * Implements the operations that are equal for
+   * *unchecked* and *fast* flavors.
+   */
+  public static abstract class OnByteBuffer implements ByteArray {
+    protected final ByteBuffer st;
+    protected final int off;
+    protected final int len;
+
+    protected OnByteBuffer(ByteBuffer st, int init, int end) {
+      Bits.checkLittleEndian(st);
+      this.st = st;
+      this.off = init;
+      this.len = Math.max(0, end-init);
+    }
+
+    @Override
+    public int size() {return len;}
+
+    @Override public byte get(int i) {return st.get(off+i);}
+    @Override public short getShort(int i) {return st.getShort(off+i);}
+    @Override public int getInt(int i) {return st.getInt(off+i);}
+    @Override public long getLong(int i) {return st.getLong(off+i);}
+
+    @Override public void set(int i, byte v) {st.put(off+i, v);}
+    @Override public void setShort(int i, short v) {st.putShort(off+i, v);}
+    @Override public void setInt(int i, int v) {st.putInt(off+i, v);}
+    @Override public void setLong(int i, long v) {st.putLong(off+i, v);}
+
+    @Override
+    public void clear(int init, int end) {
+      final int limit = off + end;
+      int j = off+init;
+      while (j+8 <= limit) {st.putLong(j, 0);  j+=8;}
+      if (j+4 <= limit) {st.putInt(j, 0);  j+=4;}
+      while (j < limit) {st.put(j, (byte)0);  j++;}
+    }
+
+    @Override
+    public void clear(int init, int sinit, int end, int send) {
+      if (init < end) {
+        int j = init;
+        if (0 < sinit) {
+          st.put(off+j, (byte)(st.get(off+j) & ~(0xFF << sinit)));
+          j++;
+        }
+        clear(j, end);
+      }
+      if (0 < send) {
+        int mask = 0xFF << send;
+        if (init == end && 0 < sinit) mask |= ~(0xFF << sinit);
+        st.put(off+end, (byte) (st.get(off+end) & mask));
+      }
+    }
+
+    @Override
+    public int get(int i, byte[] trg, int off, int len) {
+      final int tocopy = Math.min(this.len-i, len);
+      if (tocopy <= 0) return 0;
+      st.get(this.off+i, trg, off, tocopy);
+      return tocopy;
+    }
+
+    @Override
+    public int set(int i, byte[] src, int off, int len) {
+      final int tocopy = Math.min(this.len-i, len);
+      if (tocopy <= 0) return 0;
+      st.put(this.off+i, src, off, tocopy);
+      return tocopy;
+    }
+
+    /** Whether the contents of this buffer can be read as raw memory. */
+    protected boolean isRawReadable() {return st.isDirect() || st.hasArray();}
+
+    /** Whether the contents of this buffer can be written as raw memory. */
+    protected boolean isRawWritable() {
+      return isRawReadable() && !st.isReadOnly();
+    }
+
+    @Override public int get32Acquire(int i) {
+      return (int) Bits.LE32_ON_BUFFER.getAcquire(st, off+i);
+    }
+    @Override public int get32Volatile(int i) {
+      return (int) Bits.LE32_ON_BUFFER.getVolatile(st, off+i);
+    }
+    @Override public void set32Release(int i, int v) {
+      Bits.LE32_ON_BUFFER.setRelease(st, off+i, v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      Bits.LE32_ON_BUFFER.setVolatile(st, off+i, v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      return Bits.LE32_ON_BUFFER.compareAndSet(st, off+i, expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return (int) Bits.LE32_ON_BUFFER.getAndAdd(st, off+i, delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      return (int) Bits.LE32_ON_BUFFER.getAndBitwiseOr(st, off+i, bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      return (int) Bits.LE32_ON_BUFFER.getAndBitwiseAnd(st, off+i, bits);
+    }
+
+    @Override public long get64Acquire(int i) {
+      return (long) Bits.LE64_ON_BUFFER.getAcquire(st, off+i);
+    }
+    @Override public long get64Volatile(int i) {
+      return (long) Bits.LE64_ON_BUFFER.getVolatile(st, off+i);
+    }
+    @Override public void set64Release(int i, long v) {
+      Bits.LE64_ON_BUFFER.setRelease(st, off+i, v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      Bits.LE64_ON_BUFFER.setVolatile(st, off+i, v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      return Bits.LE64_ON_BUFFER.compareAndSet(st, off+i, expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return (long) Bits.LE64_ON_BUFFER.getAndAdd(st, off+i, delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      return (long) Bits.LE64_ON_BUFFER.getAndBitwiseOr(st, off+i, bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      return (long) Bits.LE64_ON_BUFFER.getAndBitwiseAnd(st, off+i, bits);
+    }
+  }
+
+  /**
+   * An unchecked implementation of ByteArray backed by a ByteBuffer.
+   */
+  public static class UncheckedOnByteBuffer extends OnByteBuffer {
+    public UncheckedOnByteBuffer(ByteBuffer st, int init, int end) {
+      super(st, init, end);
+    }
+
+    @Override
+    public ByteArray subarray(int init, int end) {
+      return new UncheckedOnByteBuffer(st, off+init, off+end);
+    }
+
+    @Override public short getPaddedShort(int i) {
+      final int j = off+i;
+      return (len-i >= 2) ? st.getShort(j) : (short) Bits.ubyte(st.get(j));
+    }
+
+    @Override public int getPaddedInt(int i) {
+      final int j = off+i, tail = len-i;
+      return (tail >= 4) ? st.getInt(j) : Bits.le32tail(st, j, tail);
+    }
+
+    @Override public long getPaddedLong(int i) {
+      final int j = off+i, tail = len-i;
+      return (tail >= 8) ? st.getLong(j) : Bits.le64tail(st, j, tail);
+    }
+
+    @Override public void setClampedShort(int i, short v) {
+      final int j = off+i;
+      if (i <= len-2) st.putShort(j,v);
+      else st.put(j, (byte) v);
+    }
+
+    @Override public void setClampedInt(int i, int v) {
+      final int j = off+i, tail = len-i;
+      if (tail >= 4) st.putInt(j, v);
+      else Bits.le32tail(st, j, tail, v);
+    }
+
+    @Override public void setClampedLong(int i, long v) {
+      final int j = off+i, tail = len-i;
+      if (tail >= 8) st.putLong(j, v);
+      else Bits.le64tail(st, j, tail, v);
+    }
+  }
+
+  /**
+   * A fast implementation of ByteArray backed by a ByteBuffer.
+   * See {@link FastOnBytes}.
+   */
+  public static class FastOnByteBuffer extends OnByteBuffer {
+    public FastOnByteBuffer(ByteBuffer st, int init, int end) {
+      super(st, init, end);
+    }
+
+    @Override
+    public ByteArray subarray(int init, int end) {
+      return new FastOnByteBuffer(st, off+init, off+end);
+    }
+
+    @Override public short getPaddedShort(int i) {
+      return (short) (st.getShort(off+i) & mask16(len-i));
+    }
+
+    @Override public int getPaddedInt(int i) {
+      return st.getInt(off+i) & mask32(len-i);
+    }
+
+    @Override public long getPaddedLong(int i) {
+      return st.getLong(off+i) & mask64(len-i);
+    }
+
+    @Override public void setClampedShort(int i, short v) {
+      final int j = off+i, m = mask16(len-i);
+      st.putShort(j, (short) (st.getShort(j) & ~m | v & m));
+    }
+
+    @Override public void setClampedInt(int i, int v) {
+      final int j = off+i, m = mask32(len-i);
+      st.putInt(j, st.getInt(j) & ~m | v & m);
+    }
+
+    @Override public void setClampedLong(int i, long v) {
+      final int j = off+i;
+      final long m = mask64(len-i);
+      st.putLong(j, st.getLong(j) & ~m | v & m);
+    }
+  }
+
+  /**
+   * A checked implementation of ByteArray backed by a ByteBuffer.
+   * See {@link CheckedOnBytes}.
+   */
+  public static class CheckedOnByteBuffer extends UncheckedOnByteBuffer {
+    public CheckedOnByteBuffer(ByteBuffer st, int init, int end) {
+      super(st, init, end);
+    }
 
-  static ByteArray unchecked(ByteBuffer store, int init, int end) {
-    return new UncheckedOnByteBuffer(store, init, end);
+    @Override
+    public ByteArray subarray(int init, int end) {
+      Objects.checkFromToIndex(init, end, len);
+      return new CheckedOnByteBuffer(st, off+init, off+end);
+    }
+
+    @Override public byte get(int i) {
+      return super.get(Objects.checkIndex(i, len));
+    }
+    @Override public short getShort(int i) {
+      return super.getShort(Objects.checkFromIndexSize(i, 2, len));
+    }
+    @Override public int getInt(int i) {
+      return super.getInt(Objects.checkFromIndexSize(i, 4, len));
+    }
+    @Override public long getLong(int i) {
+      return super.getLong(Objects.checkFromIndexSize(i, 8, len));
+    }
+
+    @Override public void set(int i, byte v) {
+      super.set(Objects.checkIndex(i, len), v);
+    }
+    @Override public void setShort(int i, short v) {
+      super.setShort(Objects.checkFromIndexSize(i, 2, len), v);
+    }
+    @Override public void setInt(int i, int v) {
+      super.setInt(Objects.checkFromIndexSize(i, 4, len), v);
+    }
+    @Override public void setLong(int i, long v) {
+      super.setLong(Objects.checkFromIndexSize(i, 8, len), v);
+    }
+
+    @Override public short getPaddedShort(int i) {
+      return super.getPaddedShort(Objects.checkIndex(i, len));
+    }
+    @Override public int getPaddedInt(int i) {
+      return super.getPaddedInt(Objects.checkIndex(i, len));
+    }
+    @Override public long getPaddedLong(int i) {
+      return super.getPaddedLong(Objects.checkIndex(i, len));
+    }
+
+    @Override public void setClampedShort(int i, short v) {
+      super.setClampedShort(Objects.checkIndex(i, len), v);
+    }
+    @Override public void setClampedInt(int i, int v) {
+      super.setClampedInt(Objects.checkIndex(i, len), v);
+    }
+    @Override public void setClampedLong(int i, long v) {
+      super.setClampedLong(Objects.checkIndex(i, len), v);
+    }
+
+    @Override
+    public void clear(int init, int end) {
+      Objects.checkFromToIndex(init, end, len);
+      super.clear(init, end);
+    }
+
+    @Override
+    public void clear(int init, int sinit, int end, int send) {
+      checkClear(init, end, send, len);
+      super.clear(init, sinit, end, send);
+    }
+
+    @Override
+    public int get(int i, byte[] trg, int off, int len) {
+      Objects.checkFromIndexSize(i, 0, this.len);
+      Objects.checkFromIndexSize(off, len, trg.length);
+      return super.get(i, trg, off, len);
+    }
+
+    @Override
+    public int set(int i, byte[] src, int off, int len) {
+      Objects.checkFromIndexSize(i, 0, this.len);
+      Objects.checkFromIndexSize(off, len, src.length);
+      return super.set(i, src, off, len);
+    }
+
+    @Override
+    public int copyTo(int i, ByteArray trg, int j, int len) {
+      Objects.checkFromIndexSize(i, 0, this.len);
+      Objects.checkFromIndexSize(j, 0, trg.size());
+      return super.copyTo(i, trg, j, len);
+    }
+
+    @Override
+    public int mismatch(int i, ByteArray other, int j, int len) {
+      Objects.checkFromIndexSize(i, len, this.len);
+      Objects.checkFromIndexSize(j, len, other.size());
+      return super.mismatch(i, other, j, len);
+    }
+
+    @Override
+    public void combine(BitOp op, int i, ByteArray src, int j, int len) {
+      Objects.checkFromIndexSize(i, len, this.len);
+      Objects.checkFromIndexSize(j, len, src.size());
+      super.combine(op, i, src, j, len);
+    }
+
+    @Override
+    public void fill(int init, int end, byte v) {
+      Objects.checkFromToIndex(init, end, len);
+      super.fill(init, end, v);
+    }
+
+    @Override
+    public void fill64(int init, int end, long pattern) {
+      Objects.checkFromToIndex(init, end, len);
+      super.fill64(init, end, pattern);
+    }
+
+    @Override public int get32Acquire(int i) {
+      return super.get32Acquire(Objects.checkFromIndexSize(i, 4, len));
+    }
+    @Override public int get32Volatile(int i) {
+      return super.get32Volatile(Objects.checkFromIndexSize(i, 4, len));
+    }
+    @Override public void set32Release(int i, int v) {
+      super.set32Release(Objects.checkFromIndexSize(i, 4, len), v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      super.set32Volatile(Objects.checkFromIndexSize(i, 4, len), v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      Objects.checkFromIndexSize(i, 4, len);
+      return super.compareAndSet32(i, expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return super.getAndAdd32(Objects.checkFromIndexSize(i, 4, len), delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      Objects.checkFromIndexSize(i, 4, len);
+      return super.getAndBitwiseOr32(i, bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      Objects.checkFromIndexSize(i, 4, len);
+      return super.getAndBitwiseAnd32(i, bits);
+    }
+
+    @Override public long get64Acquire(int i) {
+      return super.get64Acquire(Objects.checkFromIndexSize(i, 8, len));
+    }
+    @Override public long get64Volatile(int i) {
+      return super.get64Volatile(Objects.checkFromIndexSize(i, 8, len));
+    }
+    @Override public void set64Release(int i, long v) {
+      super.set64Release(Objects.checkFromIndexSize(i, 8, len), v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      super.set64Volatile(Objects.checkFromIndexSize(i, 8, len), v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      Objects.checkFromIndexSize(i, 8, len);
+      return super.compareAndSet64(i, expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return super.getAndAdd64(Objects.checkFromIndexSize(i, 8, len), delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      Objects.checkFromIndexSize(i, 8, len);
+      return super.getAndBitwiseOr64(i, bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      Objects.checkFromIndexSize(i, 8, len);
+      return super.getAndBitwiseAnd64(i, bits);
+    }
   }
 
   //----------------------------------------------------------------------
   /**
-   * An unchecked implementation of ByteArray backed by a byte[].
+   * An unsafe implementation of ByteArray on raw memory,
+   * described as a base object and an address relative to it,
+   * in the terms of {@code sun.misc.Unsafe}:
+   * a byte[] and an offset including the array base,
+   * or {@code null} and an absolute off-heap address.
+   * Nothing is checked; any access outside the underlying storage
+   * could corrupt the JVM memory or crash it.
+   * {@code owner} is the object responsible of the memory life cycle
+   * (for instance, a direct ByteBuffer);
+   * it is kept reachable while this ByteArray is reachable.
+   * Multibyte access could be misaligned,
+   * therefore this implementation is only suitable for platforms
+   * supporting misaligned access (as x86-64 and AArch64).
    */
-  public static class UncheckedOnBytes implements ByteArray {
-    private final byte[] st;
-    private final int off;
-    private final int len;
+  public static class UnsafeOnMemory implements ByteArray {
+    protected final Object owner;
+    protected final Object base;
+    protected final long addr;
+    protected final int len;
 
-    public UncheckedOnBytes(byte[] st, int init, int end) {
-      this.st = st;
-      this.off = init;
-      this.len = Math.max(0, end-init);
+    public UnsafeOnMemory(Object owner, Object base, long addr, int len) {
+      this.owner = owner;
+      this.base = base;
+      this.addr = addr;
+      this.len = Math.max(0, len);
     }
 
+    /** Checks raw bulk access to {@code [i,i+n)}; nothing by default. */
+    void checkRaw(int i, int n) {}
+
     @Override
     public int size() {return len;}
 
     @Override
     public ByteArray subarray(int init, int end) {
-      return new UncheckedOnBytes(st, off+init, off+end);
+      return new UnsafeOnMemory(owner, base, addr+init, end-init);
     }
 
-    @Override public byte get(int i) {return st[off+i];}
-    @Override public short getShort(int i) {return Bits.le16(st, off+i);}
-    @Override public int getInt(int i) {return Bits.le32(st, off+i);}
-    @Override public long getLong(int i) {return Bits.le64(st, off+i);}
+    @Override public byte get(int i) {return Unsafes.getByte(base, addr+i);}
+    @Override public short getShort(int i) {return Unsafes.le16(base, addr+i);}
+    @Override public int getInt(int i) {return Unsafes.le32(base, addr+i);}
+    @Override public long getLong(int i) {return Unsafes.le64(base, addr+i);}
 
-    @Override public void set(int i, byte v) {st[off+i] = v;}
-    @Override public void setShort(int i, short v) {Bits.le16(st, off+i, v);}
-    @Override public void setInt(int i, int v) {Bits.le32(st, off+i, v);}
-    @Override public void setLong(int i, long v) {Bits.le64(st, off+i, v);}
+    @Override public void set(int i, byte v) {
+      Unsafes.putByte(base, addr+i, v);
+    }
+    @Override public void setShort(int i, short v) {
+      Unsafes.le16(base, addr+i, v);
+    }
+    @Override public void setInt(int i, int v) {Unsafes.le32(base, addr+i, v);}
+    @Override public void setLong(int i, long v) {
+      Unsafes.le64(base, addr+i, v);
+    }
 
-    @Override
-    public short getPaddedShort(int i) {
-      return (i <= len-2) ? getShort(i) : (short) Bits.ubyte(st[off+i]);
+    @Override public short getPaddedShort(int i) {
+      return (len-i >= 2) ? getShort(i) : (short) Bits.ubyte(get(i));
     }
 
-    @Override
-    public int getPaddedInt(int i) {
-      final int j = off+i, tail = len-i;
-      if (j <= st.length-4) {
-        final int v = Bits.le32(st, j);
-        return (tail >= 4) ? v : v & ((1 << 8*tail) - 1);
-      } else {
-        return Bits.le32tail(st, j, tail);
-      }
+    @Override public int getPaddedInt(int i) {
+      final int tail = len-i;
+      return (tail >= 4) ? getInt(i)
+        : (int) Unsafes.leTail(base, addr+i, tail);
     }
 
-    @Override
-    public long getPaddedLong(int i) {
-      final int j = off+i, tail = len-i;
-      if (j <= st.length-8) {
-        final long v = Bits.le64(st, j);
-        return (tail >= 8) ? v : v & ((1L << 8*tail) - 1);
-      } else {
-        return Bits.le64tail(st, j, tail);
-      }
+    @Override public long getPaddedLong(int i) {
+      final int tail = len-i;
+      return (tail >= 8) ? getLong(i) : Unsafes.leTail(base, addr+i, tail);
     }
 
-    @Override
-    public void setClampedShort(int i, short v) {
-      if (i <= len-2) setShort(i,v);
+    @Override public void setClampedShort(int i, short v) {
+      if (len-i >= 2) setShort(i, v);
       else set(i, (byte) v);
     }
 
-    @Override
-    public void setClampedInt(int i, int v) {
+    @Override public void setClampedInt(int i, int v) {
       final int tail = len-i;
       if (tail >= 4) setInt(i, v);
-      else Bits.le32tail(st, off+i, tail, v);
+      else Unsafes.leTail(base, addr+i, tail, v);
     }
 
-    @Override
-    public void setClampedLong(int i, long v) {
+    @Override public void setClampedLong(int i, long v) {
       final int tail = len-i;
       if (tail >= 8) setLong(i, v);
-      else Bits.le64tail(st, off+i, tail, v);
+      else Unsafes.leTail(base, addr+i, tail, v);
     }
 
     @Override
     public void clear(int init, int end) {
-      Arrays.fill(st, off+init, off+end, (byte) 0);
+      if (init < end) {
+        Unsafes.setMemory(base, addr+init, end-init, (byte) 0);
+      }
+    }
+
+    @Override
+    public void fill(int init, int end, byte v) {
+      if (init < end) Unsafes.setMemory(base, addr+init, end-init, v);
     }
 
     @Override
     public void clear(int init, int sinit, int end, int send) {
       if (init < end) {
         int j = init;
-        if (0 < sinit) {st[off+j] &= ~(0xFF << sinit); j++;}
-        Arrays.fill(st, off+j, off+end, (byte) 0);
+        if (0 < sinit) {set(j, (byte) (get(j) & ~(0xFF << sinit))); j++;}
+        clear(j, end);
       }
       if (0 < send) {
         int mask = 0xFF << send;
         if (init == end && 0 < sinit) mask |= ~(0xFF << sinit);
-        st[off+end] &= mask;
+        set(end, (byte) (get(end) & mask));
       }
     }
 
@@ -220,7 +1511,8 @@ public interface ByteArray {
     public int get(int i, byte[] trg, int off, int len) {
       final int tocopy = Math.min(this.len-i, len);
       if (tocopy <= 0) return 0;
-      System.arraycopy(st, this.off+i, trg, off, tocopy);
+      Unsafes.copyMemory(
+        base, addr+i, trg, Unsafes.BYTES_BASE+off, tocopy);
       return tocopy;
     }
 
@@ -228,112 +1520,229 @@ public interface ByteArray {
     public int set(int i, byte[] src, int off, int len) {
       final int tocopy = Math.min(this.len-i, len);
       if (tocopy <= 0) return 0;
-      System.arraycopy(src, off, st, this.off+i, tocopy);
+      Unsafes.copyMemory(
+        src, Unsafes.BYTES_BASE+off, base, addr+i, tocopy);
       return tocopy;
     }
+
+    @Override public int get32Acquire(int i) {
+      return Unsafes.le32Volatile(base, addr+i);
+    }
+    @Override public int get32Volatile(int i) {
+      return Unsafes.le32Volatile(base, addr+i);
+    }
+    @Override public void set32Release(int i, int v) {
+      Unsafes.le32Release(base, addr+i, v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      Unsafes.le32Volatile(base, addr+i, v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      return Unsafes.le32Cas(base, addr+i, expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return Unsafes.le32GetAndAdd(base, addr+i, delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      return Unsafes.le32GetAndCombine(base, addr+i, BitOp.OR, bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      return Unsafes.le32GetAndCombine(base, addr+i, BitOp.AND, bits);
+    }
+
+    @Override public long get64Acquire(int i) {
+      return Unsafes.le64Volatile(base, addr+i);
+    }
+    @Override public long get64Volatile(int i) {
+      return Unsafes.le64Volatile(base, addr+i);
+    }
+    @Override public void set64Release(int i, long v) {
+      Unsafes.le64Release(base, addr+i, v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      Unsafes.le64Volatile(base, addr+i, v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      return Unsafes.le64Cas(base, addr+i, expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return Unsafes.le64GetAndAdd(base, addr+i, delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      return Unsafes.le64GetAndCombine(base, addr+i, BitOp.OR, bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      return Unsafes.le64GetAndCombine(base, addr+i, BitOp.AND, bits);
+    }
   }
 
-  //----------------------------------------------------------------------
   /**
-   * An unchecked implementation of ByteArray backed by a ByteBuffer.
+   * A checked implementation of ByteArray on a block of an
+   * {@link OffHeapArena}.
+   * Any access out of {@code [0,size())} throws
+   * {@code IndexOutOfBoundsException},
+   * any access after closing the arena throws
+   * {@code IllegalStateException},
+   * and misaligned atomic access throws {@code IllegalStateException}.
+   * Closing the arena while other threads access it is not detected.
    */
-  public static class UncheckedOnByteBuffer implements ByteArray {
-    private final ByteBuffer st;
-    private final int off;
-    private final int len;
+  public static class CheckedOnMemory extends UnsafeOnMemory {
+    private final OffHeapArena arena;
 
-    public UncheckedOnByteBuffer(ByteBuffer st, int init, int end) {
-      Bits.checkLittleEndian(st);
-      this.st = st;
-      this.off = init;
-      this.len = Math.max(0, end-init);
+    public CheckedOnMemory(OffHeapArena arena, long addr, int len) {
+      super(arena, null, addr, len);
+      this.arena = arena;
     }
 
     @Override
-    public int size() {return len;}
+    public ByteArray subarray(int init, int end) {
+      Objects.checkFromToIndex(init, end, len);
+      return new CheckedOnMemory(arena, addr+init, end-init);
+    }
 
     @Override
-    public ByteArray subarray(int init, int end) {
-      return new UncheckedOnByteBuffer(st, off+init, off+end);
+    void checkRaw(int i, int n) {at(i, n);}
+
+    /** {@code i}, if {@code [i,i+n)} is accessible */
+    private int at(int i, int n) {
+      arena.checkAlive();
+      return Objects.checkFromIndexSize(i, n, len);
     }
 
-    @Override public byte get(int i) {return st.get(off+i);}
-    @Override public short getShort(int i) {return st.getShort(off+i);}
-    @Override public int getInt(int i) {return st.getInt(off+i);}
-    @Override public long getLong(int i) {return st.getLong(off+i);}
+    /** {@code i}, if the aligned word {@code [i,i+n)} is accessible */
+    private int atomicAt(int i, int n) {
+      at(i, n);
+      if (((addr + i) & (n-1)) != 0) throw new IllegalStateException(
+        "Misaligned access at index: " + i);
+      return i;
+    }
 
-    @Override public void set(int i, byte v) {st.put(off+i, v);}
-    @Override public void setShort(int i, short v) {st.putShort(off+i, v);}
-    @Override public void setInt(int i, int v) {st.putInt(off+i, v);}
-    @Override public void setLong(int i, long v) {st.putLong(off+i, v);}
+    @Override public byte get(int i) {return super.get(at(i, 1));}
+    @Override public short getShort(int i) {
+      return super.getShort(at(i, 2));
+    }
+    @Override public int getInt(int i) {return super.getInt(at(i, 4));}
+    @Override public long getLong(int i) {return super.getLong(at(i, 8));}
 
-    @Override public short getPaddedShort(int i) {
-      final int j = off+i;
-      return (len-i >= 2) ? st.getShort(j) : (short) Bits.ubyte(st.get(j));
+    @Override public void set(int i, byte v) {super.set(at(i, 1), v);}
+    @Override public void setShort(int i, short v) {
+      super.setShort(at(i, 2), v);
+    }
+    @Override public void setInt(int i, int v) {super.setInt(at(i, 4), v);}
+    @Override public void setLong(int i, long v) {
+      super.setLong(at(i, 8), v);
     }
 
+    @Override public short getPaddedShort(int i) {
+      return super.getPaddedShort(at(i, 1));
+    }
     @Override public int getPaddedInt(int i) {
-      final int j = off+i, tail = len-i;
-      return (tail >= 4) ? st.getInt(j) : Bits.le32tail(st, j, tail);
+      return super.getPaddedInt(at(i, 1));
     }
-
     @Override public long getPaddedLong(int i) {
-      final int j = off+i, tail = len-i;
-      return (tail >= 8) ? st.getLong(j) : Bits.le64tail(st, j, tail);
+      return super.getPaddedLong(at(i, 1));
     }
 
     @Override public void setClampedShort(int i, short v) {
-      final int j = off+i;
-      if (i <= len-2) st.putShort(j,v);
-      else st.put(j, (byte) v);
+      super.setClampedShort(at(i, 1), v);
     }
-
     @Override public void setClampedInt(int i, int v) {
-      final int j = off+i, tail = len-i;
-      if (tail >= 4) st.putInt(j, v);
-      else Bits.le32tail(st, j, tail, v);
+      super.setClampedInt(at(i, 1), v);
     }
-
     @Override public void setClampedLong(int i, long v) {
-      final int j = off+i, tail = len-i;
-      if (tail >= 8) st.putLong(j, v);
-      else Bits.le64tail(st, j, tail, v);
+      super.setClampedLong(at(i, 1), v);
     }
 
     @Override
     public void clear(int init, int end) {
-      final int limit = off + end;
-      int j = off+init;
-      while (j+8 < limit) {st.putLong(j, 0);  j+=8;}
-      if (j+4 < limit) {st.putInt(j, 0);  j+=4;}
-      while (j < limit) {st.put(j, (byte)0);  j++;}
+      arena.checkAlive();
+      Objects.checkFromToIndex(init, end, len);
+      super.clear(init, end);
+    }
+
+    @Override
+    public void fill(int init, int end, byte v) {
+      arena.checkAlive();
+      Objects.checkFromToIndex(init, end, len);
+      super.fill(init, end, v);
     }
 
     @Override
     public void clear(int init, int sinit, int end, int send) {
-      if (init < end) {
-        int j = init;
-        if (0 < sinit) {
-          st.put(off+j, (byte)(st.get(off+j) & ~(0xFF << sinit)));
-          j++;
-        }
-        clear(j, end);
-      }
-      if (0 < send) {
-        int mask = 0xFF << send;
-        if (init == end && 0 < sinit) mask |= ~(0xFF << sinit);
-        st.put(off+end, (byte) (st.get(off+end) & mask));
-      }
+      arena.checkAlive();
+      checkClear(init, end, send, len);
+      super.clear(init, sinit, end, send);
     }
 
     @Override
     public int get(int i, byte[] trg, int off, int len) {
-      throw new UnsupportedOperationException("FIXME: TODO");
+      at(i, 0);
+      Objects.checkFromIndexSize(off, len, trg.length);
+      return super.get(i, trg, off, len);
     }
 
     @Override
     public int set(int i, byte[] src, int off, int len) {
-      throw new UnsupportedOperationException("FIXME: TODO");
+      at(i, 0);
+      Objects.checkFromIndexSize(off, len, src.length);
+      return super.set(i, src, off, len);
+    }
+
+    @Override
+    public int copyTo(int i, ByteArray trg, int j, int len) {
+      at(i, 0);
+      Objects.checkFromIndexSize(j, 0, trg.size());
+      return super.copyTo(i, trg, j, len);
+    }
+
+    @Override public int get32Acquire(int i) {
+      return super.get32Acquire(atomicAt(i, 4));
+    }
+    @Override public int get32Volatile(int i) {
+      return super.get32Volatile(atomicAt(i, 4));
+    }
+    @Override public void set32Release(int i, int v) {
+      super.set32Release(atomicAt(i, 4), v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      super.set32Volatile(atomicAt(i, 4), v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      return super.compareAndSet32(atomicAt(i, 4), expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return super.getAndAdd32(atomicAt(i, 4), delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      return super.getAndBitwiseOr32(atomicAt(i, 4), bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      return super.getAndBitwiseAnd32(atomicAt(i, 4), bits);
+    }
+
+    @Override public long get64Acquire(int i) {
+      return super.get64Acquire(atomicAt(i, 8));
+    }
+    @Override public long get64Volatile(int i) {
+      return super.get64Volatile(atomicAt(i, 8));
+    }
+    @Override public void set64Release(int i, long v) {
+      super.set64Release(atomicAt(i, 8), v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      super.set64Volatile(atomicAt(i, 8), v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      return super.compareAndSet64(atomicAt(i, 8), expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return super.getAndAdd64(atomicAt(i, 8), delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      return super.getAndBitwiseOr64(atomicAt(i, 8), bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      return super.getAndBitwiseAnd64(atomicAt(i, 8), bits);
     }
   }
 }
@@ -0,0 +1,417 @@
+package org.seismotech.ground.mem;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.seismotech.ground.math.DMath;
+
+/**
+ * A pool of recycled ByteArrays, to avoid allocation on hot paths.
+ * Blocks are organized in size classes, powers of 2 from
+ * {@code 2^minLog2} to {@code 2^maxLog2} bytes.
+ * Small blocks are carved from slabs of {@link #SLAB_SIZE} bytes
+ * (byte[] or direct ByteBuffer).
+ * Requests bigger than the max size class are served with
+ * fresh storage, that is not recycled.
+ *
+ * <p>A block is obtained with {@link #lease(int)} and returned to the pool
+ * closing the {@link Lease}; the intended usage pattern is
+ * <tt><pre>
+ * try (ByteArrayPool.Lease lease = pool.lease(n)) {
+ *   final ByteArray arr = lease.byteArray();
+ *   //Use arr, that could be bigger than n
+ * }
+ * </pre></tt>
+ * Out of debug mode, leases are recycled with their blocks,
+ * therefore in steady state leasing and releasing allocates nothing,
+ * and nothing is checked.
+ * Each thread has a cache of free blocks for each size class,
+ * backed by a shared free list per size class.
+ *
+ * <p>In debug mode (enabled with system property {@value #DEBUG_PROPERTY}
+ * or with the constructor),
+ * every lease is a fresh object that records the stack trace
+ * where it was taken,
+ * any use of a released lease or of its {@link Lease#byteArray()}
+ * throws {@code IllegalStateException},
+ * and leases becoming unreachable without being released are reported
+ * to {@code System.err} and counted in {@link #leaked()}.
+ */
+public class ByteArrayPool {
+
+  public static final String DEBUG_PROPERTY
+    = "org.seismotech.ground.mem.pool.debug";
+
+  public static final boolean DEBUG = Boolean.getBoolean(DEBUG_PROPERTY);
+
+  public static final int SLAB_SIZE = 1 << 20;
+
+  private final boolean direct;
+  private final ByteArray.Flavor flavor;
+  private final int minLog2;
+  private final int maxLog2;
+  private final int threadCapacity;
+  private final int sharedCapacity;
+  private final boolean debug;
+  private final SizeClass[] classes;
+  private final ThreadLocal<Cache> caches;
+  private final AtomicInteger outstanding;
+  private final AtomicInteger leaked;
+
+  /** A pool of heap or {@code direct} blocks of the default flavor,
+   * from 64 bytes to 1 MiB, in no debug mode (unless enabled by property). */
+  public ByteArrayPool(boolean direct) {
+    this(direct, ByteArray.Flavor.DEFAULT, 6, 20, 16, 1024, DEBUG);
+  }
+
+  /**
+   * A pool of heap or {@code direct} blocks of the given {@code flavor},
+   * with size classes from {@code 2^minLog2} to {@code 2^maxLog2}.
+   * Each thread caches up to {@code threadCapacity} free blocks per class,
+   * and the shared free lists keep up to {@code sharedCapacity}
+   * free blocks per class; the rest are left to the GC.
+   */
+  public ByteArrayPool(boolean direct, ByteArray.Flavor flavor,
+      int minLog2, int maxLog2, int threadCapacity, int sharedCapacity,
+      boolean debug) {
+    if (minLog2 < 0 || maxLog2 < minLog2 || 30 < maxLog2) {
+      throw new IllegalArgumentException(
+        "Illegal size classes range [2^" + minLog2 + ",2^" + maxLog2
+        + "]: it should be inside [2^0,2^30]");
+    }
+    this.direct = direct;
+    this.flavor = flavor;
+    this.minLog2 = minLog2;
+    this.maxLog2 = maxLog2;
+    this.threadCapacity = threadCapacity;
+    this.sharedCapacity = sharedCapacity;
+    this.debug = debug;
+    this.classes = new SizeClass[maxLog2 - minLog2 + 1];
+    for (int c = 0; c < classes.length; c++) {
+      classes[c] = new SizeClass(c, 1 << (minLog2 + c), sharedCapacity);
+    }
+    this.caches = ThreadLocal.withInitial(Cache::new);
+    this.outstanding = new AtomicInteger();
+    this.leaked = new AtomicInteger();
+  }
+
+  /** Leases still not released; only tracked in debug mode. */
+  public int outstanding() {return outstanding.get();}
+
+  /** Leases lost without being released; only tracked in debug mode. */
+  public int leaked() {return leaked.get();}
+
+  /**
+   * Leases a block of at least {@code size} bytes.
+   * The contents of the block are undefined.
+   */
+  public Lease lease(int size) {
+    final int log2 = Math.max(minLog2, DMath.clog2(Math.max(1, size)));
+    Lease lease = (log2 > maxLog2) ? new Lease(this, -1, alloc(size))
+      : take(log2 - minLog2);
+    //A released lease could still be held by its last user
+    if (debug) lease = new Lease(this, lease.sizeClass, lease.block);
+    lease.acquire(size);
+    return lease;
+  }
+
+  private Lease take(int c) {
+    final Cache cache = caches.get();
+    final int top = cache.tops[c];
+    if (top > 0) {
+      final Lease lease = cache.stacks[c][top-1];
+      cache.stacks[c][top-1] = null;
+      cache.tops[c] = top-1;
+      return lease;
+    }
+    return classes[c].take();
+  }
+
+  void release(Lease lease) {
+    lease.free();
+    final int c = lease.sizeClass;
+    if (c < 0) return;
+    final Cache cache = caches.get();
+    final int top = cache.tops[c];
+    if (top < threadCapacity) {
+      cache.stacks[c][top] = lease;
+      cache.tops[c] = top+1;
+    } else {
+      classes[c].give(lease);
+    }
+  }
+
+  private ByteArray alloc(int size) {
+    final int total = padded(size);
+    return direct
+      ? flavor.on(ByteBuffer.allocateDirect(total)
+        .order(ByteOrder.LITTLE_ENDIAN), 0, size)
+      : flavor.on(new byte[total], 0, size);
+  }
+
+  private int padded(int size) {
+    return flavor == ByteArray.Flavor.FAST ? size + ByteArray.FAST_PADDING
+      : size;
+  }
+
+  //----------------------------------------------------------------------
+  private final class Cache {
+    final Lease[][] stacks = new Lease[classes.length][threadCapacity];
+    final int[] tops = new int[classes.length];
+  }
+
+  /** Shared free list and slab of a size class. */
+  private final class SizeClass {
+    private final int c;
+    private final int blockSize;
+    private final Lease[] free;
+    private int top;
+    private byte[] bytesSlab;
+    private ByteBuffer bufferSlab;
+    private int slabNext;
+
+    SizeClass(int c, int blockSize, int capacity) {
+      this.c = c;
+      this.blockSize = blockSize;
+      this.free = new Lease[capacity];
+      this.top = 0;
+      this.slabNext = SLAB_SIZE;
+    }
+
+    synchronized Lease take() {
+      if (top > 0) {
+        final Lease lease = free[--top];
+        free[top] = null;
+        return lease;
+      }
+      return new Lease(ByteArrayPool.this, c, carve());
+    }
+
+    synchronized void give(Lease lease) {
+      if (top < free.length) free[top++] = lease;
+    }
+
+    private ByteArray carve() {
+      //Blocks start at multiples of 8, for atomic access
+      final int stride = (padded(blockSize) + 7) & -8;
+      if (stride > SLAB_SIZE) return alloc(blockSize);
+      if (slabNext + stride > SLAB_SIZE) {
+        if (direct) {
+          bufferSlab = ByteBuffer.allocateDirect(SLAB_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+          bytesSlab = new byte[SLAB_SIZE];
+        }
+        slabNext = 0;
+      }
+      final int init = slabNext;
+      slabNext += stride;
+      return direct ? flavor.on(bufferSlab, init, init + blockSize)
+        : flavor.on(bytesSlab, init, init + blockSize);
+    }
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * A block leased from a pool.
+   * Its {@link #byteArray()} has {@link #capacity()} bytes,
+   * at least the {@link #size()} requested.
+   * Closing the lease returns the block to the pool;
+   * the block should not be used afterward.
+   * In debug mode, the ByteArray is a view that checks
+   * that the lease was not released on every access.
+   */
+  public static final class Lease implements AutoCloseable {
+    private final ByteArrayPool pool;
+    private final int sizeClass;
+    private final ByteArray block;
+    /** The block, or a checked view of it in debug mode */
+    private ByteArray view;
+    private int size;
+    private boolean leased;
+    private Tracker tracker;
+    private Cleaner.Cleanable cleanable;
+
+    private Lease(ByteArrayPool pool, int sizeClass, ByteArray block) {
+      this.pool = pool;
+      this.sizeClass = sizeClass;
+      this.block = block;
+      this.leased = false;
+    }
+
+    /** Size requested when leased. */
+    public int size() {check(); return size;}
+
+    /** Real size of the block. */
+    public int capacity() {return block.size();}
+
+    /** The whole block. */
+    public ByteArray byteArray() {check(); return view;}
+
+    @Override
+    public void close() {pool.release(this);}
+
+    private void acquire(int size) {
+      this.size = size;
+      this.leased = true;
+      this.view = pool.debug ? new Guarded(this, block) : block;
+      if (pool.debug) {
+        tracker = new Tracker(pool.outstanding, pool.leaked, new Throwable(
+          "Leak of a " + capacity() + " bytes block, leased at"));
+        cleanable = Trackers.CLEANER.register(this, tracker);
+        pool.outstanding.incrementAndGet();
+      }
+    }
+
+    private void free() {
+      if (!leased) throw new IllegalStateException(
+        "Releasing an already released block");
+      leased = false;
+      if (tracker != null) {
+        tracker.released = true;
+        cleanable.clean();
+        tracker = null;
+        cleanable = null;
+        pool.outstanding.decrementAndGet();
+      }
+    }
+
+    private void check() {
+      if (pool.debug && !leased) throw new IllegalStateException(
+        "Using an already released block");
+    }
+  }
+
+  /** A view of a leased block that checks its lease on every access. */
+  private static final class Guarded implements ByteArray {
+    private final Lease lease;
+    private final ByteArray st;
+
+    Guarded(Lease lease, ByteArray st) {
+      this.lease = lease;
+      this.st = st;
+    }
+
+    private ByteArray st() {lease.check(); return st;}
+
+    @Override public int size() {return st.size();}
+
+    @Override public ByteArray subarray(int init, int end) {
+      return new Guarded(lease, st().subarray(init, end));
+    }
+
+    @Override public byte get(int i) {return st().get(i);}
+    @Override public short getShort(int i) {return st().getShort(i);}
+    @Override public int getInt(int i) {return st().getInt(i);}
+    @Override public long getLong(int i) {return st().getLong(i);}
+    @Override public void set(int i, byte v) {st().set(i, v);}
+    @Override public void setShort(int i, short v) {st().setShort(i, v);}
+    @Override public void setInt(int i, int v) {st().setInt(i, v);}
+    @Override public void setLong(int i, long v) {st().setLong(i, v);}
+
+    @Override public short getPaddedShort(int i) {
+      return st().getPaddedShort(i);
+    }
+    @Override public int getPaddedInt(int i) {return st().getPaddedInt(i);}
+    @Override public long getPaddedLong(int i) {
+      return st().getPaddedLong(i);
+    }
+    @Override public void setClampedShort(int i, short v) {
+      st().setClampedShort(i, v);
+    }
+    @Override public void setClampedInt(int i, int v) {
+      st().setClampedInt(i, v);
+    }
+    @Override public void setClampedLong(int i, long v) {
+      st().setClampedLong(i, v);
+    }
+
+    @Override public void clear(int init, int end) {st().clear(init, end);}
+    @Override public void clear(int init, int sinit, int end, int send) {
+      st().clear(init, sinit, end, send);
+    }
+    @Override public int get(int i, byte[] trg, int off, int len) {
+      return st().get(i, trg, off, len);
+    }
+    @Override public int set(int i, byte[] src, int off, int len) {
+      return st().set(i, src, off, len);
+    }
+    @Override public int copyTo(int i, ByteArray trg, int j, int len) {
+      return st().copyTo(i, trg, j, len);
+    }
+
+    @Override public int get32Acquire(int i) {return st().get32Acquire(i);}
+    @Override public int get32Volatile(int i) {
+      return st().get32Volatile(i);
+    }
+    @Override public void set32Release(int i, int v) {
+      st().set32Release(i, v);
+    }
+    @Override public void set32Volatile(int i, int v) {
+      st().set32Volatile(i, v);
+    }
+    @Override public boolean compareAndSet32(int i, int expect, int update) {
+      return st().compareAndSet32(i, expect, update);
+    }
+    @Override public int getAndAdd32(int i, int delta) {
+      return st().getAndAdd32(i, delta);
+    }
+    @Override public int getAndBitwiseOr32(int i, int bits) {
+      return st().getAndBitwiseOr32(i, bits);
+    }
+    @Override public int getAndBitwiseAnd32(int i, int bits) {
+      return st().getAndBitwiseAnd32(i, bits);
+    }
+    @Override public long get64Acquire(int i) {return st().get64Acquire(i);}
+    @Override public long get64Volatile(int i) {
+      return st().get64Volatile(i);
+    }
+    @Override public void set64Release(int i, long v) {
+      st().set64Release(i, v);
+    }
+    @Override public void set64Volatile(int i, long v) {
+      st().set64Volatile(i, v);
+    }
+    @Override public boolean compareAndSet64(int i, long expect, long update) {
+      return st().compareAndSet64(i, expect, update);
+    }
+    @Override public long getAndAdd64(int i, long delta) {
+      return st().getAndAdd64(i, delta);
+    }
+    @Override public long getAndBitwiseOr64(int i, long bits) {
+      return st().getAndBitwiseOr64(i, bits);
+    }
+    @Override public long getAndBitwiseAnd64(int i, long bits) {
+      return st().getAndBitwiseAnd64(i, bits);
+    }
+  }
+
+  /** Leak detector of a lease, run when the lease becomes unreachable. */
+  private static final class Tracker implements Runnable {
+    private final AtomicInteger outstanding;
+    private final AtomicInteger leaked;
+    private final Throwable site;
+    volatile boolean released;
+
+    Tracker(AtomicInteger outstanding, AtomicInteger leaked, Throwable site) {
+      this.outstanding = outstanding;
+      this.leaked = leaked;
+      this.site = site;
+      this.released = false;
+    }
+
+    @Override
+    public void run() {
+      if (released) return;
+      outstanding.decrementAndGet();
+      leaked.incrementAndGet();
+      site.printStackTrace();
+    }
+  }
+
+  private static final class Trackers {
+    static final Cleaner CLEANER = Cleaner.create();
+  }
+}
@@ -55,4 +55,140 @@ public interface ByteDrain {
       if (bs.length < used + n) bs = XArray.growFree(bs, used, n);
     }
   }
+
+  //----------------------------------------------------------------------
+  /**
+   * A ByteDrain on a {@link ChunkedByteArray}.
+   * It grows adding chunks; already drained data is never copied.
+   */
+  public static class OnChunks implements ByteDrain {
+
+    private final ChunkedByteArray st;
+    private int used;
+
+    public OnChunks(int log2chunk) {
+      this.st = new ChunkedByteArray(log2chunk, 0);
+      this.used = 0;
+    }
+
+    /** Bytes drained so far. */
+    public int used() {return used;}
+
+    /** A view of the bytes drained so far. */
+    public ByteArray byteArray() {return st.subarray(0, used);}
+
+    @Override
+    public void drain(byte x) {
+      ensure(1);
+      st.set(used++, x);
+    }
+
+    @Override
+    public void drain(short x) {
+      ensure(2);
+      st.set16(used, x);
+      used += 2;
+    }
+
+    @Override
+    public void drain(int x) {
+      ensure(4);
+      st.set32(used, x);
+      used += 4;
+    }
+
+    @Override
+    public void drain(long x) {
+      ensure(8);
+      st.set64(used, x);
+      used += 8;
+    }
+
+    private void ensure(int n) {
+      if (st.size() < used + n) {
+        st.grow(Math.max(used + n, Math.min(XArray.MAX_SIZE, st.capacity())));
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * A ByteDrain on blocks leased from a {@link ByteArrayPool}.
+   * Growing leases a bigger block, copies the drained data and
+   * releases the old block.
+   * A drain can be {@link #reset()} to encode a new message
+   * on the same block, and should be closed to release its block.
+   */
+  public static class OnPool implements ByteDrain, AutoCloseable {
+
+    private final ByteArrayPool pool;
+    private ByteArrayPool.Lease lease;
+    private ByteArray st;
+    private int used;
+
+    public OnPool(ByteArrayPool pool, int initialSize) {
+      this.pool = pool;
+      this.lease = pool.lease(initialSize);
+      this.st = lease.byteArray();
+      this.used = 0;
+    }
+
+    /** Bytes drained so far. */
+    public int used() {return used;}
+
+    /** The whole current block; only the first {@link #used()} bytes
+     * contain drained data. */
+    public ByteArray buffer() {return st;}
+
+    /** A view of the bytes drained so far. */
+    public ByteArray byteArray() {return st.subarray(0, used);}
+
+    /** Discards the drained data, keeping the current block. */
+    public void reset() {used = 0;}
+
+    @Override
+    public void close() {
+      lease.close();
+      lease = null;
+      st = null;
+    }
+
+    @Override
+    public void drain(byte x) {
+      ensure(1);
+      st.set(used++, x);
+    }
+
+    @Override
+    public void drain(short x) {
+      ensure(2);
+      st.set16(used, x);
+      used += 2;
+    }
+
+    @Override
+    public void drain(int x) {
+      ensure(4);
+      st.set32(used, x);
+      used += 4;
+    }
+
+    @Override
+    public void drain(long x) {
+      ensure(8);
+      st.set64(used, x);
+      used += 8;
+    }
+
+    private void ensure(int n) {
+      if (st.size() < used + n) {
+        final ByteArrayPool.Lease bigger
+          = pool.lease(XArray.growSize(st.size(), used, n));
+        st.copyTo(0, bigger.byteArray(), 0, used);
+        lease.close();
+        lease = bigger;
+        st = bigger.byteArray();
+      }
+    }
+  }
 }
@@ -15,15 +15,29 @@ public interface ByteFlux {
   //----------------------------------------------------------------------
   public static class OnByteArray implements ByteFlux {
 
-    private final ByteArray data;
+    private ByteArray data;
     private int next;
+    private int end;
 
     public OnByteArray(ByteArray data) {
+      this(data, 0, data.size());
+    }
+
+    /** A flux on {@code data[init,end)}. */
+    public OnByteArray(ByteArray data, int init, int end) {
+      reset(data, init, end);
+    }
+
+    /** Restarts this flux on {@code data[init,end)},
+     * to reuse it on a new message without allocating. */
+    public OnByteArray reset(ByteArray data, int init, int end) {
       this.data = data;
-      this.next = 0;
+      this.next = init;
+      this.end = end;
+      return this;
     }
 
-    @Override public int remaining() {return data.size() - next;}
+    @Override public int remaining() {return end - next;}
 
     @Override public byte nextByte() {return data.get(next++);}
 
@@ -0,0 +1,329 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+
+import org.seismotech.ground.util.XArray;
+
+/**
+ * An unchecked ByteArray on a sequence of byte[] chunks of the same size,
+ * a power of 2.
+ * It can grow adding new chunks, without copying the existing data;
+ * see {@link #grow(int)}.
+ * Multibyte words can straddle two chunks;
+ * those accesses are slower, but correct.
+ * Aligned 32 and 64 bits words never straddle two chunks,
+ * therefore atomic access is supported.
+ */
+public class ChunkedByteArray implements ByteArray {
+
+  public static final int MIN_LOG2_CHUNK = 3;
+  public static final int MAX_LOG2_CHUNK = 30;
+
+  private byte[][] chunks;
+  private int nchunks;
+  private final int log2chunk;
+  private final int mask;
+  private final boolean growable;
+  private final int off;
+  private int len;
+
+  /** A growable array of {@code size} bytes,
+   * with chunks of {@code 2^log2chunk} bytes. */
+  public ChunkedByteArray(int log2chunk, int size) {
+    if (log2chunk < MIN_LOG2_CHUNK || MAX_LOG2_CHUNK < log2chunk) {
+      throw new IllegalArgumentException(
+        "Illegal chunk size 2^" + log2chunk + ": log2 should be in the range ["
+        + MIN_LOG2_CHUNK + "," + MAX_LOG2_CHUNK + "]");
+    }
+    this.chunks = new byte[0][];
+    this.nchunks = 0;
+    this.log2chunk = log2chunk;
+    this.mask = ~(-1 << log2chunk);
+    this.growable = true;
+    this.off = 0;
+    this.len = 0;
+    grow(size);
+  }
+
+  private ChunkedByteArray(ChunkedByteArray base, int init, int end) {
+    this.chunks = base.chunks;
+    this.nchunks = base.nchunks;
+    this.log2chunk = base.log2chunk;
+    this.mask = base.mask;
+    this.growable = false;
+    this.off = base.off + init;
+    this.len = Math.max(0, end-init);
+  }
+
+  public int chunkSize() {return 1 << log2chunk;}
+
+  /** Bytes available without allocating a new chunk. */
+  public int capacity() {
+    return (int) Math.min(XArray.MAX_SIZE, (long) nchunks << log2chunk)
+      - off;
+  }
+
+  /**
+   * Grows this array up to {@code size} bytes,
+   * adding as many chunks as needed.
+   * The chunk directory grows geometrically,
+   * so that growing chunk by chunk takes amortized constant time.
+   * New bytes are 0.
+   * Only arrays built with a constructor can grow; subarrays cannot.
+   */
+  public void grow(int size) {
+    if (!growable) throw new UnsupportedOperationException(
+      "A subarray of a ChunkedByteArray cannot grow");
+    if (size <= len) return;
+    final int needed = (int) ((size + (long) mask) >>> log2chunk);
+    if (nchunks < needed) {
+      if (chunks.length < needed) chunks = Arrays.copyOf(chunks,
+        XArray.growSize(chunks.length, nchunks, needed-nchunks));
+      for (; nchunks < needed; nchunks++) {
+        chunks[nchunks] = new byte[1 << log2chunk];
+      }
+    }
+    len = size;
+  }
+
+  @Override
+  public int size() {return len;}
+
+  @Override
+  public ByteArray subarray(int init, int end) {
+    return new ChunkedByteArray(this, init, end);
+  }
+
+  private byte[] chunk(int j) {return chunks[j >>> log2chunk];}
+
+  /** Free bytes in the chunk of {@code j} from {@code j} on. */
+  private int room(int j) {return (mask+1) - (j & mask);}
+
+  @Override public byte get(int i) {
+    final int j = off+i;
+    return chunk(j)[j & mask];
+  }
+
+  @Override public short getShort(int i) {
+    final int j = off+i;
+    return (room(j) >= 2) ? Bits.le16(chunk(j), j & mask)
+      : (short) straddled(j, 2);
+  }
+
+  @Override public int getInt(int i) {
+    final int j = off+i;
+    return (room(j) >= 4) ? Bits.le32(chunk(j), j & mask)
+      : (int) straddled(j, 4);
+  }
+
+  @Override public long getLong(int i) {
+    final int j = off+i;
+    return (room(j) >= 8) ? Bits.le64(chunk(j), j & mask) : straddled(j, 8);
+  }
+
+  /** Word of {@code width} bytes at {@code j} crossing a chunk boundary. */
+  private long straddled(int j, int width) {
+    final int k = room(j);
+    return Bits.le64tail(chunk(j), j & mask, k)
+      | (Bits.le64tail(chunk(j+k), 0, width-k) << 8*k);
+  }
+
+  @Override public void set(int i, byte v) {
+    final int j = off+i;
+    chunk(j)[j & mask] = v;
+  }
+
+  @Override public void setShort(int i, short v) {
+    final int j = off+i;
+    if (room(j) >= 2) Bits.le16(chunk(j), j & mask, v);
+    else straddled(j, 2, v);
+  }
+
+  @Override public void setInt(int i, int v) {
+    final int j = off+i;
+    if (room(j) >= 4) Bits.le32(chunk(j), j & mask, v);
+    else straddled(j, 4, v);
+  }
+
+  @Override public void setLong(int i, long v) {
+    final int j = off+i;
+    if (room(j) >= 8) Bits.le64(chunk(j), j & mask, v);
+    else straddled(j, 8, v);
+  }
+
+  private void straddled(int j, int width, long v) {
+    final int k = room(j);
+    Bits.le64tail(chunk(j), j & mask, k, v);
+    Bits.le64tail(chunk(j+k), 0, width-k, v >>> 8*k);
+  }
+
+  @Override public short getPaddedShort(int i) {
+    return (len-i >= 2) ? getShort(i) : (short) get8u(i);
+  }
+
+  @Override public int getPaddedInt(int i) {
+    final int tail = len-i;
+    return (tail >= 4) ? getInt(i) : (int) tail(i, tail);
+  }
+
+  @Override public long getPaddedLong(int i) {
+    final int tail = len-i;
+    return (tail >= 8) ? getLong(i) : tail(i, tail);
+  }
+
+  private long tail(int i, int width) {
+    long v = 0;
+    for (int k = width-1; k >= 0; k--) v = (v << 8) | get8u(i+k);
+    return v;
+  }
+
+  @Override public void setClampedShort(int i, short v) {
+    if (len-i >= 2) setShort(i, v);
+    else set(i, (byte) v);
+  }
+
+  @Override public void setClampedInt(int i, int v) {
+    final int tail = len-i;
+    if (tail >= 4) setInt(i, v);
+    else tail(i, tail, v);
+  }
+
+  @Override public void setClampedLong(int i, long v) {
+    final int tail = len-i;
+    if (tail >= 8) setLong(i, v);
+    else tail(i, tail, v);
+  }
+
+  private void tail(int i, int width, long v) {
+    for (int k = 0; k < width; k++, v >>>= 8) set(i+k, (byte) v);
+  }
+
+  @Override
+  public void clear(int init, int end) {
+    fill(init, end, (byte) 0);
+  }
+
+  @Override
+  public void clear(int init, int sinit, int end, int send) {
+    if (init < end) {
+      int j = init;
+      if (0 < sinit) {set(j, (byte) (get(j) & ~(0xFF << sinit))); j++;}
+      clear(j, end);
+    }
+    if (0 < send) {
+      int mask = 0xFF << send;
+      if (init == end && 0 < sinit) mask |= ~(0xFF << sinit);
+      set(end, (byte) (get(end) & mask));
+    }
+  }
+
+  @Override
+  public void fill(int init, int end, byte v) {
+    int j = off+init;
+    final int limit = off+end;
+    while (j < limit) {
+      final int n = Math.min(room(j), limit-j);
+      final int c = j & mask;
+      Arrays.fill(chunk(j), c, c+n, v);
+      j += n;
+    }
+  }
+
+  @Override
+  public int get(int i, byte[] trg, int off, int len) {
+    final int tocopy = Math.min(this.len-i, len);
+    if (tocopy <= 0) return 0;
+    int j = this.off+i;
+    for (int k = 0; k < tocopy; ) {
+      final int n = Math.min(room(j), tocopy-k);
+      System.arraycopy(chunk(j), j & mask, trg, off+k, n);
+      j += n;  k += n;
+    }
+    return tocopy;
+  }
+
+  @Override
+  public int set(int i, byte[] src, int off, int len) {
+    final int tocopy = Math.min(this.len-i, len);
+    if (tocopy <= 0) return 0;
+    int j = this.off+i;
+    for (int k = 0; k < tocopy; ) {
+      final int n = Math.min(room(j), tocopy-k);
+      System.arraycopy(src, off+k, chunk(j), j & mask, n);
+      j += n;  k += n;
+    }
+    return tocopy;
+  }
+
+  //----------------------------------------------------------------------
+  // Atomic access: aligned words are always inside a chunk
+
+  @Override public int get32Acquire(int i) {
+    final int j = off+i;
+    return (int) Bits.LE32_ON_BYTES.getAcquire(chunk(j), j & mask);
+  }
+  @Override public int get32Volatile(int i) {
+    final int j = off+i;
+    return (int) Bits.LE32_ON_BYTES.getVolatile(chunk(j), j & mask);
+  }
+  @Override public void set32Release(int i, int v) {
+    final int j = off+i;
+    Bits.LE32_ON_BYTES.setRelease(chunk(j), j & mask, v);
+  }
+  @Override public void set32Volatile(int i, int v) {
+    final int j = off+i;
+    Bits.LE32_ON_BYTES.setVolatile(chunk(j), j & mask, v);
+  }
+  @Override public boolean compareAndSet32(int i, int expect, int update) {
+    final int j = off+i;
+    return Bits.LE32_ON_BYTES.compareAndSet(
+      chunk(j), j & mask, expect, update);
+  }
+  @Override public int getAndAdd32(int i, int delta) {
+    final int j = off+i;
+    return (int) Bits.LE32_ON_BYTES.getAndAdd(chunk(j), j & mask, delta);
+  }
+  @Override public int getAndBitwiseOr32(int i, int bits) {
+    final int j = off+i;
+    return (int) Bits.LE32_ON_BYTES.getAndBitwiseOr(chunk(j), j & mask, bits);
+  }
+  @Override public int getAndBitwiseAnd32(int i, int bits) {
+    final int j = off+i;
+    return (int) Bits.LE32_ON_BYTES.getAndBitwiseAnd(chunk(j), j & mask, bits);
+  }
+
+  @Override public long get64Acquire(int i) {
+    final int j = off+i;
+    return (long) Bits.LE64_ON_BYTES.getAcquire(chunk(j), j & mask);
+  }
+  @Override public long get64Volatile(int i) {
+    final int j = off+i;
+    return (long) Bits.LE64_ON_BYTES.getVolatile(chunk(j), j & mask);
+  }
+  @Override public void set64Release(int i, long v) {
+    final int j = off+i;
+    Bits.LE64_ON_BYTES.setRelease(chunk(j), j & mask, v);
+  }
+  @Override public void set64Volatile(int i, long v) {
+    final int j = off+i;
+    Bits.LE64_ON_BYTES.setVolatile(chunk(j), j & mask, v);
+  }
+  @Override public boolean compareAndSet64(int i, long expect, long update) {
+    final int j = off+i;
+    return Bits.LE64_ON_BYTES.compareAndSet(
+      chunk(j), j & mask, expect, update);
+  }
+  @Override public long getAndAdd64(int i, long delta) {
+    final int j = off+i;
+    return (long) Bits.LE64_ON_BYTES.getAndAdd(chunk(j), j & mask, delta);
+  }
+  @Override public long getAndBitwiseOr64(int i, long bits) {
+    final int j = off+i;
+    return (long) Bits.LE64_ON_BYTES.getAndBitwiseOr(chunk(j), j & mask, bits);
+  }
+  @Override public long getAndBitwiseAnd64(int i, long bits) {
+    final int j = off+i;
+    return (long) Bits.LE64_ON_BYTES.getAndBitwiseAnd(
+      chunk(j), j & mask, bits);
+  }
+}
@@ -0,0 +1,79 @@
+package org.seismotech.ground.mem;
+
+/**
+ * An array of small saturating counters, of width 1 to
+ * {@value PacketArray#MAX_WIDTH_64} bits (4 bits is the usual choice
+ * for frequency sketches).
+ * Counters are stored as a {@link PacketArray.Concurrent}:
+ * each 64 bits word holds {@code 64/width} whole counters,
+ * so increments are lock-free, and {@link #halve()} ages all the counters
+ * of a word at once with a shift and a mask,
+ * without unpacking them.
+ * The store should support atomic access and be 8 bytes aligned.
+ */
+public class CounterArray {
+
+  private final ByteArray st;
+  private final int width;
+  private final int len;
+  private final PacketArray.Concurrent counters;
+  /** Bytes of the used words */
+  private final int bytes;
+  /** In each word, the bits that survive a halving shift */
+  private final long halfMask;
+
+  /** Bytes of the store of {@code n} counters of {@code width} bits. */
+  public static int storeSize(int width, int n) {
+    return PacketArray.concurrentSize(width, n);
+  }
+
+  /** {@code n} counters of {@code width} bits on the heap. */
+  public CounterArray(int width, int n) {
+    this(ByteArray.on(new byte[storeSize(width, n)]), width, n);
+  }
+
+  /** {@code n} counters of {@code width} bits on {@code store}. */
+  public CounterArray(ByteArray store, int width, int n) {
+    this.st = store;
+    this.width = width;
+    this.len = n;
+    this.counters = PacketArray.concurrent(store, width, n);
+    this.bytes = storeSize(width, n);
+    final long half = ~(-1L << width) >>> 1;
+    long hm = 0;
+    for (int k = 0; k + width <= 64; k += width) hm |= half << k;
+    this.halfMask = hm;
+  }
+
+  public int size() {return len;}
+
+  public int counterWidth() {return width;}
+
+  /** Saturation value of the counters. */
+  public long max() {return ~(-1L << width);}
+
+  /** The counters as a PacketArray. */
+  public PacketArray.Concurrent packetArray() {return counters;}
+
+  public long get(int i) {return counters.get(i);}
+
+  /** Increments counter {@code i}, unless it is saturated;
+   * returns whether it was incremented. */
+  public boolean increment(int i) {return counters.getAndAdd(i, 1) < max();}
+
+  /** Adds {@code delta} to counter {@code i}, saturating at 0 and
+   * {@link #max()}; returns the previous value. */
+  public long add(int i, long delta) {return counters.getAndAdd(i, delta);}
+
+  /** Halves all the counters (rounding down), a word at a time. */
+  public void halve() {
+    for (int b = 0; b < bytes; b += 8) {
+      long w;
+      do {
+        w = st.get64Acquire(b);
+      } while (w != 0 && !st.compareAndSet64(b, w, (w >>> 1) & halfMask));
+    }
+  }
+
+  public void clear() {st.clear(0, bytes);}
+}
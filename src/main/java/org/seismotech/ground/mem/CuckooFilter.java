@@ -0,0 +1,290 @@
+package org.seismotech.ground.mem;
+
+import org.seismotech.ground.math.DMath;
+
+/**
+ * A cuckoo filter (Fan, Andersen, Kaminsky and Mitzenmacher):
+ * an approximate membership structure that supports deletion,
+ * with fewer false positives than a Bloom filter of the same size
+ * for low false positive probabilities.
+ *
+ * <p>Elements are given as 64 bits hashes, that should be well mixed.
+ * The high {@code f} bits of a hash are its fingerprint (0 is reserved
+ * for empty slots), stored in one of two candidate buckets:
+ * {@code i1} from the low bits of the hash, and
+ * {@code i2 = i1 ^ hash(fingerprint)}, so that each one can be computed
+ * from the other and the fingerprint when relocating it.
+ * Each bucket holds {@value #SLOTS} fingerprints of 8 or 16 bits,
+ * a little endian 32 or 64 bits word of a {@link ByteArray};
+ * a whole bucket is searched for a fingerprint, or for an empty slot,
+ * with a single SWAR zero-lane test.
+ * An insertion into two full buckets relocates fingerprints
+ * up to {@value #MAX_KICKS} times; if that fails,
+ * the last relocated fingerprint is kept aside, so nothing is lost,
+ * and the filter reports to be full.
+ *
+ * <p>The serialized form is a header of {@value #HEADER} bytes
+ * (little endian int32 magic, u8 f, u8 victim flag, u16 0,
+ * int32 log2 of buckets, int32 count, int32 victim bucket,
+ * int32 victim fingerprint)
+ * followed by the buckets.
+ * {@link #CuckooFilter(ByteArray,int)} builds a filter on the buckets
+ * of a serialized form without copying them.
+ */
+public class CuckooFilter {
+
+  public static final int SLOTS = 4;
+  public static final int MAX_KICKS = 500;
+  /** Max fraction of used slots for {@link #create(long,double)}. */
+  public static final double LOAD = 0.95;
+  /** Max log2 of buckets with 8 bits fingerprints;
+   * one less with 16 bits ones, so that the store fits in a ByteArray. */
+  public static final int MAX_LOG2_BUCKETS = 28;
+
+  /** "CKF1" in little endian */
+  private static final int MAGIC = 0x3146_4B43;
+  public static final int HEADER = 24;
+  private static final int VICTIM = 1;
+
+  private final ByteArray st;
+  private final int f;
+  private final int log2buckets;
+  private final int mask;
+  /** Bytes per bucket, 4 or 8 */
+  private final int bytes;
+  /** 1 in the lowest bit of every lane */
+  private final long low;
+  /** 1 in the highest bit of every lane */
+  private final long high;
+  private final long fmask;
+  private int count;
+  private boolean hasVictim;
+  private int victimBucket;
+  private long victimFp;
+  /** State of the xorshift generator that chooses the kicked slot */
+  private long seed;
+
+  /** Bytes of the store of {@code 2^log2buckets} buckets of
+   * {@code f} bits fingerprints. */
+  public static int storeSize(int f, int log2buckets) {
+    checkShape(f, log2buckets);
+    return (1 << log2buckets) * (SLOTS * f / 8);
+  }
+
+  private static void checkShape(int f, int log2buckets) {
+    if ((f != 8 && f != 16) || log2buckets < 0
+        || MAX_LOG2_BUCKETS < log2buckets
+        || Integer.MAX_VALUE < (1L << log2buckets) * (SLOTS * f / 8)) {
+      throw new IllegalArgumentException(
+        "Illegal cuckoo filter with " + f + " bits fingerprints and 2^"
+        + log2buckets + " buckets: fingerprints should take 8 or 16 bits,"
+        + " log2 of buckets be in [0," + MAX_LOG2_BUCKETS + "]"
+        + " and the store take less than 2^31 bytes");
+    }
+  }
+
+  /** An empty filter of {@code 2^log2buckets} buckets of {@code f} bits
+   * fingerprints on {@code store}, that should be cleared. */
+  public CuckooFilter(ByteArray store, int f, int log2buckets) {
+    final int size = storeSize(f, log2buckets);
+    if (store.size() < size) throw new IllegalArgumentException(
+      "Store of size " + store.size() + " is not big enough for a cuckoo"
+      + " filter of 2^" + log2buckets + " buckets of " + f
+      + " bits fingerprints; " + size + " bytes are needed");
+    this.st = store;
+    this.f = f;
+    this.log2buckets = log2buckets;
+    this.mask = (1 << log2buckets) - 1;
+    this.bytes = SLOTS * f / 8;
+    this.low = (f == 8) ? 0x0101_0101L : 0x0001_0001_0001_0001L;
+    this.high = low << (f - 1);
+    this.fmask = ~(-1L << f);
+    this.count = 0;
+    this.hasVictim = false;
+    this.seed = 0x9e37_79b9_7f4a_7c15L;
+  }
+
+  /** Reads the serialized filter at {@code src[off...]}.
+   * The filter works on the buckets of {@code src}, without copying them.
+   */
+  public CuckooFilter(ByteArray src, int off) {
+    this(buckets(src, off), src.get8u(off+4), src.get32(off+8));
+    this.count = src.get32(off+12);
+    this.hasVictim = (src.get8u(off+5) & VICTIM) != 0;
+    this.victimBucket = src.get32(off+16);
+    this.victimFp = Bits.uint(src.get32(off+20));
+  }
+
+  private static ByteArray buckets(ByteArray src, int off) {
+    if (src.get32(off) != MAGIC) throw new IllegalArgumentException(
+      "No serialized cuckoo filter at offset " + off);
+    final int size = storeSize(src.get8u(off+4), src.get32(off+8));
+    return src.subarray(off + HEADER, off + HEADER + size);
+  }
+
+  /** An empty filter on the heap, for {@code n} elements
+   * with a false positive probability around {@code fpp}. */
+  public static CuckooFilter create(long n, double fpp) {
+    //fpp is about 2 * SLOTS / 2^f
+    final int f = (2 * SLOTS / fpp <= 256) ? 8 : 16;
+    final int log2buckets
+      = DMath.clog2(Math.max(1, (long) Math.ceil(n / (SLOTS * LOAD))));
+    return new CuckooFilter(
+      ByteArray.on(new byte[storeSize(f, log2buckets)]), f, log2buckets);
+  }
+
+  public int fingerprintBits() {return f;}
+
+  public int buckets() {return mask + 1;}
+
+  /** Number of fingerprints in the filter. */
+  public int size() {return count + (hasVictim ? 1 : 0);}
+
+  /** Whether an insertion failed, so no more can be done until
+   * something is removed. */
+  public boolean isFull() {return hasVictim;}
+
+  public void clear() {
+    st.clear(0, buckets() * bytes);
+    count = 0;
+    hasVictim = false;
+  }
+
+  //----------------------------------------------------------------------
+  private long fingerprint(long h) {
+    final long fp = h >>> -f;
+    return (fp == 0) ? 1 : fp;
+  }
+
+  private int index(long h) {return (int) h & mask;}
+
+  private int alt(int i, long fp) {
+    return (i ^ (int) fp * 0x5bd1_e995) & mask;
+  }
+
+  private long bucket(int i) {
+    return (bytes == 4) ? Bits.uint(st.get32(4*i)) : st.get64(8*i);
+  }
+
+  private void setBucket(int i, long b) {
+    if (bytes == 4) st.set32(4*i, (int) b);
+    else st.set64(8*i, b);
+  }
+
+  /** Lanes of {@code b} that are 0 flagged with their highest bit.
+   * Only the lowest flag is exact: borrows can flag lanes above it. */
+  private long zeros(long b) {return (b - low) & ~b & high;}
+
+  /** Shift of the lowest lane of {@code b} equal to {@code fp},
+   * or -1 if there is none. */
+  private int find(long b, long fp) {
+    final long z = zeros(b ^ fp * low);
+    return (z == 0) ? -1 : Long.numberOfTrailingZeros(z) - (f - 1);
+  }
+
+  /** Puts {@code fp} in an empty slot of bucket {@code i},
+   * returning whether there was one. */
+  private boolean put(int i, long fp) {
+    final long b = bucket(i);
+    final int s = find(b, 0);
+    if (s < 0) return false;
+    setBucket(i, b | fp << s);
+    return true;
+  }
+
+  //----------------------------------------------------------------------
+  /** Adds {@code h}; returns {@code false} if the filter is full. */
+  public boolean add(long h) {
+    if (hasVictim) return false;
+    long fp = fingerprint(h);
+    int i = index(h);
+    if (put(i, fp) || put(i = alt(i, fp), fp)) {
+      count++;
+      return true;
+    }
+    for (int k = 0; k < MAX_KICKS; k++) {
+      //Swap with a random slot, and move the kicked fingerprint
+      seed ^= seed << 13;
+      seed ^= seed >>> 7;
+      seed ^= seed << 17;
+      final int s = (int) (seed >>> -2) * f;
+      final long b = bucket(i);
+      final long kicked = (b >>> s) & fmask;
+      setBucket(i, b & ~(fmask << s) | fp << s);
+      fp = kicked;
+      i = alt(i, fp);
+      if (put(i, fp)) {
+        count++;
+        return true;
+      }
+    }
+    hasVictim = true;
+    victimBucket = i;
+    victimFp = fp;
+    return true;
+  }
+
+  /** Whether {@code h} could have been added;
+   * if {@code false}, it was certainly not added. */
+  public boolean mightContain(long h) {
+    final long fp = fingerprint(h);
+    final int i1 = index(h), i2 = alt(i1, fp);
+    return find(bucket(i1), fp) >= 0 || find(bucket(i2), fp) >= 0
+      || hasVictim && victimFp == fp
+         && (victimBucket == i1 || victimBucket == i2);
+  }
+
+  /** Removes a fingerprint of {@code h};
+   * returns whether there was one.
+   * Only hashes that were added should be removed:
+   * otherwise, the fingerprint of another one could be removed. */
+  public boolean remove(long h) {
+    final long fp = fingerprint(h);
+    final int i1 = index(h), i2 = alt(i1, fp);
+    if (hasVictim && victimFp == fp
+        && (victimBucket == i1 || victimBucket == i2)) {
+      hasVictim = false;
+      return true;
+    }
+    if (!remove(i1, fp) && !remove(i2, fp)) return false;
+    count--;
+    if (hasVictim) {
+      //Room for the fingerprint kept aside
+      hasVictim = false;
+      final int v = victimBucket;
+      if (put(v, victimFp) || put(alt(v, victimFp), victimFp)) count++;
+      else hasVictim = true;
+    }
+    return true;
+  }
+
+  private boolean remove(int i, long fp) {
+    final long b = bucket(i);
+    final int s = find(b, fp);
+    if (s < 0) return false;
+    setBucket(i, b & ~(fmask << s));
+    return true;
+  }
+
+  //----------------------------------------------------------------------
+  public int serializedSize() {return HEADER + buckets() * bytes;}
+
+  /** Writes this filter to {@code trg} starting at {@code off},
+   * returning the number of bytes written. */
+  public int serialize(ByteArray trg, int off) {
+    final int size = serializedSize();
+    if (trg.size() - off < size) throw new IllegalArgumentException(
+      "Serializing a cuckoo filter needs " + size + " bytes, but only "
+      + (trg.size() - off) + " are available at " + off);
+    trg.set32(off, MAGIC);
+    trg.set(off+4, (byte) f);
+    trg.set(off+5, (byte) (hasVictim ? VICTIM : 0));
+    trg.set16(off+6, (short) 0);
+    trg.set32(off+8, log2buckets);
+    trg.set32(off+12, count);
+    trg.set32(off+16, hasVictim ? victimBucket : 0);
+    trg.set32(off+20, hasVictim ? (int) victimFp : 0);
+    st.copyTo(0, trg, off + HEADER, size - HEADER);
+    return size;
+  }
+}
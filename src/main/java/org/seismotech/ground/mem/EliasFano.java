@@ -0,0 +1,232 @@
+package org.seismotech.ground.mem;
+
+import org.seismotech.ground.cursor.CursorOf;
+import org.seismotech.ground.math.DMath;
+
+/**
+ * Elias-Fano encoding of a non decreasing sequence of {@code n} longs
+ * in [0,{@code u}).
+ * Each value is split in its {@code l = floor(log2(u/n))} low bits,
+ * stored in a {@link PacketArray},
+ * and its high bits, stored in unary in a {@link BitArray}:
+ * the {@code i}-th value sets bit {@code (x_i >>> l) + i}.
+ * That takes less than {@code 2 + log2(u/n)} bits per value.
+ * A {@link RankSelect} index on the high bits gives
+ * {@link #get(int)} with a select1 and {@link #nextGEQ(long)}
+ * with a select0 and a short scan.
+ *
+ * <p>Sequences are built in one pass with a {@link Builder},
+ * directly in the serialized form:
+ * little endian int32 magic, int32 n, int64 u, int32 l,
+ * int32 bits of the high part, int64 0,
+ * and the low and high parts, each one padded to a multiple of 8 bytes.
+ * A sequence is read from its serialized form with
+ * {@link #EliasFano(ByteArray,int)}, without copying it;
+ * only the RankSelect index is built on load.
+ */
+public class EliasFano {
+
+  /** "EFS1" in little endian */
+  private static final int MAGIC = 0x3153_4645;
+  private static final int HEADER = 32;
+
+  private final ByteArray st;
+  private final int n;
+  private final long universe;
+  private final int l;
+  private final PacketArray low;
+  private final BitArray high;
+  private final RankSelect index;
+
+  /** Reads the serialized sequence at {@code src[off...]}. */
+  public EliasFano(ByteArray src, int off) {
+    if (src.get32(off) != MAGIC) throw new IllegalArgumentException(
+      "No serialized Elias-Fano sequence at offset " + off);
+    this.n = src.get32(off+4);
+    this.universe = src.get64(off+8);
+    this.l = src.get32(off+16);
+    final int highBits = src.get32(off+20);
+    if (l < 0 || PacketArray.MAX_WIDTH_64 < l) {
+      throw new IllegalArgumentException(
+        "Illegal low bits width " + l
+        + " in serialized Elias-Fano sequence at offset " + off);
+    }
+    final int lowBytes = lowBytes(n, l);
+    this.st = src.subarray(off, off + size(lowBytes, highBits));
+    this.low = (l == 0) ? null
+      : PacketArray.unchecked(st.subarray(HEADER, HEADER + lowBytes), l, 0, n);
+    this.high = st.bitArray(8 * (HEADER + lowBytes),
+      8 * (HEADER + lowBytes) + highBits);
+    this.index = new RankSelect(high);
+  }
+
+  /** Low bits width for {@code n} values in [0,{@code u}). */
+  private static int lowWidth(int n, long u) {
+    if (n == 0 || u <= n) return 0;
+    return Math.min(PacketArray.MAX_WIDTH_64, DMath.flog2(u / n));
+  }
+
+  private static int highBits(int n, long u, int l) {
+    if (n == 0) return 0;
+    return Math.toIntExact(n + ((Math.max(u, 1) - 1) >>> l) + 1);
+  }
+
+  private static int lowBytes(int n, int l) {
+    return Math.toIntExact(8 * ((n * (long) l + 63) / 64));
+  }
+
+  private static int size(int lowBytes, int highBits) {
+    return HEADER + lowBytes + 8 * DMath.cdiv(highBits, 64);
+  }
+
+  /** Bytes of the serialized form of {@code n} values in [0,{@code u}). */
+  public static int serializedSize(int n, long u) {
+    final int l = lowWidth(n, u);
+    return size(lowBytes(n, l), highBits(n, u, l));
+  }
+
+  public int size() {return n;}
+
+  public long universe() {return universe;}
+
+  /** The serialized form of this sequence. */
+  public ByteArray byteArray() {return st;}
+
+  /** Writes this sequence to {@code trg} starting at {@code off},
+   * returning the number of bytes written. */
+  public int serialize(ByteArray trg, int off) {
+    final int size = st.size();
+    if (trg.size() - off < size) throw new IllegalArgumentException(
+      "Serializing an Elias-Fano sequence needs " + size
+      + " bytes, but only " + (trg.size() - off) + " are available at "
+      + off);
+    st.copyTo(0, trg, off, size);
+    return size;
+  }
+
+  private long lowBits(int i) {return (l == 0) ? 0 : low.get(i);}
+
+  /** Value at position {@code i}. */
+  public long get(int i) {
+    return (long) (index.select1(i) - i) << l | lowBits(i);
+  }
+
+  /** Position of the first value {@code >= x},
+   * or {@link #size()} if there is none. */
+  public int nextGEQ(long x) {
+    if (n == 0 || universe <= x) return n;
+    if (x <= 0) return 0;
+    final int hx = (int) (x >>> l);
+    //First position of bucket hx: after the hx-th 0
+    int q = (hx == 0) ? 0 : index.select0(hx - 1) + 1;
+    for (int i = q - hx; i < n; i++, q++) {
+      q = high.next1(q);
+      final long v = (long) (q - i) << l | lowBits(i);
+      if (x <= v) return i;
+    }
+    return n;
+  }
+
+  /** Cursor on the values, in order. */
+  public CursorOf.Longs longs() {
+    return new CursorOf.Longs() {
+      private final CursorOf.Longs lows = (l == 0) ? null : low.longs(0, n);
+      private int i = -1;
+      private int q = -1;
+      private long v;
+
+      @Override public boolean advance() {
+        if (n <= ++i) return false;
+        q = high.next1(q+1);
+        v = (long) (q - i) << l
+          | ((lows != null && lows.advance()) ? lows.longValue() : 0);
+        return true;
+      }
+
+      @Override public long longValue() {return v;}
+    };
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * One pass builder of an Elias-Fano sequence of {@code n} values
+   * in [0,{@code u}), added in non decreasing order.
+   */
+  public static class Builder {
+    private final ByteArray st;
+    private final int n;
+    private final long universe;
+    private final int l;
+    private final PacketArray.Writer low;
+    private final BitArray high;
+    private int i;
+    private long last;
+
+    /** A builder on heap storage. */
+    public Builder(int n, long u) {
+      this(ByteArray.on(new byte[serializedSize(n, u)]), 0, n, u);
+    }
+
+    /** A builder writing the serialized form in {@code trg[off...]};
+     * see {@link EliasFano#serializedSize(int,long)}. */
+    public Builder(ByteArray trg, int off, int n, long u) {
+      if (n < 0 || u < 0) throw new IllegalArgumentException(
+        "Illegal Elias-Fano sequence of " + n + " values in [0," + u + ")");
+      final int size = serializedSize(n, u);
+      if (trg.size() - off < size) throw new IllegalArgumentException(
+        "An Elias-Fano sequence of " + n + " values in [0," + u + ") needs "
+        + size + " bytes, but only " + (trg.size() - off)
+        + " are available at " + off);
+      this.st = trg.subarray(off, off + size);
+      this.n = n;
+      this.universe = u;
+      this.l = lowWidth(n, u);
+      final int lowBytes = lowBytes(n, l);
+      final int highBits = highBits(n, u, l);
+      st.clear();
+      st.set32(0, MAGIC);
+      st.set32(4, n);
+      st.set64(8, u);
+      st.set32(16, l);
+      st.set32(20, highBits);
+      this.low = (l == 0) ? null : PacketArray
+        .unchecked(st.subarray(HEADER, HEADER + lowBytes), l, 0, n)
+        .writer(0);
+      this.high = st.bitArray(8 * (HEADER + lowBytes),
+        8 * (HEADER + lowBytes) + highBits);
+      this.i = 0;
+      this.last = 0;
+    }
+
+    public Builder add(long x) {
+      if (i == n) throw new IllegalStateException(
+        "Elias-Fano sequence is already full, with " + n + " values");
+      if (x < last || universe <= x) throw new IllegalArgumentException(
+        "Value " + x + " at position " + i + " should be in [" + last
+        + "," + universe + ")");
+      if (low != null) low.put(x);
+      high.set((int) (x >>> l) + i);
+      last = x;
+      i++;
+      return this;
+    }
+
+    public Builder addAll(CursorOf.Longs xs) {
+      while (xs.advance()) add(xs.longValue());
+      return this;
+    }
+
+    public EliasFano build() {
+      if (i < n) throw new IllegalStateException(
+        "Elias-Fano sequence of " + n + " values has only " + i);
+      if (low != null) low.flush();
+      return new EliasFano(st, 0);
+    }
+  }
+
+  /** The Elias-Fano sequence of the {@code n} values of {@code xs},
+   * that are in [0,{@code u}). */
+  public static EliasFano of(CursorOf.Longs xs, int n, long u) {
+    return new Builder(n, u).addAll(xs).build();
+  }
+}
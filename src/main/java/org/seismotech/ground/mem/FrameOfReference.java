@@ -0,0 +1,309 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+
+import org.seismotech.ground.cursor.CursorOf;
+import org.seismotech.ground.math.DMath;
+
+/**
+ * A sequence of longs with <i>frame of reference</i> encoding:
+ * values are stored as their difference with the min value (the base),
+ * in a {@link PacketArray} of the minimal width to hold the max difference.
+ * Optionally, for sorted sequences, the differences between consecutive
+ * values are packed instead; then the value of every {@value #SAMPLE}-th
+ * entry is also stored, to keep random access cheap.
+ * Sequences are built with a {@link Builder},
+ * that chooses delta encoding only if it gives a smaller width.
+ *
+ * <p>The encoded form is self-describing, with little endian layout:
+ * int32 magic, u8 width, u8 flags (delta), u16 0, int32 count, int32 0,
+ * int64 base, then (if delta) the samples as int64,
+ * and the packed entries, padded to a multiple of 8 bytes.
+ * Width 0 means that all the entries are equal to the base,
+ * and width 64 that they are stored as raw int64 (with base 0),
+ * because {@link PacketArray} does not support widths above
+ * {@value PacketArray#MAX_WIDTH_64}.
+ * This class reads the encoded form in place, without copying it.
+ */
+public class FrameOfReference {
+
+  /** "FOR1" in little endian */
+  private static final int MAGIC = 0x3152_4F46;
+  private static final int HEADER = 24;
+  private static final int DELTA = 1;
+
+  /** Entries between consecutive samples, in delta encoding. */
+  public static final int SAMPLE = 64;
+
+  private final ByteArray st;
+  private final int width;
+  private final boolean delta;
+  private final int count;
+  private final long base;
+  /** Byte offset of the samples */
+  private final int samples;
+  /** Byte offset of the entries */
+  private final int payload;
+  private final PacketArray packed;
+
+  /** Reads the encoded sequence at {@code src[off...]}. */
+  public FrameOfReference(ByteArray src, int off) {
+    if (src.get32(off) != MAGIC) throw new IllegalArgumentException(
+      "No frame of reference encoded sequence at offset " + off);
+    this.st = src;
+    this.width = src.get8u(off+4);
+    this.delta = (src.get8u(off+5) & DELTA) != 0;
+    this.count = src.get32(off+8);
+    this.base = src.get64(off+16);
+    if (width != 64 && PacketArray.MAX_WIDTH_64 < width) {
+      throw new IllegalArgumentException(
+        "Illegal width " + width + " in frame of reference encoded sequence"
+        + " at offset " + off);
+    }
+    this.samples = off + HEADER;
+    this.payload = samples + (delta ? 8 * samplesFor(count) : 0);
+    this.packed = (width == 0 || width == 64) ? null
+      : PacketArray.unchecked(
+        st.subarray(payload, payload + payloadBytes(count, width)),
+        width, 0, count);
+  }
+
+  private static int samplesFor(int count) {return DMath.cdiv(count, SAMPLE);}
+
+  private static int payloadBytes(int count, int width) {
+    return Math.toIntExact(8 * ((count * (long) width + 63) / 64));
+  }
+
+  public int size() {return count;}
+
+  /** Bits per entry. */
+  public int entryWidth() {return width;}
+
+  public boolean isDelta() {return delta;}
+
+  public long base() {return base;}
+
+  /** Bytes of the encoded form. */
+  public int encodedSize() {
+    return payload - samples + HEADER + payloadBytes(count, width);
+  }
+
+  /** Packed entry {@code i}, without the base. */
+  private long entry(int i) {
+    switch (width) {
+    case 0: return 0;
+    case 64: return st.get64(payload + 8*i);
+    default: return packed.get(i);
+    }
+  }
+
+  private void entries(int from, long[] dst, int off, int n) {
+    switch (width) {
+    case 0: Arrays.fill(dst, off, off+n, 0); break;
+    case 64:
+      for (int k = 0; k < n; k++) {
+        dst[off+k] = st.get64(payload + 8*(from+k));
+      }
+      break;
+    default: packed.get(from, dst, off, n);
+    }
+  }
+
+  /** Value at position {@code i}. */
+  public long get(int i) {
+    if (!delta) return base + entry(i);
+    final int s = i / SAMPLE;
+    long v = st.get64(samples + 8*s);
+    for (int j = s*SAMPLE + 1; j <= i; j++) v += base + entry(j);
+    return v;
+  }
+
+  /** Bulk {@link #get(int)}:
+   * {@code dst[off+k] = get(from+k)}, for {@code k} in [0,n). */
+  public void get(int from, long[] dst, int off, int n) {
+    if (n <= 0) return;
+    if (!delta) {
+      entries(from, dst, off, n);
+      for (int k = 0; k < n; k++) dst[off+k] += base;
+    } else {
+      dst[off] = get(from);
+      entries(from+1, dst, off+1, n-1);
+      for (int k = 1; k < n; k++) dst[off+k] += dst[off+k-1] + base;
+    }
+  }
+
+  /** Cursor on the values, in order. */
+  public CursorOf.Longs longs() {
+    return new CursorOf.Longs() {
+      private final CursorOf.Longs es = (packed != null)
+        ? packed.longs(0, count) : null;
+      private int i = -1;
+      private long v;
+
+      @Override public boolean advance() {
+        if (count <= ++i) return false;
+        final long e = (es != null && es.advance()) ? es.longValue()
+          : (width == 64) ? st.get64(payload + 8*i) : 0;
+        v = !delta ? base + e : (i == 0) ? st.get64(samples) : v + base + e;
+        return true;
+      }
+
+      @Override public long longValue() {return v;}
+    };
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Builder of a frame of reference encoded sequence.
+   * Values are accumulated, and the width and base are computed
+   * when the sequence is encoded.
+   */
+  public static class Builder {
+    private long[] xs;
+    private int n;
+    private boolean tryDelta;
+
+    public Builder() {
+      this.xs = new long[64];
+      this.n = 0;
+      this.tryDelta = false;
+    }
+
+    /** Whether to try delta encoding, good for sorted sequences. */
+    public Builder delta(boolean tryDelta) {
+      this.tryDelta = tryDelta;
+      return this;
+    }
+
+    public Builder add(long x) {
+      if (n == xs.length) xs = Arrays.copyOf(xs, 2*n);
+      xs[n++] = x;
+      return this;
+    }
+
+    public Builder addAll(long[] src, int off, int len) {
+      if (xs.length < n + len) {
+        xs = Arrays.copyOf(xs, Math.max(n + len, 2*xs.length));
+      }
+      System.arraycopy(src, off, xs, n, len);
+      n += len;
+      return this;
+    }
+
+    public Builder addAll(CursorOf.Longs src) {
+      while (src.advance()) add(src.longValue());
+      return this;
+    }
+
+    /** Discards the accumulated values. */
+    public Builder clear() {
+      n = 0;
+      return this;
+    }
+
+    public int size() {return n;}
+
+    /** Base, width and mode chosen for the values. */
+    private static final class Plan {
+      final long base;
+      final int width;
+      final boolean delta;
+
+      Plan(long base, int width, boolean delta) {
+        this.base = (width == 64) ? 0 : base;
+        this.width = width;
+        this.delta = delta;
+      }
+    }
+
+    private Plan plan() {
+      long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+      for (int i = 0; i < n; i++) {
+        min = Math.min(min, xs[i]);
+        max = Math.max(max, xs[i]);
+      }
+      final Plan plain
+        = new Plan((n == 0) ? 0 : min, width(max - min, n), false);
+      if (tryDelta && n > 1) {
+        long dmin = Long.MAX_VALUE, dmax = Long.MIN_VALUE;
+        for (int i = 1; i < n; i++) {
+          final long d = xs[i] - xs[i-1];
+          dmin = Math.min(dmin, d);
+          dmax = Math.max(dmax, d);
+        }
+        final int dwidth = width(dmax - dmin, n);
+        if (dwidth < plain.width) return new Plan(dmin, dwidth, true);
+      }
+      return plain;
+    }
+
+    /** Width to pack a range of {@code range} (unsigned) values. */
+    private static int width(long range, int n) {
+      if (n == 0) return 0;
+      final int w = DMath.bitSize(range);
+      return (w <= PacketArray.MAX_WIDTH_64) ? w : 64;
+    }
+
+    /** Bytes of the encoded form of the current values. */
+    public int encodedSize() {
+      final Plan p = plan();
+      return size(p.width, p.delta);
+    }
+
+    private int size(int width, boolean delta) {
+      return HEADER + (delta ? 8 * samplesFor(n) : 0)
+        + payloadBytes(n, width);
+    }
+
+    /** Writes the encoded form of the current values to {@code trg}
+     * starting at {@code off}, returning the number of bytes written. */
+    public int encode(ByteArray trg, int off) {
+      final Plan p = plan();
+      final long base = p.base;
+      final int width = p.width;
+      final boolean delta = p.delta;
+      final int size = size(width, delta);
+      if (trg.size() - off < size) throw new IllegalArgumentException(
+        "Frame of reference encoding needs " + size + " bytes, but only "
+        + (trg.size() - off) + " are available at " + off);
+      trg.set32(off, MAGIC);
+      trg.set(off+4, (byte) width);
+      trg.set(off+5, (byte) (delta ? DELTA : 0));
+      trg.set16(off+6, (short) 0);
+      trg.set32(off+8, n);
+      trg.set32(off+12, 0);
+      trg.set64(off+16, base);
+      int pos = off + HEADER;
+      if (delta) {
+        for (int s = 0; s < samplesFor(n); s++) {
+          trg.set64(pos + 8*s, xs[s*SAMPLE]);
+        }
+        pos += 8 * samplesFor(n);
+      }
+      final int bytes = payloadBytes(n, width);
+      trg.clear(pos, pos + bytes);
+      if (width == 64) {
+        for (int i = 0; i < n; i++) {
+          trg.set64(pos + 8*i, delta && i > 0 ? xs[i] - xs[i-1] : xs[i]);
+        }
+      } else if (width > 0) {
+        final PacketArray.Writer w = PacketArray
+          .unchecked(trg.subarray(pos, pos + bytes), width, 0, n).writer(0);
+        for (int i = 0; i < n; i++) {
+          w.put(!delta ? xs[i] - base : (i == 0) ? 0 : xs[i] - xs[i-1] - base);
+        }
+        w.flush();
+      }
+      return size;
+    }
+
+    /** Drains the encoded form of the current values,
+     * returning the number of bytes drained. */
+    public int encode(ByteDrain drain) {
+      final ByteArray tmp = ByteArray.on(new byte[encodedSize()]);
+      final int size = encode(tmp, 0);
+      for (int i = 0; i < size; i += 8) drain.drain(tmp.get64(i));
+      return size;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package org.seismotech.ground.mem;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.seismotech.ground.math.URecDiv;
+
+/**
+ * A count-min sketch of small saturating counters with periodic aging,
+ * as used by the TinyLFU cache admission policy (Einziger, Friedman
+ * and Manes).
+ * Each element increments one counter in each of {@code depth} rows
+ * of a {@link CounterArray}, and its frequency is estimated as the
+ * minimum of them.
+ * After {@code sampleSize} increments all the counters are halved,
+ * so the sketch tracks recent frequencies.
+ *
+ * <p>Elements are given as 64 bits hashes, that should be well mixed.
+ * The column of row {@code r} is derived from both halves of the hash
+ * ({@code hi + r*lo}, by Kirsch and Mitzenmacher) and reduced to the
+ * row length with a {@link URecDiv}, so rows need not be powers of 2.
+ * All the operations are thread-safe;
+ * the aging trigger is approximate under contention.
+ */
+public class FrequencySketch {
+
+  public static final int DEFAULT_DEPTH = 4;
+  public static final int DEFAULT_WIDTH = 4;
+  /** Default increments between agings, per unit of capacity. */
+  public static final int SAMPLE_FACTOR = 10;
+
+  private static final int MIX = 0x9e3779b9;
+
+  private final CounterArray counters;
+  private final int depth;
+  private final int columns;
+  private final URecDiv byColumns;
+  private final int sampleSize;
+  private final AtomicInteger additions;
+
+  /** A sketch on the heap for a cache of {@code capacity} elements,
+   * with {@value #DEFAULT_DEPTH} rows of {@code capacity} counters
+   * of {@value #DEFAULT_WIDTH} bits. */
+  public FrequencySketch(int capacity) {
+    this(Math.max(16, capacity), DEFAULT_DEPTH, DEFAULT_WIDTH,
+      SAMPLE_FACTOR * Math.max(16, capacity));
+  }
+
+  /** A sketch on the heap with {@code depth} rows of {@code columns}
+   * counters of {@code width} bits, aged every {@code sampleSize}
+   * increments. */
+  public FrequencySketch(int columns, int depth, int width, int sampleSize) {
+    this(new CounterArray(width, Math.multiplyExact(columns, depth)),
+      columns, depth, sampleSize);
+  }
+
+  /** A sketch on {@code counters}, seen as {@code depth} rows
+   * of {@code columns} counters. */
+  public FrequencySketch(CounterArray counters,
+      int columns, int depth, int sampleSize) {
+    if (columns <= 0 || depth <= 0 || sampleSize <= 0
+        || counters.size() / depth < columns) {
+      throw new IllegalArgumentException(
+        "Illegal frequency sketch of " + depth + " rows of " + columns
+        + " counters, aged every " + sampleSize + " increments, on "
+        + counters.size() + " counters");
+    }
+    this.counters = counters;
+    this.depth = depth;
+    this.columns = columns;
+    this.byColumns = new URecDiv(columns);
+    this.sampleSize = sampleSize;
+    this.additions = new AtomicInteger();
+  }
+
+  public CounterArray counters() {return counters;}
+
+  public int depth() {return depth;}
+
+  public int columns() {return columns;}
+
+  public int sampleSize() {return sampleSize;}
+
+  /** Counter of row {@code r} for hash {@code h}. */
+  private int index(long h, int r) {
+    final int g = ((int) (h >>> 32) + r * (int) h) * MIX;
+    return r * columns + (g - byColumns.div(g) * columns);
+  }
+
+  /** Records an occurrence of {@code h}. */
+  public void increment(long h) {
+    boolean added = false;
+    for (int r = 0; r < depth; r++) added |= counters.increment(index(h, r));
+    if (added && additions.incrementAndGet() == sampleSize) age();
+  }
+
+  /** Estimated number of recent occurrences of {@code h},
+   * never below the actual count, until the counters saturate or age. */
+  public long frequency(long h) {
+    long f = Long.MAX_VALUE;
+    for (int r = 0; r < depth; r++) {
+      f = Math.min(f, counters.get(index(h, r)));
+    }
+    return f;
+  }
+
+  /** TinyLFU admission: whether {@code candidate} is more frequent
+   * than {@code victim}, so that it should replace it in the cache. */
+  public boolean admit(long candidate, long victim) {
+    return frequency(candidate) > frequency(victim);
+  }
+
+  /** Halves all the counters, and the count of increments. */
+  public void age() {
+    counters.halve();
+    additions.updateAndGet(a -> a >>> 1);
+  }
+
+  public void clear() {
+    counters.clear();
+    additions.set(0);
+  }
+}
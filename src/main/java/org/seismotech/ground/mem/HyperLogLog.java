@@ -0,0 +1,302 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog cardinality estimator, with the sparse representation
+ * of HyperLogLog++ (Heule, Nunkesser and Hall)
+ * and the improved estimator of Ertl, that needs no bias tables.
+ *
+ * <p>Elements are given as 64 bits hashes, that should be well mixed.
+ * With precision {@code p}, the high {@code p} bits of a hash select
+ * one of {@code m = 2^p} registers, and the register keeps the max
+ * position of the first 1 in the remaining bits.
+ * Registers are 6 bits wide, in a {@link PacketArray};
+ * 8 registers fill 6 bytes, so merging takes the max of 8 registers
+ * at once with SWAR arithmetic instead of unpacking them.
+ *
+ * <p>Small sketches start sparse: a sorted list of int entries,
+ * the index of the hash with {@value #SPARSE_P} bits of precision
+ * and the position of its first 1 in the remaining bits.
+ * They are converted to dense registers when the list would take more
+ * space than them.
+ *
+ * <p>The serialized form, little endian, is:
+ * int32 magic, u8 p, u8 sparse flag, u16 0, int32 entries,
+ * and then the sparse entries as int32 or the dense registers.
+ */
+public class HyperLogLog {
+
+  public static final int MIN_P = 4;
+  public static final int MAX_P = 18;
+  /** Precision of the sparse representation. */
+  public static final int SPARSE_P = 25;
+
+  /** "HLL1" in little endian */
+  private static final int MAGIC = 0x314C_4C48;
+  private static final int HEADER = 12;
+  private static final int SPARSE = 1;
+
+  private static final int WIDTH = 6;
+  /** Registers and bytes of a SWAR group */
+  private static final int GROUP = 8;
+  private static final int GROUP_BYTES = GROUP * WIDTH / 8;
+  /** Even registers of a group */
+  private static final long EVEN = 0x0000_03F0_3F03_F03FL;
+  /** Guard bits just above the even registers of a group */
+  private static final long GUARD = 0x0000_0400_4004_0040L;
+  private static final long GROUP_MASK = ~(-1L << (GROUP * WIDTH));
+
+  private final int p;
+  private final int m;
+  /** Dense registers; null while sparse */
+  private ByteArray regs;
+  private PacketArray dense;
+  /** Sorted sparse entries, {@code index << 6 | rho} */
+  private int[] sparse;
+  private int sparseLen;
+  /** Unsorted sparse entries, not merged yet */
+  private int[] buf;
+  private int bufLen;
+
+  /** An empty sketch with {@code 2^p} registers. */
+  public HyperLogLog(int p) {
+    if (p < MIN_P || MAX_P < p) throw new IllegalArgumentException(
+      "Illegal HyperLogLog precision " + p + ": should be in the range ["
+      + MIN_P + "," + MAX_P + "]");
+    this.p = p;
+    this.m = 1 << p;
+    this.sparse = new int[16];
+    this.sparseLen = 0;
+    this.buf = new int[Math.max(16, maxSparse() / 4)];
+    this.bufLen = 0;
+  }
+
+  /** Reads the serialized sketch at {@code src[off...]}.
+   * The sketch keeps its own copy of the data. */
+  public HyperLogLog(ByteArray src, int off) {
+    this(checkedPrecision(src, off));
+    final int n = src.get32(off+8);
+    if ((src.get8u(off+5) & SPARSE) != 0) {
+      sparse = new int[Math.max(16, n)];
+      for (int i = 0; i < n; i++) sparse[i] = src.get32(off + HEADER + 4*i);
+      sparseLen = n;
+    } else {
+      toDense();
+      src.copyTo(off + HEADER, regs, 0, denseBytes());
+    }
+  }
+
+  private static int checkedPrecision(ByteArray src, int off) {
+    if (src.get32(off) != MAGIC) throw new IllegalArgumentException(
+      "No serialized HyperLogLog sketch at offset " + off);
+    return src.get8u(off+4);
+  }
+
+  public int precision() {return p;}
+
+  public boolean isSparse() {return regs == null;}
+
+  private int denseBytes() {return m / GROUP * GROUP_BYTES;}
+
+  /** Max sparse entries before converting to dense. */
+  private int maxSparse() {return denseBytes() / 4;}
+
+  //----------------------------------------------------------------------
+  public void add(long h) {
+    if (regs != null) addDense(h);
+    else addSparse(h);
+  }
+
+  /** {@link #add(long)} of {@code hs[off...off+n)}. */
+  public void addAll(long[] hs, int off, int n) {
+    int k = 0;
+    for (; k < n && regs == null; k++) addSparse(hs[off+k]);
+    for (; k < n; k++) addDense(hs[off+k]);
+  }
+
+  private void addDense(long h) {
+    final int i = (int) (h >>> -p);
+    final int rho = Math.min(Long.numberOfLeadingZeros(h << p), 64-p) + 1;
+    if (dense.get(i) < rho) dense.set(i, rho);
+  }
+
+  private void addSparse(long h) {
+    final int i = (int) (h >>> -SPARSE_P);
+    final int rho
+      = Math.min(Long.numberOfLeadingZeros(h << SPARSE_P), 64-SPARSE_P) + 1;
+    if (bufLen == buf.length) flush();
+    if (regs != null) addDense(h);
+    else buf[bufLen++] = i << WIDTH | rho;
+  }
+
+  /** Merges the buffered sparse entries,
+   * and converts to dense if there are too many. */
+  private void flush() {
+    if (bufLen == 0) return;
+    Arrays.sort(buf, 0, bufLen);
+    final int[] merged = new int[Math.max(16, sparseLen + bufLen)];
+    int a = 0, b = 0, n = 0;
+    while (a < sparseLen || b < bufLen) {
+      final int e = (b == bufLen || a < sparseLen && sparse[a] < buf[b])
+        ? sparse[a++] : buf[b++];
+      //Entries are sorted by index and rho: keep the last of each index
+      if (n > 0 && merged[n-1] >>> WIDTH == e >>> WIDTH) merged[n-1] = e;
+      else merged[n++] = e;
+    }
+    sparse = merged;
+    sparseLen = n;
+    bufLen = 0;
+    if (sparseLen > maxSparse()) toDense();
+  }
+
+  private void toDense() {
+    flush();
+    if (regs != null) return;
+    regs = ByteArray.on(new byte[denseBytes()]);
+    dense = PacketArray.unchecked(regs, WIDTH, 0, m);
+    for (int k = 0; k < sparseLen; k++) addEntry(sparse[k]);
+    sparse = null;
+    buf = null;
+    sparseLen = bufLen = 0;
+  }
+
+  //----------------------------------------------------------------------
+  /** Adds all the elements of {@code other} to this sketch.
+   * Both should have the same precision. */
+  public void merge(HyperLogLog other) {
+    if (other.p != p) throw new IllegalArgumentException(
+      "Cannot merge HyperLogLog sketches of precision " + other.p
+      + " into one of precision " + p);
+    if (other.regs == null) {
+      for (int k = 0; k < other.sparseLen + other.bufLen; k++) {
+        final int e = (k < other.sparseLen) ? other.sparse[k]
+          : other.buf[k - other.sparseLen];
+        if (regs == null) {
+          if (bufLen == buf.length) flush();
+          if (regs == null) {buf[bufLen++] = e; continue;}
+        }
+        addEntry(e);
+      }
+    } else {
+      toDense();
+      maxRegisters(other.regs);
+    }
+  }
+
+  /** Adds a sparse entry to the dense registers:
+   * its index bits beyond precision p are the first bits after it. */
+  private void addEntry(int e) {
+    final int sh = SPARSE_P - p, idx = e >>> WIDTH;
+    final int low = idx & ~(-1 << sh);
+    final int rho = (low != 0)
+      ? Integer.numberOfLeadingZeros(low) - (32 - sh) + 1
+      : sh + (e & ~(-1 << WIDTH));
+    final int i = idx >>> sh;
+    if (dense.get(i) < rho) dense.set(i, rho);
+  }
+
+  /** Register-wise max with {@code src}, a group of 8 registers
+   * (48 bits) at a time. */
+  private void maxRegisters(ByteArray src) {
+    final int bytes = denseBytes();
+    final int safe = bytes - 8;
+    int b = 0;
+    for (; b <= safe; b += GROUP_BYTES) {
+      final long x = regs.get64(b);
+      regs.set64(b, x & ~GROUP_MASK | max8(x, src.get64(b)));
+    }
+    for (; b < bytes; b += GROUP_BYTES) {
+      final long x = regs.pget64(b);
+      regs.cset64(b, x & ~GROUP_MASK | max8(x, src.pget64(b)));
+    }
+  }
+
+  /** Max of each of the 8 registers in the low 48 bits of x and y. */
+  private static long max8(long x, long y) {
+    return max4(x & EVEN, y & EVEN)
+      | max4(x >>> WIDTH & EVEN, y >>> WIDTH & EVEN) << WIDTH;
+  }
+
+  /** Max of the 4 registers of x and y at the positions of EVEN;
+   * the 6 free bits above each one absorb the borrows. */
+  private static long max4(long x, long y) {
+    final long ge = ((x | GUARD) - y) & GUARD;
+    final long m = (ge >>> WIDTH) * 0x3F;
+    return x & m | y & ~m;
+  }
+
+  //----------------------------------------------------------------------
+  /** Estimated number of distinct elements added. */
+  public long cardinality() {
+    if (regs == null) {
+      flush();
+      if (regs == null) {
+        final double ms = 1 << SPARSE_P;
+        return Math.round(ms * Math.log(ms / (ms - sparseLen)));
+      }
+    }
+    final int q = 64 - p;
+    final int[] c = new int[q + 2];
+    final int[] vs = new int[m];
+    dense.get(0, vs, 0, m);
+    for (final int v: vs) c[v]++;
+    double z = m * tau(1 - (double) c[q+1] / m);
+    for (int k = q; k >= 1; k--) z = 0.5 * (z + c[k]);
+    z += m * sigma((double) c[0] / m);
+    return Math.round(m / (2 * Math.log(2)) * m / z);
+  }
+
+  private static double sigma(double x) {
+    if (x == 1) return Double.POSITIVE_INFINITY;
+    double y = 1, z = x, prev;
+    do {
+      x *= x;
+      prev = z;
+      z += x * y;
+      y += y;
+    } while (z != prev);
+    return z;
+  }
+
+  private static double tau(double x) {
+    if (x == 0 || x == 1) return 0;
+    double y = 1, z = 1 - x, prev;
+    do {
+      x = Math.sqrt(x);
+      prev = z;
+      y *= 0.5;
+      z -= (1 - x) * (1 - x) * y;
+    } while (z != prev);
+    return z / 3;
+  }
+
+  //----------------------------------------------------------------------
+  public int serializedSize() {
+    flush();
+    return HEADER + ((regs == null) ? 4 * sparseLen : denseBytes());
+  }
+
+  /** Writes this sketch to {@code trg} starting at {@code off},
+   * returning the number of bytes written. */
+  public int serialize(ByteArray trg, int off) {
+    final int size = serializedSize();
+    if (trg.size() - off < size) throw new IllegalArgumentException(
+      "Serializing a HyperLogLog sketch needs " + size
+      + " bytes, but only " + (trg.size() - off) + " are available at "
+      + off);
+    trg.set32(off, MAGIC);
+    trg.set(off+4, (byte) p);
+    trg.set(off+5, (byte) ((regs == null) ? SPARSE : 0));
+    trg.set16(off+6, (short) 0);
+    trg.set32(off+8, (regs == null) ? sparseLen : m);
+    if (regs == null) {
+      for (int i = 0; i < sparseLen; i++) {
+        trg.set32(off + HEADER + 4*i, sparse[i]);
+      }
+    } else {
+      regs.copyTo(0, trg, off + HEADER, denseBytes());
+    }
+    return size;
+  }
+}
@@ -0,0 +1,264 @@
+package org.seismotech.ground.mem;
+
+import java.util.Objects;
+
+/**
+ * The long indexed sibling of {@link ByteArray},
+ * for memory regions beyond the 2 GiB limit of int indexes.
+ * Accessors have the same semantics that their {@link ByteArray}
+ * counterparts, but take long indexes.
+ * Only the short names (as {@code get64} or {@code cset64}) are provided.
+ *
+ * <p>Structures indexed with ints (as {@link BitArray} or
+ * {@link PacketArray}) can be placed on a region of a LongByteArray
+ * through {@link #byteArray(long,long)}.
+ */
+public interface LongByteArray {
+
+  long size();
+
+  LongByteArray subarray(long init, long end);
+
+  default LongByteArray subarrayClamped(long init, long end) {
+    final long effinit = Math.min(Math.max(0, init), size());
+    final long effend = Math.min(Math.max(effinit, end), size());
+    return subarray(effinit, effend);
+  }
+
+  /** A ByteArray view of the region [{@code init}, {@code end}),
+   * which should be less than 2 GiB long. */
+  ByteArray byteArray(long init, long end);
+
+  byte get(long i);
+  short get16(long i);
+  int get32(long i);
+  long get64(long i);
+
+  void set(long i, byte v);
+  void set16(long i, short v);
+  void set32(long i, int v);
+  void set64(long i, long v);
+
+  short pget16(long i);
+  int pget32(long i);
+  long pget64(long i);
+
+  void cset16(long i, short v);
+  void cset32(long i, int v);
+  void cset64(long i, long v);
+
+  default int get8u(long i) {return Bits.ubyte(get(i));}
+
+  default void clear() {clear(0, size());}
+
+  void clear(long init, long end);
+
+  default int get(long i, byte[] trg) {return get(i, trg, 0, trg.length);}
+
+  int get(long i, byte[] trg, int off, int len);
+
+  default int set(long i, byte[] src) {return set(i, src, 0, src.length);}
+
+  int set(long i, byte[] src, int off, int len);
+
+  //----------------------------------------------------------------------
+  /**
+   * An unsafe implementation of LongByteArray on raw memory.
+   * See {@link ByteArray.UnsafeOnMemory} for the meaning of
+   * {@code owner}, {@code base} and {@code addr}.
+   */
+  public static class UnsafeOnMemory implements LongByteArray {
+    protected final Object owner;
+    protected final Object base;
+    protected final long addr;
+    protected final long len;
+
+    public UnsafeOnMemory(Object owner, Object base, long addr, long len) {
+      this.owner = owner;
+      this.base = base;
+      this.addr = addr;
+      this.len = Math.max(0, len);
+    }
+
+    @Override
+    public long size() {return len;}
+
+    @Override
+    public LongByteArray subarray(long init, long end) {
+      return new UnsafeOnMemory(owner, base, addr+init, end-init);
+    }
+
+    @Override
+    public ByteArray byteArray(long init, long end) {
+      final long n = end - init;
+      if (n < 0 || Integer.MAX_VALUE < n) tooBigRegion(init, end);
+      return new ByteArray.UnsafeOnMemory(owner, base, addr+init, (int) n);
+    }
+
+    private static void tooBigRegion(long init, long end) {
+      throw new IllegalArgumentException(
+        "Cannot build a ByteArray on region [" + init + "," + end
+        + "): its size should be in the range [0," + Integer.MAX_VALUE + "]");
+    }
+
+    @Override public byte get(long i) {
+      return Unsafes.getByte(base, addr+i);
+    }
+    @Override public short get16(long i) {return Unsafes.le16(base, addr+i);}
+    @Override public int get32(long i) {return Unsafes.le32(base, addr+i);}
+    @Override public long get64(long i) {return Unsafes.le64(base, addr+i);}
+
+    @Override public void set(long i, byte v) {
+      Unsafes.putByte(base, addr+i, v);
+    }
+    @Override public void set16(long i, short v) {
+      Unsafes.le16(base, addr+i, v);
+    }
+    @Override public void set32(long i, int v) {
+      Unsafes.le32(base, addr+i, v);
+    }
+    @Override public void set64(long i, long v) {
+      Unsafes.le64(base, addr+i, v);
+    }
+
+    @Override public short pget16(long i) {
+      return (len-i >= 2) ? get16(i) : (short) get8u(i);
+    }
+
+    @Override public int pget32(long i) {
+      final long tail = len-i;
+      return (tail >= 4) ? get32(i)
+        : (int) Unsafes.leTail(base, addr+i, (int) tail);
+    }
+
+    @Override public long pget64(long i) {
+      final long tail = len-i;
+      return (tail >= 8) ? get64(i)
+        : Unsafes.leTail(base, addr+i, (int) tail);
+    }
+
+    @Override public void cset16(long i, short v) {
+      if (len-i >= 2) set16(i, v);
+      else set(i, (byte) v);
+    }
+
+    @Override public void cset32(long i, int v) {
+      final long tail = len-i;
+      if (tail >= 4) set32(i, v);
+      else Unsafes.leTail(base, addr+i, (int) tail, v);
+    }
+
+    @Override public void cset64(long i, long v) {
+      final long tail = len-i;
+      if (tail >= 8) set64(i, v);
+      else Unsafes.leTail(base, addr+i, (int) tail, v);
+    }
+
+    @Override
+    public void clear(long init, long end) {
+      if (init < end) {
+        Unsafes.setMemory(base, addr+init, end-init, (byte) 0);
+      }
+    }
+
+    @Override
+    public int get(long i, byte[] trg, int off, int len) {
+      final int tocopy = (int) Math.min(this.len-i, len);
+      if (tocopy <= 0) return 0;
+      Unsafes.copyMemory(
+        base, addr+i, trg, Unsafes.BYTES_BASE+off, tocopy);
+      return tocopy;
+    }
+
+    @Override
+    public int set(long i, byte[] src, int off, int len) {
+      final int tocopy = (int) Math.min(this.len-i, len);
+      if (tocopy <= 0) return 0;
+      Unsafes.copyMemory(
+        src, Unsafes.BYTES_BASE+off, base, addr+i, tocopy);
+      return tocopy;
+    }
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * A checked implementation of LongByteArray on a block of an
+   * {@link OffHeapArena}.
+   * Any access out of {@code [0,size())} throws
+   * {@code IndexOutOfBoundsException}
+   * and any access after closing the arena throws
+   * {@code IllegalStateException}.
+   * Closing the arena while other threads access it is not detected.
+   */
+  public static class CheckedOnMemory extends UnsafeOnMemory {
+    private final OffHeapArena arena;
+
+    public CheckedOnMemory(OffHeapArena arena, long addr, long len) {
+      super(arena, null, addr, len);
+      this.arena = arena;
+    }
+
+    @Override
+    public LongByteArray subarray(long init, long end) {
+      Objects.checkFromToIndex(init, end, len);
+      return new CheckedOnMemory(arena, addr+init, end-init);
+    }
+
+    @Override
+    public ByteArray byteArray(long init, long end) {
+      final long n = end - init;
+      if (n < 0 || Integer.MAX_VALUE < n) {
+        UnsafeOnMemory.tooBigRegion(init, end);
+      }
+      Objects.checkFromToIndex(init, end, len);
+      return new ByteArray.CheckedOnMemory(arena, addr+init, (int) n);
+    }
+
+    /** {@code i}, if {@code [i,i+n)} is accessible */
+    private long at(long i, long n) {
+      arena.checkAlive();
+      return Objects.checkFromIndexSize(i, n, len);
+    }
+
+    @Override public byte get(long i) {return super.get(at(i, 1));}
+    @Override public short get16(long i) {return super.get16(at(i, 2));}
+    @Override public int get32(long i) {return super.get32(at(i, 4));}
+    @Override public long get64(long i) {return super.get64(at(i, 8));}
+
+    @Override public void set(long i, byte v) {super.set(at(i, 1), v);}
+    @Override public void set16(long i, short v) {super.set16(at(i, 2), v);}
+    @Override public void set32(long i, int v) {super.set32(at(i, 4), v);}
+    @Override public void set64(long i, long v) {super.set64(at(i, 8), v);}
+
+    @Override public short pget16(long i) {return super.pget16(at(i, 1));}
+    @Override public int pget32(long i) {return super.pget32(at(i, 1));}
+    @Override public long pget64(long i) {return super.pget64(at(i, 1));}
+
+    @Override public void cset16(long i, short v) {
+      super.cset16(at(i, 1), v);
+    }
+    @Override public void cset32(long i, int v) {super.cset32(at(i, 1), v);}
+    @Override public void cset64(long i, long v) {super.cset64(at(i, 1), v);}
+
+    @Override
+    public void clear(long init, long end) {
+      arena.checkAlive();
+      Objects.checkFromToIndex(init, end, len);
+      super.clear(init, end);
+    }
+
+    @Override
+    public int get(long i, byte[] trg, int off, int len) {
+      at(i, 0);
+      Objects.checkFromIndexSize(off, len, trg.length);
+      return super.get(i, trg, off, len);
+    }
+
+    @Override
+    public int set(long i, byte[] src, int off, int len) {
+      at(i, 0);
+      Objects.checkFromIndexSize(off, len, src.length);
+      return super.set(i, src, off, len);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.seismotech.ground.mem;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file (or a region of it) mapped in memory and accessed as a ByteArray.
+ * Mapping is almost instantaneous, whatever the file size;
+ * pages are loaded lazily by the OS on first access,
+ * and shared through the page cache with other processes mapping the file.
+ * The intended usage pattern is
+ * <tt><pre>
+ * try (MappedFile mf = MappedFile.open(path, MappedFile.Mode.READ_ONLY)) {
+ *   final BitArray bits = mf.byteArray().bitArray();
+ *   //Use bits
+ * }
+ * </pre></tt>
+ *
+ * <p>Closing a MappedFile drops its mapping, that is released by the GC
+ * when its ByteArrays are unreachable too;
+ * therefore, they can still be used safely.
+ * {@link #unsafeUnmap()} releases the mapping immediately, at the cost
+ * of undefined behaviour on any later access to its ByteArrays.
+ * A mapping is limited to 2 GiB; bigger files should be mapped by regions.
+ */
+public class MappedFile implements AutoCloseable {
+
+  public static enum Mode {
+    READ_ONLY(FileChannel.MapMode.READ_ONLY,
+      StandardOpenOption.READ),
+    READ_WRITE(FileChannel.MapMode.READ_WRITE,
+      StandardOpenOption.READ, StandardOpenOption.WRITE,
+      StandardOpenOption.CREATE);
+
+    private final FileChannel.MapMode mapMode;
+    private final StandardOpenOption[] openOptions;
+
+    Mode(FileChannel.MapMode mapMode, StandardOpenOption... openOptions) {
+      this.mapMode = mapMode;
+      this.openOptions = openOptions;
+    }
+  }
+
+  private MappedByteBuffer buffer;
+  private final int size;
+  private final Mode mode;
+  private boolean closed;
+
+  private MappedFile(MappedByteBuffer buffer, Mode mode) {
+    this.buffer = buffer;
+    this.size = buffer.capacity();
+    this.mode = mode;
+    this.closed = false;
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Maps the whole file at {@code path}. */
+  public static MappedFile open(Path path, Mode mode)
+  throws IOException {
+    return open(path, mode, 0, -1);
+  }
+
+  /**
+   * Maps {@code size} bytes of the file at {@code path}
+   * starting at {@code position}.
+   * If {@code size} is negative, the region extends up to the end of the file.
+   * In {@link Mode#READ_WRITE} mode, the file is created if it doesn't exist,
+   * and grown if it is shorter than {@code position+size}.
+   */
+  public static MappedFile open(Path path, Mode mode, long position, long size)
+  throws IOException {
+    try (final FileChannel ch = FileChannel.open(path, mode.openOptions)) {
+      final long effsize = (size < 0) ? ch.size() - position : size;
+      if (effsize < 0 || Integer.MAX_VALUE < effsize) {
+        throw new IllegalArgumentException(
+          "Cannot map region [" + position + "," + (position+effsize)
+          + ") of " + path + ": its size should be in the range [0,"
+          + Integer.MAX_VALUE + "]");
+      }
+      return new MappedFile(ch.map(mode.mapMode, position, effsize), mode);
+    }
+  }
+
+  public Mode mode() {return mode;}
+
+  public int size() {return size;}
+
+  /**
+   * A ByteArray on the whole mapping, of the default flavor;
+   * {@link ByteArray.Flavor#FAST} instead of
+   * {@link ByteArray.Flavor#UNSAFE} on a {@link Mode#READ_ONLY} mapping.
+   */
+  public ByteArray byteArray() {
+    final ByteArray.Flavor flavor = ByteArray.Flavor.DEFAULT;
+    return byteArray(
+      (flavor == ByteArray.Flavor.UNSAFE && mode == Mode.READ_ONLY)
+      ? ByteArray.Flavor.FAST : flavor);
+  }
+
+  /**
+   * A ByteArray on the whole mapping, of the given {@code flavor}.
+   * A {@link Mode#READ_ONLY} mapping cannot have
+   * {@link ByteArray.Flavor#UNSAFE} ByteArrays,
+   * because a write on them would crash the JVM.
+   */
+  public synchronized ByteArray byteArray(ByteArray.Flavor flavor) {
+    checkOpen();
+    if (flavor == ByteArray.Flavor.UNSAFE && mode == Mode.READ_ONLY) {
+      throw new IllegalArgumentException(
+        "Cannot build an unsafe ByteArray on a read only mapping");
+    }
+    return flavor.on(buffer, 0, size());
+  }
+
+  /**
+   * Loads the whole mapping in physical memory, as far as possible,
+   * to avoid page faults on later access.
+   */
+  public synchronized MappedFile preload() {
+    checkOpen();
+    buffer.load();
+    return this;
+  }
+
+  /** Whether the whole mapping is likely resident in physical memory. */
+  public synchronized boolean isLoaded() {
+    checkOpen();
+    return buffer.isLoaded();
+  }
+
+  /** Writes changes back to the storage device. */
+  public synchronized void force() {
+    checkOpen();
+    if (mode == Mode.READ_WRITE) buffer.force();
+  }
+
+  /** Writes changes in [{@code init}, {@code end}) back to the storage device.
+   */
+  public synchronized void force(int init, int end) {
+    checkOpen();
+    if (mode == Mode.READ_WRITE) buffer.force(init, end - init);
+  }
+
+  private void checkOpen() {
+    if (closed) throw new IllegalStateException(
+      "MappedFile is already closed");
+  }
+
+  /** Drops the mapping, that is unmapped by the GC when no ByteArray
+   * of this file is reachable. Changes are not forced. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    buffer = null;
+  }
+
+  /**
+   * Closes this file and unmaps it immediately, without waiting for
+   * the GC. Changes are not forced.
+   * Any access afterward to the ByteArrays of this file,
+   * whatever their flavor, has undefined behaviour,
+   * and could crash the JVM.
+   */
+  public synchronized void unsafeUnmap() {
+    if (closed) return;
+    final MappedByteBuffer mapped = buffer;
+    close();
+    Unsafes.free(mapped);
+  }
+}
@@ -0,0 +1,99 @@
+package org.seismotech.ground.mem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An owner of off-heap memory blocks, all of them released together
+ * when the arena is closed.
+ * Memory is outside the Java heap, therefore it is never scanned nor moved
+ * by the GC, and its size is not limited by int indexes.
+ * The intended usage pattern is
+ * <tt><pre>
+ * try (OffHeapArena arena = new OffHeapArena()) {
+ *   final LongByteArray mem = arena.allocate(size);
+ *   //Use mem and views on it
+ * }
+ * </pre></tt>
+ *
+ * <p>Blocks are accessed with <i>checked</i> implementations,
+ * that reject out of range access with
+ * {@code IndexOutOfBoundsException}
+ * and any access after closing the arena with
+ * {@code IllegalStateException}.
+ * Closing the arena while other threads access its blocks is not detected.
+ * Only an arena built with {@link ByteArray.Flavor#UNSAFE}
+ * (explicitly or through {@link ByteArray.Flavor#PROPERTY})
+ * provides <i>unsafe</i> blocks, without any check;
+ * then, any access out of a block or after closing its arena
+ * has undefined behaviour, and could crash the JVM.
+ * Allocation and closing are thread safe.
+ */
+public class OffHeapArena implements AutoCloseable {
+
+  private final boolean unsafe;
+  private final List<Long> blocks;
+  private long allocated;
+  private volatile boolean closed;
+
+  /** An arena honoring {@link ByteArray.Flavor#DEFAULT}. */
+  public OffHeapArena() {
+    this(ByteArray.Flavor.DEFAULT);
+  }
+
+  /** An arena with unsafe blocks for {@link ByteArray.Flavor#UNSAFE}
+   * and checked blocks for any other flavor. */
+  public OffHeapArena(ByteArray.Flavor flavor) {
+    this.unsafe = flavor == ByteArray.Flavor.UNSAFE;
+    this.blocks = new ArrayList<>();
+    this.allocated = 0;
+    this.closed = false;
+  }
+
+  /** Total bytes allocated by this arena and not released yet. */
+  public synchronized long allocated() {return allocated;}
+
+  public boolean isAlive() {return !closed;}
+
+  void checkAlive() {
+    if (closed) throw new IllegalStateException(
+      "Access to memory of an already closed arena");
+  }
+
+  /** Allocates a block of {@code size} bytes, initialized to 0.
+   * The block is aligned to 8 bytes at least. */
+  public LongByteArray allocate(long size) {
+    if (size < 0) throw new IllegalArgumentException(
+      "Cannot allocate a block of negative size " + size);
+    final long addr;
+    synchronized (this) {
+      if (closed) throw new IllegalStateException(
+        "Cannot allocate from an already closed arena");
+      addr = Unsafes.allocateMemory(Math.max(1, size));
+      blocks.add(addr);
+      allocated += size;
+      //Inside the lock, so that a concurrent close cannot free it first
+      Unsafes.setMemory(addr, size, (byte) 0);
+    }
+    return unsafe
+      ? new LongByteArray.UnsafeOnMemory(this, null, addr, size)
+      : new LongByteArray.CheckedOnMemory(this, addr, size);
+  }
+
+  /** Allocates a block of {@code size} bytes, initialized to 0,
+   * and returns a ByteArray on it. */
+  public ByteArray allocateByteArray(int size) {
+    return allocate(size).byteArray(0, size);
+  }
+
+  /** Releases all the blocks allocated by this arena.
+   * Closing an already closed arena has no effect. */
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    for (final long addr: blocks) Unsafes.freeMemory(addr);
+    blocks.clear();
+    allocated = 0;
+  }
+}
@@ -1,5 +1,8 @@
 package org.seismotech.ground.mem;
 
+import org.seismotech.ground.cursor.CursorOf;
+import org.seismotech.ground.math.DMath;
+import org.seismotech.ground.math.URecDiv;
 import org.seismotech.ground.util.Bounds;
 
 /**
@@ -24,6 +27,45 @@ public interface PacketArray {
   /** Or-combines the contents at position {@code i} with {@code v}. */
   void orblend(int i, long v);
 
+  /** Bulk {@link #get(int)}:
+   * {@code dst[off+k] = get(from+k)}, for {@code k} in [0,n). */
+  default void get(int from, long[] dst, int off, int n) {
+    for (int k = 0; k < n; k++) dst[off+k] = get(from+k);
+  }
+
+  /** Similar to {@link #get(int,long[],int,int)},
+   * for widths up to 32; wider entries are truncated. */
+  default void get(int from, int[] dst, int off, int n) {
+    for (int k = 0; k < n; k++) dst[off+k] = (int) get(from+k);
+  }
+
+  /** Bulk {@link #set(int,long)}:
+   * {@code set(from+k, src[off+k])}, for {@code k} in [0,n). */
+  default void set(int from, long[] src, int off, int n) {
+    for (int k = 0; k < n; k++) set(from+k, src[off+k]);
+  }
+
+  /** Similar to {@link #set(int,long[],int,int)},
+   * with values of {@code src} taken as unsigned. */
+  default void set(int from, int[] src, int off, int n) {
+    for (int k = 0; k < n; k++) set(from+k, Bits.uint(src[off+k]));
+  }
+
+  /** Cursor on the entries in [{@code init}, {@code end}), in order. */
+  default CursorOf.Longs longs(int init, int end) {
+    return new LongsByIndex(this, init, end);
+  }
+
+  /** Similar to {@link #longs(int,int)},
+   * for widths up to 32; wider entries are truncated. */
+  default CursorOf.Ints ints(int init, int end) {
+    return new IntsByIndex(this, init, end);
+  }
+
+  /** A writer of consecutive entries from position {@code init}.
+   * It should be flushed (see {@link Writer#flush()}) after the last put. */
+  default Writer writer(int init) {return new WriterByIndex(this, init);}
+
   /** Set all values to 0. */
   default void clear() {clear(0,size());}
 
@@ -75,12 +117,230 @@ public interface PacketArray {
       : new FastOnByteArray64(store, width, bitoff, entries);
   }
 
+  /** Bytes of the store of a {@link Concurrent} PacketArray
+   * of {@code entries} entries of width {@code width}. */
+  static int concurrentSize(int width, int entries) {
+    if (width <= 0 || MAX_WIDTH_64 < width) illegalWidth(width);
+    return 8 * DMath.cdiv(entries, 64 / width);
+  }
+
+  /** A thread-safe PacketArray of {@code entries} entries of width
+   * {@code width} on {@code store}; see {@link Concurrent}. */
+  static Concurrent concurrent(ByteArray store, int width, int entries) {
+    final int minsize = concurrentSize(width, entries);
+    if (store.size() < minsize) throw new IllegalArgumentException(
+      "Store of size " + store.size() + " is not big enough to support a"
+      + " concurrent PacketArray of " + entries + " entries of width "
+      + width + "; at least " + minsize + " bytes are needed");
+    return new Concurrent(store, width, 0, entries);
+  }
+
   private static PacketArray illegalWidth(int width) {
       throw new IllegalArgumentException(
         "Illegal/unsupported width " + width
         + ": should be in the range [1," + MAX_WIDTH_64 + "]");
   }
 
+  //----------------------------------------------------------------------
+  /**
+   * Sequential writer of a PacketArray.
+   * Entries are set in consecutive positions, and values are clamped
+   * as {@link PacketArray#set(int,long)} does.
+   * The writer could buffer entries;
+   * {@link #flush()} makes them visible in the array,
+   * and writing can go on after it.
+   */
+  public static interface Writer {
+    /** Sets the entry at {@link #position()} to {@code v},
+     * and advances the position. */
+    void put(long v);
+
+    /** Position of the next entry to write. */
+    int position();
+
+    void flush();
+  }
+
+  public static class LongsByIndex implements CursorOf.Longs {
+    private final PacketArray arr;
+    private final int end;
+    private int i;
+
+    public LongsByIndex(PacketArray arr, int init, int end) {
+      this.arr = arr;
+      this.end = end;
+      this.i = init-1;
+    }
+
+    @Override public boolean advance() {return ++i < end;}
+
+    @Override public long longValue() {return arr.get(i);}
+  }
+
+  public static class IntsByIndex implements CursorOf.Ints {
+    private final PacketArray arr;
+    private final int end;
+    private int i;
+
+    public IntsByIndex(PacketArray arr, int init, int end) {
+      this.arr = arr;
+      this.end = end;
+      this.i = init-1;
+    }
+
+    @Override public boolean advance() {return ++i < end;}
+
+    @Override public int intValue() {return (int) arr.get(i);}
+  }
+
+  public static class WriterByIndex implements Writer {
+    private final PacketArray arr;
+    private int i;
+
+    public WriterByIndex(PacketArray arr, int init) {
+      this.arr = arr;
+      this.i = init;
+    }
+
+    @Override public void put(long v) {arr.set(i++, v);}
+
+    @Override public int position() {return i;}
+
+    @Override public void flush() {}
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Sequential decoder of entries of width {@code w} from a ByteArray.
+   * It keeps the undecoded bits of the current 64 bits word in a buffer,
+   * and reads the next word only when the buffer runs out;
+   * that is a read per 64 bits, and no multiplication per entry.
+   */
+  public static abstract class Decoder {
+    private final ByteArray st;
+    private final int width;
+    private final long mask;
+    private int remaining;
+    /** Byte of the next word to read */
+    private int next;
+    /** Undecoded bits, in the lowest {@link #avail} positions */
+    private long buf;
+    private int avail;
+
+    protected Decoder(ByteArray st, int width, int bitpos, int entries) {
+      this.st = st;
+      this.width = width;
+      this.mask = ~(-1L << width);
+      this.remaining = entries;
+      final int b = bitpos >>> 3, s = bitpos & 7;
+      if (entries > 0) {
+        this.buf = st.pget64(b) >>> s;
+        this.avail = 64 - s;
+      }
+      this.next = b + 8;
+    }
+
+    protected boolean hasNext() {return remaining > 0;}
+
+    protected long decode() {
+      remaining--;
+      if (width <= avail) {
+        final long v = buf & mask;
+        buf >>>= width;
+        avail -= width;
+        return v;
+      }
+      final long w = st.pget64(next);
+      next += 8;
+      final long v = (buf | w << avail) & mask;
+      final int used = width - avail;
+      buf = w >>> used;
+      avail = 64 - used;
+      return v;
+    }
+  }
+
+  public static class LongsDecoder extends Decoder implements CursorOf.Longs {
+    private long v;
+
+    public LongsDecoder(ByteArray st, int width, int bitpos, int entries) {
+      super(st, width, bitpos, entries);
+    }
+
+    @Override public boolean advance() {
+      if (!hasNext()) return false;
+      v = decode();
+      return true;
+    }
+
+    @Override public long longValue() {return v;}
+  }
+
+  public static class IntsDecoder extends Decoder implements CursorOf.Ints {
+    private int v;
+
+    public IntsDecoder(ByteArray st, int width, int bitpos, int entries) {
+      super(st, width, bitpos, entries);
+    }
+
+    @Override public boolean advance() {
+      if (!hasNext()) return false;
+      v = (int) decode();
+      return true;
+    }
+
+    @Override public int intValue() {return v;}
+  }
+
+  /**
+   * Sequential encoder of entries of width {@code w} into a ByteArray.
+   * Entries are accumulated in a 64 bits buffer,
+   * that is written once it is full;
+   * bits of the store before the first entry are preserved,
+   * and after the last one, only on {@link #flush()}.
+   */
+  public static class Encoder implements Writer {
+    private final ByteArray st;
+    private final int width;
+    private final long mask;
+    private int pos;
+    /** Byte of the word being filled */
+    private int b;
+    private long buf;
+    private int filled;
+
+    public Encoder(ByteArray st, int width, int bitpos, int init) {
+      this.st = st;
+      this.width = width;
+      this.mask = ~(-1L << width);
+      this.pos = init;
+      this.b = bitpos >>> 3;
+      this.filled = bitpos & 7;
+      this.buf = st.pget64(b) & ~(-1L << filled);
+    }
+
+    @Override public void put(long v) {
+      pos++;
+      final long x = v & mask;
+      buf |= x << filled;
+      filled += width;
+      if (filled >= 64) {
+        st.cset64(b, buf);
+        b += 8;
+        filled -= 64;
+        buf = (filled == 0) ? 0 : x >>> (width - filled);
+      }
+    }
+
+    @Override public int position() {return pos;}
+
+    @Override public void flush() {
+      if (filled == 0) return;
+      final long m = -1L >>> (64 - filled);
+      st.cset64(b, st.pget64(b) & ~m | buf & m);
+    }
+  }
+
   //----------------------------------------------------------------------
   public static abstract class OnByteArray implements PacketArray {
     protected final ByteArray st;
@@ -103,6 +363,53 @@ public interface PacketArray {
       st.clear(block8(init), shift8(init), block8(end), shift8(end));
     }
 
+    //Whole blocks of 64 entries are decoded by PacketCodec;
+    //the remaining tail entry by entry.
+
+    @Override public void get(int from, long[] dst, int off, int n) {
+      final int blocks = n / PacketCodec.BLOCK;
+      if (blocks > 0) {
+        PacketCodec.unpack(width, st, block8(from), shift8(from),
+          blocks, dst, off);
+      }
+      for (int k = blocks * PacketCodec.BLOCK; k < n; k++) {
+        dst[off+k] = get(from+k);
+      }
+    }
+
+    @Override public void get(int from, int[] dst, int off, int n) {
+      final int blocks = (width <= 32) ? n / PacketCodec.BLOCK : 0;
+      if (blocks > 0) {
+        PacketCodec.unpack(width, st, block8(from), shift8(from),
+          blocks, dst, off);
+      }
+      for (int k = blocks * PacketCodec.BLOCK; k < n; k++) {
+        dst[off+k] = (int) get(from+k);
+      }
+    }
+
+    @Override public void set(int from, long[] src, int off, int n) {
+      final int blocks = n / PacketCodec.BLOCK;
+      if (blocks > 0) {
+        PacketCodec.pack(width, src, off, st, block8(from), shift8(from),
+          blocks);
+      }
+      for (int k = blocks * PacketCodec.BLOCK; k < n; k++) {
+        set(from+k, src[off+k]);
+      }
+    }
+
+    @Override public void set(int from, int[] src, int off, int n) {
+      final int blocks = (width <= 32) ? n / PacketCodec.BLOCK : 0;
+      if (blocks > 0) {
+        PacketCodec.pack(width, src, off, st, block8(from), shift8(from),
+          blocks);
+      }
+      for (int k = blocks * PacketCodec.BLOCK; k < n; k++) {
+        set(from+k, Bits.uint(src[off+k]));
+      }
+    }
+
     @Override
     public PacketArray subarray(int init, int end) {
       return instance(st, width, off + width*init, end-init);
@@ -111,6 +418,18 @@ public interface PacketArray {
     protected abstract PacketArray instance(
       ByteArray st, int width, int off, int len);
 
+    @Override public CursorOf.Longs longs(int init, int end) {
+      return new LongsDecoder(st, width, off + init*width, end-init);
+    }
+
+    @Override public CursorOf.Ints ints(int init, int end) {
+      return new IntsDecoder(st, width, off + init*width, end-init);
+    }
+
+    @Override public Writer writer(int init) {
+      return new Encoder(st, width, off + init*width, init);
+    }
+
     protected int block8(int i) {return (off + i*width) >>> 3;}
     protected int shift8(int i) {return (off + i*width) & 7;}
   }
@@ -246,4 +565,121 @@ public interface PacketArray {
       st.set64(b, st.get64(b) | ((v & mask) << s));
     }
   }
+
+  //----------------------------------------------------------------------
+  /**
+   * A thread-safe PacketArray.
+   * Entries do not cross 64 bits words:
+   * each little endian word of the store holds {@code 64/width} entries,
+   * and its highest {@code 64 % width} bits are unused.
+   * So every update is a CAS loop on the single word containing the entry
+   * (or a {@code getAndBitwiseOr} for {@link #orblend(int,long)}),
+   * and reads have acquire semantics.
+   * The store should support atomic access and be 8 bytes aligned
+   * (see {@link ByteArray#compareAndSet64(int,long,long)}).
+   * Bulk operations, cursors and writers work entry by entry;
+   * each entry is atomic, but not the whole operation.
+   */
+  public static class Concurrent implements PacketArray {
+    private final ByteArray st;
+    private final int width;
+    private final long mask;
+    /** Entries per word */
+    private final int per;
+    private final URecDiv byPer;
+    /** Offset, in entries */
+    private final int off;
+    private final int len;
+
+    public Concurrent(ByteArray st, int width, int off, int len) {
+      this.st = st;
+      this.width = width;
+      this.mask = ~(-1L << width);
+      this.per = 64 / width;
+      this.byPer = new URecDiv(per);
+      this.off = off;
+      this.len = len;
+    }
+
+    @Override public int entryWidth() {return width;}
+
+    @Override public int size() {return len;}
+
+    /** Byte index of the word of entry {@code i}. */
+    private int word(int i) {return byPer.div(off+i) << 3;}
+
+    /** Shift of entry {@code i} in its word. */
+    private int shift(int i) {
+      final int p = off+i;
+      return (p - byPer.div(p) * per) * width;
+    }
+
+    @Override public long get(int i) {
+      return (st.get64Acquire(word(i)) >>> shift(i)) & mask;
+    }
+
+    @Override public void set(int i, long v) {
+      final int b = word(i), s = shift(i);
+      final long m = mask << s, bits = (v & mask) << s;
+      long w;
+      do {
+        w = st.get64Acquire(b);
+      } while (!st.compareAndSet64(b, w, w & ~m | bits));
+    }
+
+    @Override public void orblend(int i, long v) {
+      st.getAndBitwiseOr64(word(i), (v & mask) << shift(i));
+    }
+
+    /** Sets entry {@code i} to {@code update} if it is {@code expect}
+     * (both clamped to the width), returning whether it was set. */
+    public boolean compareAndSet(int i, long expect, long update) {
+      final int b = word(i), s = shift(i);
+      final long m = mask << s;
+      final long old = (expect & mask) << s, bits = (update & mask) << s;
+      for (;;) {
+        final long w = st.get64Acquire(b);
+        if ((w & m) != old) return false;
+        if (st.compareAndSet64(b, w, w & ~m | bits)) return true;
+      }
+    }
+
+    /** Sets entry {@code i} to {@code v} (clamped),
+     * returning its previous value. */
+    public long getAndSet(int i, long v) {
+      final int b = word(i), s = shift(i);
+      final long m = mask << s, bits = (v & mask) << s;
+      long w;
+      do {
+        w = st.get64Acquire(b);
+      } while (!st.compareAndSet64(b, w, w & ~m | bits));
+      return (w >>> s) & mask;
+    }
+
+    /** Adds {@code delta} to entry {@code i}, returning its previous value.
+     * The result saturates in [0, 2<sup>width</sup>-1]
+     * instead of wrapping around. */
+    public long getAndAdd(int i, long delta) {
+      final int b = word(i), s = shift(i);
+      final long m = mask << s;
+      for (;;) {
+        final long w = st.get64Acquire(b);
+        final long e = (w >>> s) & mask;
+        final long r = (delta >= 0)
+          ? ((delta >= mask - e) ? mask : e + delta)
+          : ((delta <= -e) ? 0 : e + delta);
+        if (r == e || st.compareAndSet64(b, w, w & ~m | r << s)) return e;
+      }
+    }
+
+    @Override public void clear(int init, int end) {
+      for (int i = init; i < end; i++) {
+        st.getAndBitwiseAnd64(word(i), ~(mask << shift(i)));
+      }
+    }
+
+    @Override public Concurrent subarray(int init, int end) {
+      return new Concurrent(st, width, off + init, end - init);
+    }
+  }
 }
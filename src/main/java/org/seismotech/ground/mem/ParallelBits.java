@@ -0,0 +1,213 @@
+package org.seismotech.ground.mem;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel versions of some {@link BitArray} operations,
+ * for arrays of many millions of bits.
+ * Ranges are split in chunks of {@value #CHUNK} bits
+ * (128 KiB, that fit in L2), and the pieces are processed
+ * with fork/join tasks, in the common pool or in the pool of the caller.
+ * Ranges shorter than {@value #THRESHOLD} bits are processed sequentially.
+ *
+ * <p>Updates on different chunks are done concurrently.
+ * A plain BitArray writes whole words of its store,
+ * so updated chunks are aligned to the 64 bits words of the store,
+ * wherever the BitArray starts in it;
+ * a {@link BitArray.Concurrent} needs no alignment.
+ * In any case, the first partial chunk is updated before the rest.
+ */
+public class ParallelBits {
+
+  /** Ranges with less bits are processed sequentially. */
+  public static final int THRESHOLD = 1 << 22;
+
+  /** Bits processed by a leaf task. */
+  public static final int CHUNK = 1 << 20;
+
+  private static int chunkCeil(int p) {return (p + CHUNK - 1) & -CHUNK;}
+
+  /** First position at or after {@code p} that is a chunk boundary
+   * of the store of {@code bits}, aligned to its words. */
+  private static int chunkCeil(BitArray bits, int p) {
+    final int phase = (bits instanceof BitArray.OnByteArray o)
+      ? o.storeOffset() & 63 : 0;
+    return chunkCeil(p + phase) - phase;
+  }
+
+  /** Split point of [lo,hi), a multiple of CHUNK bits after lo. */
+  private static int middle(int lo, int hi) {
+    return lo + chunkCeil((hi - lo) >>> 1);
+  }
+
+  private static boolean isLeaf(int lo, int hi) {
+    return hi - lo <= CHUNK;
+  }
+
+  //----------------------------------------------------------------------
+  public static int popcnt(BitArray bits) {
+    return popcnt(bits, 0, bits.size());
+  }
+
+  /** Parallel {@link BitArray#popcnt(int,int)}. */
+  public static int popcnt(BitArray bits, int init, int end) {
+    if (end - init < THRESHOLD) return bits.popcnt(init, end);
+    return new Popcnt(bits, init, end).invoke();
+  }
+
+  private static class Popcnt extends RecursiveTask<Integer> {
+    private final BitArray bits;
+    private final int lo, hi;
+
+    Popcnt(BitArray bits, int lo, int hi) {
+      this.bits = bits;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override protected Integer compute() {
+      if (isLeaf(lo, hi)) return bits.popcnt(lo, hi);
+      final int mid = middle(lo, hi);
+      final Popcnt right = new Popcnt(bits, mid, hi);
+      right.fork();
+      final int left = new Popcnt(bits, lo, mid).compute();
+      return left + right.join();
+    }
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Parallel {@link BitArray#next1(int,int)}.
+   * Chunks after an already found 1 are skipped,
+   * but chunks before it are always searched.
+   */
+  public static int next1(BitArray bits, int init, int end) {
+    if (end - init < THRESHOLD) return bits.next1(init, end);
+    final AtomicInteger found = new AtomicInteger(end);
+    new Next1(bits, init, end, found).invoke();
+    return found.get();
+  }
+
+  private static class Next1 extends RecursiveAction {
+    private final BitArray bits;
+    private final int lo, hi;
+    private final AtomicInteger found;
+
+    Next1(BitArray bits, int lo, int hi, AtomicInteger found) {
+      this.bits = bits;
+      this.lo = lo;
+      this.hi = hi;
+      this.found = found;
+    }
+
+    @Override protected void compute() {
+      if (found.get() <= lo) return;
+      if (isLeaf(lo, hi)) {
+        final int p = bits.next1(lo, hi);
+        if (p < hi) found.accumulateAndGet(p, Math::min);
+        return;
+      }
+      final int mid = middle(lo, hi);
+      invokeAll(
+        new Next1(bits, lo, mid, found), new Next1(bits, mid, hi, found));
+    }
+  }
+
+  //----------------------------------------------------------------------
+  public static void clear(BitArray bits) {clear(bits, 0, bits.size());}
+
+  /** Parallel {@link BitArray#clear(int,int)}. */
+  public static void clear(BitArray bits, int init, int end) {
+    if (end - init < THRESHOLD) {
+      bits.clear(init, end);
+      return;
+    }
+    final int head = chunkCeil(bits, init);
+    bits.clear(init, head);
+    new Clear(bits, head, end).invoke();
+  }
+
+  private static class Clear extends RecursiveAction {
+    private final BitArray bits;
+    private final int lo, hi;
+
+    Clear(BitArray bits, int lo, int hi) {
+      this.bits = bits;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override protected void compute() {
+      if (isLeaf(lo, hi)) {
+        bits.clear(lo, hi);
+        return;
+      }
+      final int mid = middle(lo, hi);
+      invokeAll(new Clear(bits, lo, mid), new Clear(bits, mid, hi));
+    }
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * Parallel {@link BitArray#combine(BitOp,int,BitArray,int,int)}.
+   * Chunks are aligned on the store of the target;
+   * source and target ranges should not overlap.
+   */
+  public static void combine(BitOp op,
+      BitArray trg, int i, BitArray src, int j, int len) {
+    if (len < THRESHOLD) {
+      trg.combine(op, i, src, j, len);
+      return;
+    }
+    final int head = chunkCeil(trg, i) - i;
+    trg.combine(op, i, src, j, head);
+    new Combine(op, trg, i+head, src, j-i, i+len).invoke();
+  }
+
+  public static void and(BitArray trg, int i, BitArray src, int j, int len) {
+    combine(BitOp.AND, trg, i, src, j, len);
+  }
+
+  public static void or(BitArray trg, int i, BitArray src, int j, int len) {
+    combine(BitOp.OR, trg, i, src, j, len);
+  }
+
+  public static void xor(BitArray trg, int i, BitArray src, int j, int len) {
+    combine(BitOp.XOR, trg, i, src, j, len);
+  }
+
+  public static void andNot(
+      BitArray trg, int i, BitArray src, int j, int len) {
+    combine(BitOp.ANDNOT, trg, i, src, j, len);
+  }
+
+  private static class Combine extends RecursiveAction {
+    private final BitOp op;
+    private final BitArray trg;
+    private final BitArray src;
+    /** Source position minus target position */
+    private final int delta;
+    private final int lo, hi;
+
+    Combine(BitOp op, BitArray trg, int lo, BitArray src, int delta, int hi) {
+      this.op = op;
+      this.trg = trg;
+      this.src = src;
+      this.delta = delta;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override protected void compute() {
+      if (isLeaf(lo, hi)) {
+        trg.combine(op, lo, src, lo+delta, hi-lo);
+        return;
+      }
+      final int mid = middle(lo, hi);
+      invokeAll(new Combine(op, trg, lo, src, delta, mid),
+        new Combine(op, trg, mid, src, delta, hi));
+    }
+  }
+}
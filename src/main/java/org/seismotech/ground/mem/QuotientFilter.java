@@ -0,0 +1,432 @@
+package org.seismotech.ground.mem;
+
+import org.seismotech.ground.cursor.CursorOf;
+import org.seismotech.ground.math.DMath;
+
+/**
+ * A quotient filter (Bender et al., "Don't thrash: how to cache your
+ * hash on flash"): an approximate membership structure that,
+ * unlike a Bloom filter, supports deletion and resizing.
+ *
+ * <p>Elements are given as 64 bits hashes, that should be well mixed.
+ * The high {@code q+r} bits of a hash are its fingerprint;
+ * its high {@code q} bits (the quotient) select one of {@code 2^q}
+ * slots, a range reduction with a shift,
+ * and its low {@code r} bits (the remainder) are stored.
+ * Remainders with the same quotient are kept sorted in a run of
+ * consecutive slots, shifted right if their slot is taken,
+ * so that every operation scans a few contiguous slots
+ * (the cluster of its quotient) instead of probing random positions.
+ * Each slot is a {@link PacketArray} entry of {@code r+3} bits:
+ * the remainder and the bits occupied (for the slot as a quotient),
+ * continuation and shifted (for the remainder in it).
+ *
+ * <p>The filter is exact on fingerprints:
+ * it has false positives (different hashes with the same fingerprint),
+ * but no false negatives.
+ * Removing a hash that was not added but shares the fingerprint
+ * of one that was, removes the latter.
+ *
+ * <p>Fingerprints are enumerated in order, so resizing
+ * ({@link #grow()}, that moves a bit from the remainder to the quotient)
+ * and {@link #addAllSorted(long[],int,int)} rebuild the filter with
+ * a linear merge of sorted fingerprints.
+ */
+public class QuotientFilter {
+
+  public static final int MAX_Q = 30;
+  public static final int MAX_R = PacketArray.MAX_WIDTH_64 - 3;
+  /** Max fraction of used slots. */
+  public static final double MAX_LOAD = 0.9;
+
+  private static final long OCCUPIED = 1;
+  private static final long CONTINUATION = 2;
+  private static final long SHIFTED = 4;
+  private static final int META = 3;
+
+  private int q;
+  private int r;
+  private int size;
+  private int mask;
+  private long rmask;
+  private int maxEntries;
+  private PacketArray slots;
+  private int entries;
+
+  /** An empty filter of {@code 2^q} slots with {@code r} bits
+   * remainders. */
+  public QuotientFilter(int q, int r) {
+    if (q < 1 || MAX_Q < q || r < 1 || MAX_R < r || 64 < q + r
+        || Integer.MAX_VALUE < (1L << q) * (r + META)) {
+      throw new IllegalArgumentException(
+        "Illegal quotient filter with " + q + " bits quotients and " + r
+        + " bits remainders: they should be in [1," + MAX_Q + "] and [1,"
+        + MAX_R + "], take at most 64 bits, and the slots at most 2^31"
+        + " bits");
+    }
+    init(q, r);
+  }
+
+  /** An empty filter for {@code n} elements
+   * with a false positive probability around {@code fpp}. */
+  public static QuotientFilter create(long n, double fpp) {
+    final int r = Math.max(1, (int) Math.ceil(-Math.log(fpp) / Math.log(2)));
+    final int q = Math.max(1,
+      DMath.clog2((long) Math.ceil(Math.max(1, n) / MAX_LOAD)));
+    return new QuotientFilter(q, Math.min(r, Math.min(MAX_R, 64 - q)));
+  }
+
+  private void init(int q, int r) {
+    this.q = q;
+    this.r = r;
+    this.size = 1 << q;
+    this.mask = size - 1;
+    this.rmask = ~(-1L << r);
+    this.maxEntries = maxEntries(q);
+    final int width = r + META;
+    this.slots = PacketArray.fast(
+      ByteArray.on(new byte[(int) ((size * (long) width + 7) / 8) + 8]),
+      width, 0, size);
+    this.entries = 0;
+  }
+
+  /** Takes the table of {@code o}. */
+  private void adopt(QuotientFilter o) {
+    q = o.q;
+    r = o.r;
+    size = o.size;
+    mask = o.mask;
+    rmask = o.rmask;
+    maxEntries = o.maxEntries;
+    slots = o.slots;
+    entries = o.entries;
+  }
+
+  public int quotientBits() {return q;}
+
+  public int remainderBits() {return r;}
+
+  /** Number of fingerprints in the filter. */
+  public int size() {return entries;}
+
+  /** Number of fingerprints the filter can hold before growing. */
+  public int capacity() {return maxEntries;}
+
+  public void clear() {
+    slots.clear();
+    entries = 0;
+  }
+
+  private long fingerprint(long h) {return h >>> -(q + r);}
+
+  //----------------------------------------------------------------------
+  // Slots
+
+  private int incr(int i) {return (i + 1) & mask;}
+  private int decr(int i) {return (i - 1) & mask;}
+
+  private static boolean isEmpty(long e) {return (e & 7) == 0;}
+  private static boolean isOccupied(long e) {return (e & OCCUPIED) != 0;}
+  private static boolean isContinuation(long e) {
+    return (e & CONTINUATION) != 0;
+  }
+  private static boolean isShifted(long e) {return (e & SHIFTED) != 0;}
+  private static boolean isClusterStart(long e) {
+    return (e & 7) == OCCUPIED;
+  }
+  private static boolean isRunStart(long e) {
+    return !isContinuation(e) && (e & (OCCUPIED | SHIFTED)) != 0;
+  }
+  private static long remainder(long e) {return e >>> META;}
+
+  /** Slot of the first remainder of the run of quotient {@code fq}
+   * (or where it should be, if there is no such run). */
+  private int runStart(int fq) {
+    int b = fq;
+    while (isShifted(slots.get(b))) b = decr(b);
+    //b is the cluster start; walk runs and occupied quotients together
+    int s = b;
+    while (b != fq) {
+      do s = incr(s); while (isContinuation(slots.get(s)));
+      do b = incr(b); while (!isOccupied(slots.get(b)));
+    }
+    return s;
+  }
+
+  /** Puts {@code e} in slot {@code s}, shifting the following slots
+   * up to the first empty one; occupied bits stay in place. */
+  private void insertAt(int s, long e) {
+    long curr = e;
+    boolean empty;
+    do {
+      long prev = slots.get(s);
+      empty = isEmpty(prev);
+      if (!empty) {
+        prev |= SHIFTED;
+        if (isOccupied(prev)) {
+          curr |= OCCUPIED;
+          prev &= ~OCCUPIED;
+        }
+      }
+      slots.set(s, curr);
+      curr = prev;
+      s = incr(s);
+    } while (!empty);
+  }
+
+  /** Removes the remainder in slot {@code s}, shifting left the rest
+   * of its cluster; {@code fq} is the quotient of the removed one. */
+  private void deleteAt(int s, int fq) {
+    long curr = slots.get(s);
+    int sp = incr(s);
+    final int orig = s;
+    for (;;) {
+      final long next = slots.get(sp);
+      final boolean currOccupied = isOccupied(curr);
+      if (isEmpty(next) || isClusterStart(next) || sp == orig) {
+        slots.set(s, 0);
+        return;
+      }
+      long updated = next;
+      if (isRunStart(next)) {
+        //Moving to the slot of its quotient: not shifted anymore
+        do fq = incr(fq); while (!isOccupied(slots.get(fq)));
+        if (currOccupied && fq == s) updated &= ~SHIFTED;
+      }
+      slots.set(s, currOccupied ? updated | OCCUPIED : updated & ~OCCUPIED);
+      s = sp;
+      sp = incr(sp);
+      curr = next;
+    }
+  }
+
+  //----------------------------------------------------------------------
+  /** Adds {@code h}, growing the filter if it is full;
+   * returns whether its fingerprint was not already there. */
+  public boolean add(long h) {return addFingerprint(fingerprint(h));}
+
+  private boolean addFingerprint(long fp) {
+    if (entries >= maxEntries) grow();
+    final int fq = (int) (fp >>> r);
+    final long fr = fp & rmask;
+    final long tq = slots.get(fq);
+    long e = fr << META;
+    if (isEmpty(tq)) {
+      slots.set(fq, e | OCCUPIED);
+      entries++;
+      return true;
+    }
+    if (!isOccupied(tq)) slots.set(fq, tq | OCCUPIED);
+    final int start = runStart(fq);
+    int s = start;
+    if (isOccupied(tq)) {
+      //Find the place of fr in the sorted run
+      do {
+        final long rem = remainder(slots.get(s));
+        if (rem == fr) return false;
+        if (rem > fr) break;
+        s = incr(s);
+      } while (isContinuation(slots.get(s)));
+      if (s == start) {
+        //New head of the run; the old one becomes a continuation
+        slots.set(start, slots.get(start) | CONTINUATION);
+      } else {
+        e |= CONTINUATION;
+      }
+    }
+    if (s != fq) e |= SHIFTED;
+    insertAt(s, e);
+    entries++;
+    return true;
+  }
+
+  /** Whether {@code h} could have been added;
+   * if {@code false}, it was certainly not added. */
+  public boolean mightContain(long h) {
+    final long fp = fingerprint(h);
+    final int fq = (int) (fp >>> r);
+    final long fr = fp & rmask;
+    if (!isOccupied(slots.get(fq))) return false;
+    int s = runStart(fq);
+    do {
+      final long rem = remainder(slots.get(s));
+      if (rem == fr) return true;
+      if (rem > fr) return false;
+      s = incr(s);
+    } while (isContinuation(slots.get(s)));
+    return false;
+  }
+
+  /** Removes the fingerprint of {@code h};
+   * returns whether it was in the filter. */
+  public boolean remove(long h) {
+    final long fp = fingerprint(h);
+    final int fq = (int) (fp >>> r);
+    final long fr = fp & rmask;
+    long tq = slots.get(fq);
+    if (!isOccupied(tq)) return false;
+    int s = runStart(fq);
+    for (;;) {
+      final long rem = remainder(slots.get(s));
+      if (rem == fr) break;
+      if (rem > fr) return false;
+      s = incr(s);
+      if (!isContinuation(slots.get(s))) return false;
+    }
+    final long kill = (s == fq) ? tq : slots.get(s);
+    final boolean replaceRunStart = isRunStart(kill);
+    //Removing the only remainder of the run: the quotient is not occupied
+    if (replaceRunStart && !isContinuation(slots.get(incr(s)))) {
+      tq &= ~OCCUPIED;
+      slots.set(fq, tq);
+    }
+    deleteAt(s, fq);
+    if (replaceRunStart) {
+      final long next = slots.get(s);
+      long updated = next & ~CONTINUATION;
+      if (s == fq && isRunStart(updated)) updated &= ~SHIFTED;
+      if (updated != next) slots.set(s, updated);
+    }
+    entries--;
+    return true;
+  }
+
+  //----------------------------------------------------------------------
+  /** Cursor on the fingerprints in the filter, in increasing order.
+   * The filter should not be modified while it is in use. */
+  public CursorOf.Longs fingerprints() {
+    final int start = firstClusterStart();
+    //A walk from the first cluster start gives the quotients from it
+    //to the end, and then the smaller ones, that are in the cluster
+    //wrapping around the end of the table or after it.
+    //So the walk is done twice: first for the small quotients.
+    return new CursorOf.Longs() {
+      private boolean small = true;
+      private int index = start;
+      private int quotient = start;
+      private int visited = 0;
+      private long fp;
+
+      @Override public boolean advance() {
+        for (;;) {
+          if (visited == entries) {
+            if (!small) return false;
+            small = false;
+            index = quotient = start;
+            visited = 0;
+            continue;
+          }
+          final long e = slots.get(index);
+          if (isClusterStart(e)) {
+            quotient = index;
+          } else if (isRunStart(e)) {
+            do quotient = incr(quotient);
+            while (!isOccupied(slots.get(quotient)));
+          }
+          index = incr(index);
+          if (!isEmpty(e)) {
+            visited++;
+            if ((quotient < start) == small) {
+              fp = (long) quotient << r | remainder(e);
+              return true;
+            }
+          }
+        }
+      }
+
+      @Override public long longValue() {return fp;}
+    };
+  }
+
+  private int firstClusterStart() {
+    for (int i = 0; i < size; i++) {
+      if (isClusterStart(slots.get(i))) return i;
+    }
+    return 0;
+  }
+
+  /** Doubles the slots, moving a bit from the remainders to the
+   * quotients; fingerprints are kept. */
+  public void grow() {
+    if (r == 1 || q == MAX_Q) throw new IllegalStateException(
+      "Quotient filter of " + q + " bits quotients and " + r
+      + " bits remainders cannot grow");
+    final QuotientFilter bigger = new QuotientFilter(q+1, r-1);
+    bigger.fillSorted(fingerprints(), null, 0, 0, 0);
+    adopt(bigger);
+  }
+
+  /**
+   * Adds the hashes {@code hs[off...off+n)},
+   * that should be sorted as unsigned longs.
+   * The filter is rebuilt with a merge of its fingerprints and theirs,
+   * growing it as needed.
+   */
+  public void addAllSorted(long[] hs, int off, int n) {
+    int nq = q, nr = r;
+    while (entries + (long) n > maxEntries(nq)) {
+      if (nr == 1 || nq == MAX_Q) throw new IllegalStateException(
+        "Quotient filter of " + q + " bits quotients and " + r
+        + " bits remainders cannot grow to hold " + (entries + n)
+        + " fingerprints");
+      nq++;
+      nr--;
+    }
+    final QuotientFilter merged = new QuotientFilter(nq, nr);
+    merged.fillSorted(fingerprints(), hs, off, n, q + r);
+    adopt(merged);
+  }
+
+  private static int maxEntries(int q) {
+    return (int) Math.min((1 << q) - 1, (long) (MAX_LOAD * (1 << q)));
+  }
+
+  /** Fills this empty filter with the merge of {@code fps}
+   * and the fingerprints of {@code p} bits of {@code hs[off...off+n)},
+   * both sorted. Remainders are written sequentially; only
+   * the ones that wrap around the end of the table take the general
+   * insertion. */
+  private void fillSorted(CursorOf.Longs fps, long[] hs, int off, int n,
+      int p) {
+    boolean hasA = fps.advance();
+    long a = hasA ? fps.longValue() : 0;
+    int k = 0;
+    long prev = 0;
+    boolean first = true;
+    int pos = 0;
+    while (hasA || k < n) {
+      final long fp;
+      if (k < n) {
+        final long b = hs[off+k] >>> -p;
+        if (k > 0 && Long.compareUnsigned(hs[off+k-1], hs[off+k]) > 0) {
+          throw new IllegalArgumentException(
+            "Hashes should be sorted as unsigned longs, but "
+            + Long.toUnsignedString(hs[off+k-1]) + " is before "
+            + Long.toUnsignedString(hs[off+k]));
+        }
+        if (!hasA || Long.compareUnsigned(b, a) < 0) {fp = b; k++;}
+        else {fp = a; hasA = fps.advance(); a = hasA ? fps.longValue() : 0;}
+      } else {
+        fp = a;
+        hasA = fps.advance();
+        a = hasA ? fps.longValue() : 0;
+      }
+      if (!first && fp == prev) continue;
+      final int fq = (int) (fp >>> r);
+      if (pos < fq) pos = fq;
+      if (pos >= size) {
+        addFingerprint(fp);
+      } else {
+        final boolean sameRun = !first && (prev >>> r) == fq;
+        final long e = (fp & rmask) << META
+          | (sameRun ? CONTINUATION : 0) | (pos != fq ? SHIFTED : 0);
+        slots.set(pos, slots.get(pos) & OCCUPIED | e);
+        slots.orblend(fq, OCCUPIED);
+        pos++;
+        entries++;
+      }
+      prev = fp;
+      first = false;
+    }
+  }
+}
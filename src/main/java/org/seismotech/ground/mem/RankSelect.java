@@ -0,0 +1,156 @@
+package org.seismotech.ground.mem;
+
+import static java.lang.Long.bitCount;
+
+import org.seismotech.ground.math.DMath;
+
+/**
+ * Rank/select index on a {@link BitArray}.
+ * The BitArray should not change after building the index.
+ *
+ * <p>The layout follows <i>Poppy</i> (Zhou, Andersen and Kaminsky):
+ * for each superblock of 2048 bits, a 64 bits entry holds
+ * the number of 1s before the superblock (32 bits)
+ * and the popcount of its first 3 basic blocks of 512 bits (10 bits each).
+ * That is 3.125% of space overhead, plus a sample of the superblock
+ * of every {@value #SAMPLE}-th 1 and 0 (less than 0.4%) to start select.
+ * Rank costs a directory access and the popcount of less than 512 bits.
+ * Select finds the superblock with a short binary search between samples,
+ * the basic block with the directory entry,
+ * and the bit with {@link DMath#select1(long,int)} on 64 bits words.
+ */
+public class RankSelect {
+
+  private static final int LOG2_SUPER = 11;
+  private static final int LOG2_BASIC = 9;
+  private static final int SUPER = 1 << LOG2_SUPER;
+  private static final int BASIC = 1 << LOG2_BASIC;
+
+  public static final int SAMPLE = 8192;
+
+  private final BitArray bits;
+  private final int size;
+  private final long[] dir;
+  private final int[] samples1;
+  private final int[] samples0;
+
+  public RankSelect(BitArray bits) {
+    this.bits = bits;
+    this.size = bits.size();
+    final int supers = DMath.cdiv(size, SUPER);
+    this.dir = new long[supers + 1];
+    int ones = 0;
+    for (int sb = 0; sb < supers; sb++) {
+      long e = (long) ones << 32;
+      final int init = sb << LOG2_SUPER;
+      for (int k = 0; k < 4; k++) {
+        final int binit = Math.min(size, init + k*BASIC);
+        final int c = bits.popcnt(binit, Math.min(size, binit + BASIC));
+        if (k < 3) e |= (long) c << (20 - 10*k);
+        ones += c;
+      }
+      dir[sb] = e;
+    }
+    dir[supers] = (long) ones << 32;
+    this.samples1 = new int[DMath.cdiv(ones, SAMPLE)];
+    this.samples0 = new int[DMath.cdiv(size - ones, SAMPLE)];
+    for (int sb = 0, i1 = 0, i0 = 0; sb < supers; sb++) {
+      final int end1 = ones(sb+1), end0 = zeros(sb+1);
+      for (; i1 < samples1.length && i1*SAMPLE < end1; i1++) samples1[i1] = sb;
+      for (; i0 < samples0.length && i0*SAMPLE < end0; i0++) samples0[i0] = sb;
+    }
+  }
+
+  public BitArray bitArray() {return bits;}
+
+  public int size() {return size;}
+
+  /** Total number of 1s. */
+  public int ones() {return ones(dir.length-1);}
+
+  /** Total number of 0s. */
+  public int zeros() {return size - ones();}
+
+  /** 1s before superblock {@code sb}. */
+  private int ones(int sb) {return (int) (dir[sb] >>> 32);}
+
+  /** 0s before superblock {@code sb}. */
+  private int zeros(int sb) {
+    return Math.min(size, sb << LOG2_SUPER) - ones(sb);
+  }
+
+  /** Popcount of basic block {@code k} (in [0,3)) of directory entry e. */
+  private static int basic(long e, int k) {
+    return (int) (e >>> (20 - 10*k)) & 0x3FF;
+  }
+
+  /** Number of 1s in [0,i), {@code 0 <= i <= size()}. */
+  public int rank1(int i) {
+    final long e = dir[i >>> LOG2_SUPER];
+    int r = (int) (e >>> 32);
+    final int blk = (i >>> LOG2_BASIC) & 3;
+    for (int k = 0; k < blk; k++) r += basic(e, k);
+    return r + bits.popcnt(i & -BASIC, i);
+  }
+
+  /** Number of 0s in [0,i), {@code 0 <= i <= size()}. */
+  public int rank0(int i) {return i - rank1(i);}
+
+  /** Position of the {@code r}-th 1 (counting from 0),
+   * or {@code size()} if there are not so many 1s. */
+  public int select1(int r) {
+    if (r < 0 || ones() <= r) return size;
+    final int si = r / SAMPLE;
+    int lo = samples1[si];
+    int hi = (si+1 < samples1.length) ? samples1[si+1] : dir.length-2;
+    //Last superblock in [lo,hi] with at most r 1s before it
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (ones(mid) <= r) lo = mid; else hi = mid-1;
+    }
+    final long e = dir[lo];
+    r -= ones(lo);
+    int pos = lo << LOG2_SUPER;
+    for (int k = 0; k < 3; k++) {
+      final int c = basic(e, k);
+      if (r < c) break;
+      r -= c;
+      pos += BASIC;
+    }
+    for (;; pos += 64) {
+      final long x = bits.get64(pos, Math.min(64, size-pos));
+      final int c = bitCount(x);
+      if (r < c) return pos + DMath.select1(x, r);
+      r -= c;
+    }
+  }
+
+  /** Position of the {@code r}-th 0 (counting from 0),
+   * or {@code size()} if there are not so many 0s. */
+  public int select0(int r) {
+    if (r < 0 || zeros() <= r) return size;
+    final int si = r / SAMPLE;
+    int lo = samples0[si];
+    int hi = (si+1 < samples0.length) ? samples0[si+1] : dir.length-2;
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (zeros(mid) <= r) lo = mid; else hi = mid-1;
+    }
+    final long e = dir[lo];
+    r -= zeros(lo);
+    int pos = lo << LOG2_SUPER;
+    for (int k = 0; k < 3; k++) {
+      final int c = BASIC - basic(e, k);
+      if (r < c) break;
+      r -= c;
+      pos += BASIC;
+    }
+    for (;; pos += 64) {
+      final int w = Math.min(64, size-pos);
+      final long x = ~bits.get64(pos, w) & (-1L >>> (64-w));
+      final int c = bitCount(x);
+      if (r < c) return pos + DMath.select1(x, r);
+      r -= c;
+    }
+  }
+}
@@ -0,0 +1,700 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+
+import org.seismotech.ground.cursor.CursorOf;
+
+/**
+ * A compressed set of 32 bits unsigned integers,
+ * following the <i>Roaring</i> bitmaps of Chambi, Lemire, Kaser and Godin.
+ * The 32 bits space is split in 2^16 chunks, indexed by the high 16 bits;
+ * each non empty chunk keeps its low 16 bits in a container:
+ * a sorted array of 16 bits values (up to {@value #ARRAY_MAX} elements),
+ * a {@link BitArray} of 2^16 bits,
+ * or a sorted array of runs (only after {@link #runOptimize()}).
+ * Every container knows its cardinality,
+ * so {@link #cardinality()} is constant time.
+ *
+ * <p>Containers are stored in {@link ByteArray}s
+ * with the same layout of the serialized form,
+ * the portable format of the Roaring libraries
+ * (see {@link #serialize(ByteArray,int)}).
+ * Therefore, {@link #view(ByteArray,int)} reads a serialized bitmap
+ * without copying the containers;
+ * they are copied on their first update.
+ * Binary operations share the containers of a single operand
+ * with the same copy-on-write policy.
+ * This class is not thread-safe.
+ */
+public class RoaringBitmap {
+
+  /** Max cardinality of an array container. */
+  public static final int ARRAY_MAX = 4096;
+
+  private static final int CHUNK = 1 << 16;
+  private static final int BITMAP_BYTES = CHUNK / 8;
+
+  private static final int SERIAL_COOKIE_NO_RUNCONTAINER = 12346;
+  private static final int SERIAL_COOKIE = 12347;
+  /** Min chunks to have an offset header, if there are run containers */
+  private static final int NO_OFFSET_THRESHOLD = 4;
+
+  private char[] keys;
+  private Container[] cs;
+  private int n;
+  private long card;
+
+  public RoaringBitmap() {this(4);}
+
+  private RoaringBitmap(int capacity) {
+    this.keys = new char[Math.max(1, capacity)];
+    this.cs = new Container[keys.length];
+    this.n = 0;
+    this.card = 0;
+  }
+
+  /** Number of elements. */
+  public long cardinality() {return card;}
+
+  public boolean isEmpty() {return card == 0;}
+
+  /** Number of non empty chunks. */
+  public int chunks() {return n;}
+
+  private int find(int high) {
+    return Arrays.binarySearch(keys, 0, n, (char) high);
+  }
+
+  public boolean contains(int x) {
+    final int i = find(x >>> 16);
+    return i >= 0 && cs[i].contains(x & 0xFFFF);
+  }
+
+  /** Adds {@code x}, returning whether it was absent. */
+  public boolean add(int x) {
+    int i = find(x >>> 16);
+    if (i < 0) {
+      i = -i-1;
+      insert(i, (char) (x >>> 16), new ArrayC(4));
+    }
+    final Container c = cs[i];
+    final int before = c.card;
+    cs[i] = c.add(x & 0xFFFF);
+    card += cs[i].card - before;
+    return cs[i].card != before;
+  }
+
+  /** Removes {@code x}, returning whether it was present. */
+  public boolean remove(int x) {
+    final int i = find(x >>> 16);
+    if (i < 0) return false;
+    final Container c = cs[i];
+    final int before = c.card;
+    final Container r = c.remove(x & 0xFFFF);
+    if (r == null) {
+      delete(i);
+      card -= before;
+      return true;
+    }
+    cs[i] = r;
+    card += r.card - before;
+    return r.card != before;
+  }
+
+  public void clear() {
+    Arrays.fill(cs, 0, n, null);
+    n = 0;
+    card = 0;
+  }
+
+  private void insert(int i, char key, Container c) {
+    if (n == keys.length) grow();
+    System.arraycopy(keys, i, keys, i+1, n-i);
+    System.arraycopy(cs, i, cs, i+1, n-i);
+    keys[i] = key;
+    cs[i] = c;
+    n++;
+  }
+
+  private void delete(int i) {
+    System.arraycopy(keys, i+1, keys, i, n-i-1);
+    System.arraycopy(cs, i+1, cs, i, n-i-1);
+    cs[--n] = null;
+  }
+
+  private void append(int key, Container c) {
+    if (c == null) return;
+    if (n == keys.length) grow();
+    keys[n] = (char) key;
+    cs[n++] = c;
+    card += c.card;
+  }
+
+  private void grow() {
+    keys = Arrays.copyOf(keys, 2*keys.length);
+    cs = Arrays.copyOf(cs, keys.length);
+  }
+
+  /** Cursor on the elements, in increasing unsigned order. */
+  public CursorOf.Ints ones() {return new Ones();}
+
+  /** Elements in increasing unsigned order. */
+  public int[] toArray() {
+    final int[] xs = new int[Math.toIntExact(card)];
+    final CursorOf.Ints it = ones();
+    for (int i = 0; it.advance(); i++) xs[i] = it.intValue();
+    return xs;
+  }
+
+  /**
+   * Converts each container to runs if that is smaller,
+   * and run containers back to array or bitmap if they are not.
+   */
+  public void runOptimize() {
+    for (int i = 0; i < n; i++) cs[i] = cs[i].runOptimized();
+  }
+
+  //----------------------------------------------------------------------
+  // Binary operations
+
+  public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+    final RoaringBitmap r = new RoaringBitmap(Math.min(a.n, b.n));
+    for (int i = 0, j = 0; i < a.n && j < b.n; ) {
+      final int ka = a.keys[i], kb = b.keys[j];
+      if (ka < kb) i++;
+      else if (kb < ka) j++;
+      else r.append(ka, a.cs[i++].and(b.cs[j++]));
+    }
+    return r;
+  }
+
+  public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+    final RoaringBitmap r = new RoaringBitmap(a.n + b.n);
+    int i = 0, j = 0;
+    while (i < a.n && j < b.n) {
+      final int ka = a.keys[i], kb = b.keys[j];
+      if (ka < kb) r.append(ka, a.cs[i++].share());
+      else if (kb < ka) r.append(kb, b.cs[j++].share());
+      else r.append(ka, a.cs[i++].or(b.cs[j++]));
+    }
+    for (; i < a.n; i++) r.append(a.keys[i], a.cs[i].share());
+    for (; j < b.n; j++) r.append(b.keys[j], b.cs[j].share());
+    return r;
+  }
+
+  public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+    final RoaringBitmap r = new RoaringBitmap(a.n);
+    int i = 0, j = 0;
+    while (i < a.n && j < b.n) {
+      final int ka = a.keys[i], kb = b.keys[j];
+      if (ka < kb) r.append(ka, a.cs[i++].share());
+      else if (kb < ka) j++;
+      else r.append(ka, a.cs[i++].andNot(b.cs[j++]));
+    }
+    for (; i < a.n; i++) r.append(a.keys[i], a.cs[i].share());
+    return r;
+  }
+
+  //----------------------------------------------------------------------
+  // Serialization, in the portable format of the Roaring libraries
+  // (RoaringFormatSpec), little endian:
+  //   without run containers: int32 12346, int32 chunks;
+  //   with run containers: u16 12347, u16 chunks-1,
+  //     and a bitset of ceil(chunks/8) bytes flagging them;
+  //   per chunk: u16 key, u16 card-1;
+  //   per chunk, unless there are run containers and less than 4 chunks:
+  //     int32 offset of the container from the start;
+  //   containers, without padding:
+  //     run: u16 runs, and runs pairs of u16 (start, length-1);
+  //     array (card <= 4096): card u16 values; bitmap: 8192 bytes.
+
+  private boolean hasRuns() {
+    for (int i = 0; i < n; i++) if (cs[i] instanceof RunC) return true;
+    return false;
+  }
+
+  private static boolean hasOffsets(boolean runs, int n) {
+    return !runs || NO_OFFSET_THRESHOLD <= n;
+  }
+
+  private int headerSize(boolean runs) {
+    return (runs ? 4 + (n+7)/8 : 8) + 4*n + (hasOffsets(runs, n) ? 4*n : 0);
+  }
+
+  /** Bytes needed by {@link #serialize(ByteArray,int)}. */
+  public int serializedSize() {
+    int size = headerSize(hasRuns());
+    for (int i = 0; i < n; i++) size += cs[i].serializedSize();
+    return size;
+  }
+
+  /** Writes this bitmap to {@code trg} starting at {@code off},
+   * returning the number of bytes written. */
+  public int serialize(ByteArray trg, int off) {
+    final int size = serializedSize();
+    if (trg.size() - off < size) throw new IllegalArgumentException(
+      "Serializing a RoaringBitmap needs " + size + " bytes, but only "
+      + (trg.size() - off) + " are available at " + off);
+    final boolean runs = hasRuns();
+    int d;
+    if (runs) {
+      trg.set32(off, SERIAL_COOKIE | (n-1) << 16);
+      d = off+4;
+      trg.clear(d, d + (n+7)/8);
+      for (int i = 0; i < n; i++) {
+        if (cs[i] instanceof RunC) {
+          trg.set(d + i/8, (byte) (trg.get(d + i/8) | 1 << (i & 7)));
+        }
+      }
+      d += (n+7)/8;
+    } else {
+      trg.set32(off, SERIAL_COOKIE_NO_RUNCONTAINER);
+      trg.set32(off+4, n);
+      d = off+8;
+    }
+    final boolean offsets = hasOffsets(runs, n);
+    int pos = headerSize(runs);
+    for (int i = 0; i < n; i++) {
+      trg.set16(d + 4*i, (short) keys[i]);
+      trg.set16(d + 4*i + 2, (short) (cs[i].card-1));
+      if (offsets) trg.set32(d + 4*n + 4*i, pos);
+      pos += cs[i].serialize(trg, off+pos);
+    }
+    return pos;
+  }
+
+  /**
+   * A bitmap on the serialized form at {@code src[off...]}.
+   * Containers are views of {@code src}, that should not change
+   * while the bitmap is in use;
+   * updates to the bitmap copy the affected containers
+   * and never modify {@code src}.
+   */
+  public static RoaringBitmap view(ByteArray src, int off) {
+    final int cookie = src.get32(off);
+    final boolean runs = (cookie & 0xFFFF) == SERIAL_COOKIE;
+    final int n, d;
+    if (runs) {
+      n = (cookie >>> 16) + 1;
+      d = off+4 + (n+7)/8;
+    } else if (cookie == SERIAL_COOKIE_NO_RUNCONTAINER) {
+      n = src.get32(off+4);
+      d = off+8;
+      if (n < 0 || CHUNK < n) throw notSerialized(off);
+    } else {
+      throw notSerialized(off);
+    }
+    final boolean offsets = hasOffsets(runs, n);
+    final RoaringBitmap r = new RoaringBitmap(n);
+    int pos = d + 4*n + (offsets ? 4*n : 0);
+    for (int i = 0; i < n; i++) {
+      final int card = (src.get16(d + 4*i + 2) & 0xFFFF) + 1;
+      if (offsets) pos = off + src.get32(d + 4*n + 4*i);
+      final Container c;
+      if (runs && (src.get8u(off+4 + i/8) & 1 << (i & 7)) != 0) {
+        final int nruns = src.get16(pos) & 0xFFFF;
+        c = new RunC(src.subarray(pos+2, pos+2 + 4*nruns), nruns, card);
+      } else if (card <= ARRAY_MAX) {
+        c = new ArrayC(src.subarray(pos, pos + 2*card), card);
+      } else {
+        c = new BitmapC(src.subarray(pos, pos + BITMAP_BYTES), card);
+      }
+      pos += c.serializedSize();
+      r.append(src.get16(d + 4*i) & 0xFFFF, c.share());
+    }
+    return r;
+  }
+
+  private static IllegalArgumentException notSerialized(int off) {
+    return new IllegalArgumentException(
+      "No serialized RoaringBitmap at offset " + off);
+  }
+
+  //----------------------------------------------------------------------
+  private class Ones implements CursorOf.Ints {
+    private int i = -1;
+    private int high;
+    private CursorOf.Ints low;
+
+    @Override public boolean advance() {
+      while (low == null || !low.advance()) {
+        if (n <= ++i) return false;
+        high = keys[i] << 16;
+        low = cs[i].ones();
+      }
+      return true;
+    }
+
+    @Override public int intValue() {return high | low.intValue();}
+  }
+
+  //----------------------------------------------------------------------
+  /**
+   * The low 16 bits of the elements of a chunk.
+   * Updates return the resulting container, that could be {@code this},
+   * a copy (if {@code this} is shared) or a container of other type;
+   * {@code null} is an empty container.
+   */
+  private static abstract class Container {
+    ByteArray st;
+    int card;
+    /** Whether {@link #st} is seen by other bitmaps or is a view of
+     * a serialized form, so that it should be copied before any update. */
+    boolean shared;
+
+    Container(ByteArray st, int card) {
+      this.st = st;
+      this.card = card;
+      this.shared = false;
+    }
+
+    Container share() {shared = true; return this;}
+
+    /** Bytes of the serialized form. */
+    abstract int serializedSize();
+
+    /** Writes the serialized form at {@code trg[off...]},
+     * returning the number of bytes written. */
+    abstract int serialize(ByteArray trg, int off);
+
+    abstract boolean contains(int v);
+
+    abstract Container add(int v);
+
+    abstract Container remove(int v);
+
+    abstract CursorOf.Ints ones();
+
+    /** A fresh, unshared, bitmap container with the same elements. */
+    BitmapC toBitmapC() {
+      final BitmapC b = new BitmapC();
+      for (final CursorOf.Ints it = ones(); it.advance(); ) {
+        b.bits.set(it.intValue());
+      }
+      b.card = card;
+      return b;
+    }
+
+    /** This bitmap container or an equivalent one, to be read only. */
+    BitmapC asBitmapC() {return toBitmapC();}
+
+    /** A fresh array container with the same elements;
+     * cardinality should be at most {@link #ARRAY_MAX}. */
+    ArrayC toArrayC() {
+      final ArrayC a = new ArrayC(card);
+      int k = 0;
+      for (final CursorOf.Ints it = ones(); it.advance(); ) {
+        a.put(k++, it.intValue());
+      }
+      a.card = k;
+      return a;
+    }
+
+    int countRuns() {
+      int runs = 0, prev = -2;
+      for (final CursorOf.Ints it = ones(); it.advance(); ) {
+        final int v = it.intValue();
+        if (v != prev+1) runs++;
+        prev = v;
+      }
+      return runs;
+    }
+
+    Container runOptimized() {
+      final int runs = countRuns();
+      final int plain = (card <= ARRAY_MAX) ? 2*card : BITMAP_BYTES;
+      if (4*runs < plain) return (this instanceof RunC) ? this : toRunC(runs);
+      if (!(this instanceof RunC)) return this;
+      return (card <= ARRAY_MAX) ? toArrayC() : toBitmapC();
+    }
+
+    RunC toRunC(int runs) {
+      final RunC r = new RunC(ByteArray.on(new byte[4*runs]), runs, card);
+      int k = -1, start = -2, prev = -2;
+      for (final CursorOf.Ints it = ones(); it.advance(); ) {
+        final int v = it.intValue();
+        if (v != prev+1) {
+          if (k >= 0) r.put(k, start, prev);
+          k++;
+          start = v;
+        }
+        prev = v;
+      }
+      if (k >= 0) r.put(k, start, prev);
+      return r;
+    }
+
+    Container and(Container o) {
+      if (this instanceof ArrayC a) return a.filter(o, true);
+      if (o instanceof ArrayC b) return b.filter(this, true);
+      final BitmapC r = toBitmapC();
+      r.combine(BitOp.AND, o.asBitmapC());
+      return r.normalized();
+    }
+
+    Container or(Container o) {
+      if (this instanceof ArrayC a && o instanceof ArrayC b
+          && a.card + b.card <= ARRAY_MAX) {
+        return a.merge(b);
+      }
+      final Container big = (this instanceof ArrayC) ? o : this;
+      final Container small = (big == this) ? o : this;
+      final BitmapC r = big.toBitmapC();
+      if (small instanceof ArrayC a) {
+        for (int k = 0; k < a.card; k++) r.bits.set(a.get(k));
+        r.card = r.bits.popcnt();
+      } else {
+        r.combine(BitOp.OR, small.asBitmapC());
+      }
+      return r.normalized();
+    }
+
+    Container andNot(Container o) {
+      if (this instanceof ArrayC a) return a.filter(o, false);
+      final BitmapC r = toBitmapC();
+      if (o instanceof ArrayC b) {
+        for (int k = 0; k < b.card; k++) r.bits.clear(b.get(k));
+        r.card = r.bits.popcnt();
+      } else {
+        r.combine(BitOp.ANDNOT, o.asBitmapC());
+      }
+      return r.normalized();
+    }
+  }
+
+  /** Sorted array of u16 values. */
+  private static final class ArrayC extends Container {
+    ArrayC(ByteArray st, int card) {super(st, card);}
+
+    ArrayC(int capacity) {this(ByteArray.on(new byte[2*capacity]), 0);}
+
+    @Override int serializedSize() {return 2*card;}
+
+    @Override int serialize(ByteArray trg, int off) {
+      st.copyTo(0, trg, off, 2*card);
+      return 2*card;
+    }
+
+    int get(int k) {return st.get16(2*k) & 0xFFFF;}
+
+    void put(int k, int v) {st.set16(2*k, (short) v);}
+
+    /** Index of {@code v}, or {@code -(insertion point)-1}. */
+    int indexOf(int v) {
+      int lo = 0, hi = card-1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        final int x = get(mid);
+        if (x < v) lo = mid+1;
+        else if (v < x) hi = mid-1;
+        else return mid;
+      }
+      return -lo-1;
+    }
+
+    @Override boolean contains(int v) {return indexOf(v) >= 0;}
+
+    @Override Container add(int v) {
+      final int k = indexOf(v);
+      if (k >= 0) return this;
+      if (card == ARRAY_MAX) return toBitmapC().add(v);
+      final int i = -k-1;
+      final ArrayC a = (!shared && 2*(card+1) <= st.size()) ? this
+        : new ArrayC(Math.min(ARRAY_MAX, Math.max(card+1, 2*card)));
+      st.copyTo(2*i, a.st, 2*i+2, 2*(card-i));
+      if (a != this) st.copyTo(0, a.st, 0, 2*i);
+      a.put(i, v);
+      a.card = card+1;
+      return a;
+    }
+
+    @Override Container remove(int v) {
+      final int i = indexOf(v);
+      if (i < 0) return this;
+      if (card == 1) return null;
+      final ArrayC a = shared ? new ArrayC(card-1) : this;
+      if (a != this) st.copyTo(0, a.st, 0, 2*i);
+      st.copyTo(2*i+2, a.st, 2*i, 2*(card-i-1));
+      a.card = card-1;
+      return a;
+    }
+
+    /** Elements of this that are ({@code keep}) or are not in {@code o}. */
+    Container filter(Container o, boolean keep) {
+      final ArrayC r = new ArrayC(card);
+      int m = 0;
+      for (int k = 0; k < card; k++) {
+        final int v = get(k);
+        if (o.contains(v) == keep) r.put(m++, v);
+      }
+      r.card = m;
+      return (m == 0) ? null : r;
+    }
+
+    ArrayC merge(ArrayC b) {
+      final ArrayC r = new ArrayC(card + b.card);
+      int i = 0, j = 0, m = 0;
+      while (i < card && j < b.card) {
+        final int x = get(i), y = b.get(j);
+        if (x <= y) i++;
+        if (y <= x) j++;
+        r.put(m++, Math.min(x, y));
+      }
+      for (; i < card; i++) r.put(m++, get(i));
+      for (; j < b.card; j++) r.put(m++, b.get(j));
+      r.card = m;
+      return r;
+    }
+
+    @Override CursorOf.Ints ones() {
+      return new CursorOf.Ints() {
+        private int k = -1;
+        @Override public boolean advance() {return ++k < card;}
+        @Override public int intValue() {return get(k);}
+      };
+    }
+  }
+
+  /** A BitArray of 2^16 bits. */
+  private static final class BitmapC extends Container {
+    final BitArray bits;
+
+    BitmapC(ByteArray st, int card) {
+      super(st, card);
+      this.bits = st.bitArray(0, CHUNK);
+    }
+
+    BitmapC() {this(ByteArray.on(new byte[BITMAP_BYTES]), 0);}
+
+    //The format tells containers apart by their cardinality
+    @Override int serializedSize() {
+      return (card <= ARRAY_MAX) ? 2*card : BITMAP_BYTES;
+    }
+
+    @Override int serialize(ByteArray trg, int off) {
+      if (card <= ARRAY_MAX) return toArrayC().serialize(trg, off);
+      st.copyTo(0, trg, off, BITMAP_BYTES);
+      return BITMAP_BYTES;
+    }
+
+    @Override boolean contains(int v) {return bits.has(v);}
+
+    private BitmapC owned() {return shared ? toBitmapC() : this;}
+
+    @Override Container add(int v) {
+      if (bits.has(v)) return this;
+      final BitmapC b = owned();
+      b.bits.set(v);
+      b.card++;
+      return b;
+    }
+
+    @Override Container remove(int v) {
+      if (!bits.has(v)) return this;
+      final BitmapC b = owned();
+      b.bits.clear(v);
+      b.card--;
+      return b.normalized();
+    }
+
+    @Override BitmapC toBitmapC() {
+      final BitmapC b = new BitmapC();
+      st.copyTo(0, b.st, 0, BITMAP_BYTES);
+      b.card = card;
+      return b;
+    }
+
+    @Override BitmapC asBitmapC() {return this;}
+
+    void combine(BitOp op, BitmapC o) {
+      bits.combine(op, 0, o.bits, 0, CHUNK);
+      card = bits.popcnt();
+    }
+
+    Container normalized() {
+      if (card == 0) return null;
+      return (card <= ARRAY_MAX) ? toArrayC() : this;
+    }
+
+    @Override CursorOf.Ints ones() {return bits.ones();}
+  }
+
+  /** Sorted array of runs, as u16 pairs (start, length-1). */
+  private static final class RunC extends Container {
+    final int nruns;
+
+    RunC(ByteArray st, int nruns, int card) {
+      super(st, card);
+      this.nruns = nruns;
+    }
+
+    @Override int serializedSize() {return 2 + 4*nruns;}
+
+    @Override int serialize(ByteArray trg, int off) {
+      trg.set16(off, (short) nruns);
+      st.copyTo(0, trg, off+2, 4*nruns);
+      return 2 + 4*nruns;
+    }
+
+    @Override int countRuns() {return nruns;}
+
+    int start(int k) {return st.get16(4*k) & 0xFFFF;}
+
+    int last(int k) {return start(k) + (st.get16(4*k+2) & 0xFFFF);}
+
+    void put(int k, int start, int last) {
+      st.set16(4*k, (short) start);
+      st.set16(4*k+2, (short) (last - start));
+    }
+
+    @Override boolean contains(int v) {
+      //Last run starting at or before v
+      int lo = 0, hi = nruns-1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (start(mid) <= v) lo = mid+1; else hi = mid-1;
+      }
+      return hi >= 0 && v <= last(hi);
+    }
+
+    private Container editable() {
+      return (card <= ARRAY_MAX) ? toArrayC() : toBitmapC();
+    }
+
+    @Override Container add(int v) {
+      return contains(v) ? this : editable().add(v);
+    }
+
+    @Override Container remove(int v) {
+      return contains(v) ? editable().remove(v) : this;
+    }
+
+    @Override BitmapC toBitmapC() {
+      final BitmapC b = new BitmapC();
+      for (int k = 0; k < nruns; k++) {
+        for (int p = start(k), end = last(k)+1; p < end; p += 64) {
+          final int w = Math.min(64, end-p);
+          b.bits.set64(p, w, -1L);
+        }
+      }
+      b.card = card;
+      return b;
+    }
+
+    @Override CursorOf.Ints ones() {
+      return new CursorOf.Ints() {
+        private int k = -1;
+        private int v = 0;
+        private int last = -1;
+        @Override public boolean advance() {
+          if (v < last) {v++; return true;}
+          if (nruns <= ++k) return false;
+          v = start(k);
+          last = last(k);
+          return true;
+        }
+        @Override public int intValue() {return v;}
+      };
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package org.seismotech.ground.mem;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Gate to {@code sun.misc.Unsafe} for the <i>unsafe</i> implementations
+ * of this package.
+ * Multibyte accessors work in little endian order, whatever the native order.
+ * Nothing is checked; a wrong address could crash the JVM.
+ *
+ * <p>Unsafe is found and used reflectively, through constant method
+ * handles bound to it, so that no source names the internal type;
+ * the JIT compiles their {@code invokeExact} as a direct call.
+ */
+final class Unsafes {
+  private Unsafes() {}
+
+  private static final Class<?> UNSAFE = unsafeClass();
+  private static final Object U = theUnsafe();
+
+  private static final MethodHandle
+    GET_BYTE = op("getByte", byte.class, Object.class, long.class),
+    GET_SHORT = op("getShort", short.class, Object.class, long.class),
+    GET_INT = op("getInt", int.class, Object.class, long.class),
+    GET_LONG = op("getLong", long.class, Object.class, long.class),
+    PUT_BYTE = op("putByte", void.class, Object.class, long.class,
+      byte.class),
+    PUT_SHORT = op("putShort", void.class, Object.class, long.class,
+      short.class),
+    PUT_INT = op("putInt", void.class, Object.class, long.class, int.class),
+    PUT_LONG = op("putLong", void.class, Object.class, long.class,
+      long.class),
+    GET_INT_VOLATILE
+      = op("getIntVolatile", int.class, Object.class, long.class),
+    GET_LONG_VOLATILE
+      = op("getLongVolatile", long.class, Object.class, long.class),
+    PUT_INT_VOLATILE = op("putIntVolatile", void.class,
+      Object.class, long.class, int.class),
+    PUT_LONG_VOLATILE = op("putLongVolatile", void.class,
+      Object.class, long.class, long.class),
+    PUT_ORDERED_INT = op("putOrderedInt", void.class,
+      Object.class, long.class, int.class),
+    PUT_ORDERED_LONG = op("putOrderedLong", void.class,
+      Object.class, long.class, long.class),
+    CAS_INT = op("compareAndSwapInt", boolean.class,
+      Object.class, long.class, int.class, int.class),
+    CAS_LONG = op("compareAndSwapLong", boolean.class,
+      Object.class, long.class, long.class, long.class),
+    GET_AND_ADD_INT = op("getAndAddInt", int.class,
+      Object.class, long.class, int.class),
+    GET_AND_ADD_LONG = op("getAndAddLong", long.class,
+      Object.class, long.class, long.class),
+    COPY_MEMORY = op("copyMemory", void.class,
+      Object.class, long.class, Object.class, long.class, long.class),
+    SET_MEMORY = op("setMemory", void.class,
+      Object.class, long.class, long.class, byte.class),
+    ALLOCATE_MEMORY = op("allocateMemory", long.class, long.class),
+    FREE_MEMORY = op("freeMemory", void.class, long.class),
+    INVOKE_CLEANER = op("invokeCleaner", void.class, ByteBuffer.class);
+
+  static final long BYTES_BASE = arrayBaseOffset(byte[].class);
+
+  private static final boolean BIG_ENDIAN
+    = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+  private static final long BUFFER_ADDRESS = bufferAddressOffset();
+
+  private static Class<?> unsafeClass() {
+    try {
+      return Class.forName("sun.misc.Unsafe");
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static Object theUnsafe() {
+    try {
+      final Field f = UNSAFE.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      return f.get(null);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Method {@code name} of Unsafe, bound to it. */
+  private static MethodHandle op(String name, Class<?> rtype,
+      Class<?>... ptypes) {
+    try {
+      return MethodHandles.lookup()
+        .findVirtual(UNSAFE, name, MethodType.methodType(rtype, ptypes))
+        .bindTo(U);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static long arrayBaseOffset(Class<?> arrayClass) {
+    try {
+      return (int) op("arrayBaseOffset", int.class, Class.class)
+        .invokeExact(arrayClass);
+    } catch (Throwable e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static long bufferAddressOffset() {
+    try {
+      return (long) op("objectFieldOffset", long.class, Field.class)
+        .invokeExact(Buffer.class.getDeclaredField("address"));
+    } catch (Throwable e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Unsafe operations do not throw checked exceptions. */
+  private static RuntimeException unexpected(Throwable e) {
+    if (e instanceof RuntimeException) return (RuntimeException) e;
+    if (e instanceof Error) throw (Error) e;
+    return new IllegalStateException(e);
+  }
+
+  //----------------------------------------------------------------------
+  // Unsafe methods used by the unsafe implementations.
+
+  static byte getByte(Object base, long addr) {
+    try {return (byte) GET_BYTE.invokeExact(base, addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  static void putByte(Object base, long addr, byte v) {
+    try {PUT_BYTE.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  static void copyMemory(Object srcBase, long srcAddr,
+      Object trgBase, long trgAddr, long n) {
+    try {COPY_MEMORY.invokeExact(srcBase, srcAddr, trgBase, trgAddr, n);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  static void setMemory(Object base, long addr, long n, byte v) {
+    try {SET_MEMORY.invokeExact(base, addr, n, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  static void setMemory(long addr, long n, byte v) {
+    setMemory(null, addr, n, v);
+  }
+
+  static long allocateMemory(long n) {
+    try {return (long) ALLOCATE_MEMORY.invokeExact(n);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  static void freeMemory(long addr) {
+    try {FREE_MEMORY.invokeExact(addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static short getShort(Object base, long addr) {
+    try {return (short) GET_SHORT.invokeExact(base, addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static int getInt(Object base, long addr) {
+    try {return (int) GET_INT.invokeExact(base, addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static long getLong(Object base, long addr) {
+    try {return (long) GET_LONG.invokeExact(base, addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putShort(Object base, long addr, short v) {
+    try {PUT_SHORT.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putInt(Object base, long addr, int v) {
+    try {PUT_INT.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putLong(Object base, long addr, long v) {
+    try {PUT_LONG.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static int getIntVolatile(Object base, long addr) {
+    try {return (int) GET_INT_VOLATILE.invokeExact(base, addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static long getLongVolatile(Object base, long addr) {
+    try {return (long) GET_LONG_VOLATILE.invokeExact(base, addr);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putIntVolatile(Object base, long addr, int v) {
+    try {PUT_INT_VOLATILE.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putLongVolatile(Object base, long addr, long v) {
+    try {PUT_LONG_VOLATILE.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putOrderedInt(Object base, long addr, int v) {
+    try {PUT_ORDERED_INT.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void putOrderedLong(Object base, long addr, long v) {
+    try {PUT_ORDERED_LONG.invokeExact(base, addr, v);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static boolean compareAndSwapInt(Object base, long addr,
+      int expect, int update) {
+    try {return (boolean) CAS_INT.invokeExact(base, addr, expect, update);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static boolean compareAndSwapLong(Object base, long addr,
+      long expect, long update) {
+    try {return (boolean) CAS_LONG.invokeExact(base, addr, expect, update);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static int getAndAddInt(Object base, long addr, int delta) {
+    try {return (int) GET_AND_ADD_INT.invokeExact(base, addr, delta);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static long getAndAddLong(Object base, long addr, long delta) {
+    try {return (long) GET_AND_ADD_LONG.invokeExact(base, addr, delta);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  //----------------------------------------------------------------------
+  /** Base object of {@code bb} for unsafe access:
+   * its array if it is a heap buffer, or {@code null} if it is direct. */
+  static Object base(ByteBuffer bb) {
+    if (bb.isDirect()) return null;
+    if (!bb.hasArray()) noRawAccess(bb);
+    return bb.array();
+  }
+
+  /** Address (relative to {@link #base(ByteBuffer)}) of index 0 of {@code bb}.
+   */
+  static long address(ByteBuffer bb) {
+    return bb.isDirect() ? getLong(bb, BUFFER_ADDRESS)
+      : BYTES_BASE + bb.arrayOffset();
+  }
+
+  /** Releases the memory of a direct buffer (unmapping it, if mapped)
+   * without waiting for the GC. */
+  static void free(ByteBuffer bb) {
+    try {INVOKE_CLEANER.invokeExact(bb);}
+    catch (Throwable e) {throw unexpected(e);}
+  }
+
+  private static void noRawAccess(ByteBuffer bb) {
+    throw new IllegalArgumentException(
+      "Unsafe access needs a direct or an array backed buffer, but " + bb
+      + " is neither of them");
+  }
+
+  //----------------------------------------------------------------------
+  static short le16(Object base, long addr) {
+    final short v = getShort(base, addr);
+    return BIG_ENDIAN ? Short.reverseBytes(v) : v;
+  }
+
+  static int le32(Object base, long addr) {
+    final int v = getInt(base, addr);
+    return BIG_ENDIAN ? Integer.reverseBytes(v) : v;
+  }
+
+  static long le64(Object base, long addr) {
+    final long v = getLong(base, addr);
+    return BIG_ENDIAN ? Long.reverseBytes(v) : v;
+  }
+
+  static void le16(Object base, long addr, short v) {
+    putShort(base, addr, BIG_ENDIAN ? Short.reverseBytes(v) : v);
+  }
+
+  static void le32(Object base, long addr, int v) {
+    putInt(base, addr, BIG_ENDIAN ? Integer.reverseBytes(v) : v);
+  }
+
+  static void le64(Object base, long addr, long v) {
+    putLong(base, addr, BIG_ENDIAN ? Long.reverseBytes(v) : v);
+  }
+
+  //----------------------------------------------------------------------
+  // Atomic access, in little endian order.
+  // Read-modify-write operations are solved with a CAS loop
+  // in big endian platforms.
+
+  static int le32Volatile(Object base, long addr) {
+    final int v = getIntVolatile(base, addr);
+    return BIG_ENDIAN ? Integer.reverseBytes(v) : v;
+  }
+
+  static long le64Volatile(Object base, long addr) {
+    final long v = getLongVolatile(base, addr);
+    return BIG_ENDIAN ? Long.reverseBytes(v) : v;
+  }
+
+  static void le32Volatile(Object base, long addr, int v) {
+    putIntVolatile(base, addr, BIG_ENDIAN ? Integer.reverseBytes(v) : v);
+  }
+
+  static void le64Volatile(Object base, long addr, long v) {
+    putLongVolatile(base, addr, BIG_ENDIAN ? Long.reverseBytes(v) : v);
+  }
+
+  static void le32Release(Object base, long addr, int v) {
+    putOrderedInt(base, addr, BIG_ENDIAN ? Integer.reverseBytes(v) : v);
+  }
+
+  static void le64Release(Object base, long addr, long v) {
+    putOrderedLong(base, addr, BIG_ENDIAN ? Long.reverseBytes(v) : v);
+  }
+
+  static boolean le32Cas(Object base, long addr, int expect, int update) {
+    return BIG_ENDIAN
+      ? compareAndSwapInt(base, addr,
+        Integer.reverseBytes(expect), Integer.reverseBytes(update))
+      : compareAndSwapInt(base, addr, expect, update);
+  }
+
+  static boolean le64Cas(Object base, long addr, long expect, long update) {
+    return BIG_ENDIAN
+      ? compareAndSwapLong(base, addr,
+        Long.reverseBytes(expect), Long.reverseBytes(update))
+      : compareAndSwapLong(base, addr, expect, update);
+  }
+
+  static int le32GetAndAdd(Object base, long addr, int delta) {
+    if (!BIG_ENDIAN) return getAndAddInt(base, addr, delta);
+    int v;
+    do {v = le32Volatile(base, addr);}
+    while (!le32Cas(base, addr, v, v + delta));
+    return v;
+  }
+
+  static long le64GetAndAdd(Object base, long addr, long delta) {
+    if (!BIG_ENDIAN) return getAndAddLong(base, addr, delta);
+    long v;
+    do {v = le64Volatile(base, addr);}
+    while (!le64Cas(base, addr, v, v + delta));
+    return v;
+  }
+
+  static int le32GetAndCombine(Object base, long addr, BitOp op, int bits) {
+    int v;
+    do {v = le32Volatile(base, addr);}
+    while (!le32Cas(base, addr, v, op.apply(v, bits)));
+    return v;
+  }
+
+  static long le64GetAndCombine(Object base, long addr, BitOp op, long bits) {
+    long v;
+    do {v = le64Volatile(base, addr);}
+    while (!le64Cas(base, addr, v, op.apply(v, bits)));
+    return v;
+  }
+
+  //----------------------------------------------------------------------
+  /** Little endian word of {@code width} bytes ({@code width < 8}). */
+  static long leTail(Object base, long addr, int width) {
+    long v = 0;
+    for (int k = width-1; k >= 0; k--) {
+      v = (v << 8) | Bits.ubyte(getByte(base, addr+k));
+    }
+    return v;
+  }
+
+  /** Stores the {@code width} lower bytes of {@code v} ({@code width < 8}).
+   */
+  static void leTail(Object base, long addr, int width, long v) {
+    for (int k = 0; k < width; k++, v >>>= 8) {
+      putByte(base, addr+k, (byte) v);
+    }
+  }
+}
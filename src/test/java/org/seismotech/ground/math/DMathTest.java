@@ -1,5 +1,7 @@
 package org.seismotech.ground.math;
 
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -20,4 +22,32 @@ class DMathTest {
       assertEquals((int) Math.ceil(log), DMath.clog2((long) i));
     }
   }
+
+  @Test
+  void testSelect() {
+    final Random rnd = new Random();
+    for (int t = 0; t < 10_000; t++) {
+      final long x = rnd.nextLong() & rnd.nextLong()
+        & (t % 2 == 0 ? -1L : rnd.nextLong());
+      for (int i = 0, r = 0; i < 64; i++) {
+        if ((x & (1L << i)) != 0) assertEquals(i, DMath.select1(x, r++));
+      }
+    }
+    assertEquals(63, DMath.select1(-1L, 63));
+    assertEquals(63, DMath.select1(1L << 63, 0));
+    assertEquals(0, DMath.select0(-2L, 0));
+  }
+
+  @Test
+  void testSelect32() {
+    final Random rnd = new Random();
+    for (int t = 0; t < 10_000; t++) {
+      final int x = rnd.nextInt() & (t % 2 == 0 ? -1 : rnd.nextInt());
+      for (int i = 0, r = 0; i < 32; i++) {
+        if ((x & (1 << i)) != 0) assertEquals(i, DMath.select1(x, r++));
+      }
+    }
+    assertEquals(31, DMath.select1(-1, 31));
+    assertEquals(31, DMath.select1(1 << 31, 0));
+  }
 }
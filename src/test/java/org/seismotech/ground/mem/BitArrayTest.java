@@ -2,12 +2,15 @@ package org.seismotech.ground.mem;
 
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import org.seismotech.ground.cursor.CursorOf;
 import org.seismotech.ground.math.DMath;
 
 class BitArrayTest {
@@ -135,4 +138,203 @@ class BitArrayTest {
       }
     }
   }
+
+  @Test
+  void next1nOnDenseWords() {
+    //Many bits per word, so that the n-th one is deep inside a word
+    for (final int density: new int[] {1, 2, 4}) {
+      final byte[] bs = new byte[40];
+      for (int k = 0; k < bs.length; k++) {
+        bs[k] = (byte) (density == 1 ? -1 : rnd.nextInt() | rnd.nextInt()
+          | (density == 2 ? rnd.nextInt() : 0));
+      }
+      final BitArray bits = ByteArray.unchecked(bs).bitArray();
+      for (int init = 0; init < 70; init += 3) {
+        for (final int end: new int[] {init, init+5, 130, bits.size()}) {
+          for (int n = 1, expected = init-1; n <= end - init + 1; n++) {
+            if (expected < end) {
+              do expected++; while (expected < end && !bits.has(expected));
+            }
+            assertEquals(expected, bits.next1n(init, end, n));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void wordFields() {
+    final int size = 1000;
+    for (final int off: new int[] {0, 3, 13}) {
+      final byte[] raw = new byte[DMath.cdiv(off + size, 8)];
+      final BitArray bits = ByteArray.unchecked(raw)
+        .bitArrayClamped(off, off+size);
+      final boolean[] ref = new boolean[size];
+      for (int t = 0; t < 5000; t++) {
+        final int w = 1 + rnd.nextInt(64);
+        final int i = rnd.nextInt(size - w + 1);
+        final long v = rnd.nextLong();
+        if (w <= 32) bits.set(i, w, (int) v);
+        else bits.set64(i, w, v);
+        for (int k = 0; k < w; k++) ref[i+k] = ((v >>> k) & 1) != 0;
+        final int rw = 1 + rnd.nextInt(64);
+        final int ri = rnd.nextInt(size - rw + 1);
+        long expected = 0;
+        for (int k = rw-1; k >= 0; k--) {
+          expected = (expected << 1) | (ref[ri+k] ? 1 : 0);
+        }
+        assertEquals(expected, bits.get64(ri, rw));
+        if (rw <= 32) assertEquals((int) expected, bits.get(ri, rw));
+      }
+      for (int i = 0; i < size; i++) assertEquals(ref[i], bits.has(i));
+      final BitArray sub = bits.subarray(100, 200);
+      assertEquals(100, sub.size());
+      for (int i = 0; i < 100; i++) assertEquals(ref[100+i], sub.has(i));
+    }
+  }
+
+  @Test
+  void bulkOperations() {
+    for (int t = 0; t < 500; t++) {
+      final int len = rnd.nextInt(400);
+      final BitArray a = randomBits(len + rnd.nextInt(100));
+      final BitArray b = randomBits(len + rnd.nextInt(100));
+      final int i = rnd.nextInt(a.size() - len + 1);
+      final int j = rnd.nextInt(b.size() - len + 1);
+      for (final BitOp op: BitOp.values()) {
+        final boolean[] expected = new boolean[len];
+        for (int k = 0; k < len; k++) {
+          expected[k] = op.apply(a.get(i+k), b.get(j+k)) != 0;
+        }
+        int n = 0;
+        for (final boolean e: expected) if (e) n++;
+        assertEquals(n, a.popcnt(op, i, b, j, len));
+
+        final BitArray c = randomBits(a.size());
+        final int k0 = rnd.nextInt(c.size() - len + 1);
+        final boolean[] before = bools(c);
+        c.combine(op, k0, a, i, b, j, len);
+        checkCombined(before, c, k0, expected);
+
+        final boolean[] old = bools(a);
+        a.combine(op, i, b, j, len);
+        checkCombined(old, a, i, expected);
+        a.not(i, i+len);
+        for (int k = 0; k < len; k++) assertEquals(!expected[k], a.has(i+k));
+      }
+    }
+  }
+
+  BitArray randomBits(int size) {
+    final int off = rnd.nextInt(64);
+    final byte[] raw = new byte[DMath.cdiv(off + size, 8)];
+    rnd.nextBytes(raw);
+    return ByteArray.unchecked(raw).bitArray(off, off + size);
+  }
+
+  boolean[] bools(BitArray bits) {
+    final boolean[] bs = new boolean[bits.size()];
+    for (int i = 0; i < bs.length; i++) bs[i] = bits.has(i);
+    return bs;
+  }
+
+  void checkCombined(boolean[] before, BitArray bits, int i, boolean[] exp) {
+    for (int k = 0; k < before.length; k++) {
+      assertEquals(
+        (i <= k && k < i+exp.length) ? exp[k-i] : before[k], bits.has(k));
+    }
+  }
+
+  @Test
+  void searchesAndCursors() {
+    for (int t = 0; t < 300; t++) {
+      final BitArray bits = randomBits(rnd.nextInt(300));
+      if (t % 3 == 1) bits.clear();
+      if (t % 3 == 2) bits.not(0, bits.size());
+      final int size = bits.size();
+      final int init = rnd.nextInt(size+1);
+      final int end = init + rnd.nextInt(size-init+1);
+      int next1 = end, next0 = end, prev1 = init-1, prev0 = init-1;
+      for (int i = end-1; i >= init; i--) {
+        if (bits.has(i)) next1 = i; else next0 = i;
+      }
+      for (int i = init; i < end; i++) {
+        if (bits.has(i)) prev1 = i; else prev0 = i;
+      }
+      assertEquals(next1, bits.next1(init, end));
+      assertEquals(next0, bits.next0(init, end));
+      assertEquals(prev1, bits.prev1(init, end));
+      assertEquals(prev0, bits.prev0(init, end));
+
+      final CursorOf.Ints fwd = bits.ones(init, end);
+      for (int i = init; i < end; i++) {
+        if (bits.has(i)) {
+          assertTrue(fwd.advance());
+          assertEquals(i, fwd.intValue());
+        }
+      }
+      assertFalse(fwd.advance());
+      final CursorOf.Ints bwd = bits.onesReversed(init, end);
+      for (int i = end-1; i >= init; i--) {
+        if (bits.has(i)) {
+          assertTrue(bwd.advance());
+          assertEquals(i, bwd.intValue());
+        }
+      }
+      assertFalse(bwd.advance());
+    }
+  }
+
+  @Test
+  void concurrentMatchesPlain() {
+    for (int t = 0; t < 200; t++) {
+      final int off = rnd.nextInt(128);
+      final int size = rnd.nextInt(500);
+      final byte[] raw = new byte[8 * DMath.cdiv(off + size, 64)];
+      rnd.nextBytes(raw);
+      final BitArray plain = ByteArray.unchecked(raw.clone())
+        .bitArray(off, off + size);
+      final BitArray.Concurrent conc = BitArray.concurrent(
+        ByteArray.unchecked(raw), off, off + size);
+      for (int c = 0; c < 50 && size > 0; c++) {
+        final int i = rnd.nextInt(size);
+        final int w = 1 + rnd.nextInt(Math.min(64, size-i));
+        final long v = rnd.nextLong();
+        switch (c % 4) {
+        case 0: plain.set64(i, w, v); conc.set64(i, w, v); break;
+        case 1: plain.clear(i, i+w); conc.clear(i, i+w); break;
+        case 2: assertEquals(plain.has(i), conc.testAndSet(i));
+          plain.set(i); break;
+        default: assertEquals(plain.has(i), conc.testAndClear(i));
+          plain.clear(i);
+        }
+        final int j = rnd.nextInt(size);
+        final int end = j + rnd.nextInt(size-j+1);
+        assertEquals(plain.get64(i, w), conc.get64(i, w));
+        assertEquals(plain.popcnt(j, end), conc.popcnt(j, end));
+        assertEquals(plain.next1(j, end), conc.next1(j, end));
+        final int n = rnd.nextInt(5);
+        assertEquals(plain.next1n(j, end, n), conc.next1n(j, end, n));
+      }
+    }
+  }
+
+  @Test
+  void concurrentTestAndSet() {
+    final int size = 100_000;
+    final BitArray.Concurrent bits = BitArray.concurrent(
+      ByteArray.unchecked(new byte[size/8 + 8]), 0, size);
+    final AtomicInteger winners = new AtomicInteger();
+    IntStream.range(0, 8).parallel().forEach(th -> {
+      final Random r = new Random(th);
+      int won = 0;
+      for (int k = 0; k < 2*size; k++) {
+        if (!bits.testAndSet(r.nextInt(size))) won++;
+      }
+      for (int k = 0; k < size; k++) if (!bits.testAndSet(k)) won++;
+      winners.addAndGet(won);
+    });
+    assertEquals(size, winners.get());
+    assertEquals(size, bits.popcnt());
+  }
 }
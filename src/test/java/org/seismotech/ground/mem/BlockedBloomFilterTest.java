@@ -0,0 +1,90 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockedBloomFilterTest {
+
+  static final Random rnd = new Random();
+
+  static long[] hashes(int n) {
+    final long[] hs = new long[n];
+    for (int i = 0; i < n; i++) hs[i] = rnd.nextLong();
+    return hs;
+  }
+
+  @Test
+  void noFalseNegativesAndBoundedFpp() {
+    for (final double fpp: new double[] {0.1, 0.01, 0.001}) {
+      final int n = 50_000;
+      final BlockedBloomFilter bf = BlockedBloomFilter.create(n, fpp);
+      final long[] hs = hashes(n);
+      for (final long h: hs) bf.add(h);
+      for (final long h: hs) assertTrue(bf.mightContain(h));
+      final long[] others = hashes(200_000);
+      int fp = 0;
+      for (final long h: others) if (bf.mightContain(h)) fp++;
+      final double measured = fp / (double) others.length;
+      assertTrue(measured < 2*fpp, "fpp " + measured + " for " + fpp);
+    }
+  }
+
+  @Test
+  void bulkMatchesSingle() {
+    final BlockedBloomFilter bulk = BlockedBloomFilter.create(10_000, 0.01);
+    final BlockedBloomFilter single = BlockedBloomFilter.create(10_000, 0.01);
+    final long[] hs = hashes(10_000);
+    bulk.addAll(hs, 100, 5000);
+    for (int i = 100; i < 5100; i++) single.add(hs[i]);
+    final boolean[] in = new boolean[hs.length + 3];
+    final int found = bulk.mightContainAll(hs, 0, hs.length, in, 3);
+    int expected = 0;
+    for (int i = 0; i < hs.length; i++) {
+      assertEquals(single.mightContain(hs[i]), in[3+i]);
+      if (in[3+i]) expected++;
+    }
+    assertEquals(expected, found);
+  }
+
+  @Test
+  void serialization() {
+    final BlockedBloomFilter bf = BlockedBloomFilter.create(1000, 0.01);
+    final long[] hs = hashes(1000);
+    bf.addAll(hs, 0, hs.length);
+    final ByteArray st = ByteArray.unchecked(new byte[8 + bf.serializedSize()]);
+    assertEquals(bf.serializedSize(), bf.serialize(st, 8));
+    final BlockedBloomFilter v = BlockedBloomFilter.view(st, 8);
+    assertEquals(bf.blocks(), v.blocks());
+    assertEquals(bf.k(), v.k());
+    final long[] others = hashes(10_000);
+    final boolean[] a = new boolean[others.length];
+    final boolean[] b = new boolean[others.length];
+    bf.mightContainAll(others, 0, others.length, a, 0);
+    v.mightContainAll(others, 0, others.length, b, 0);
+    assertArrayEquals(toBytes(a), toBytes(b));
+    for (final long h: hs) assertTrue(v.mightContain(h));
+    assertThrows(IllegalArgumentException.class,
+      () -> BlockedBloomFilter.view(ByteArray.unchecked(new byte[128]), 0));
+  }
+
+  static byte[] toBytes(boolean[] bs) {
+    final byte[] xs = new byte[bs.length];
+    for (int i = 0; i < bs.length; i++) xs[i] = (byte) (bs[i] ? 1 : 0);
+    return xs;
+  }
+
+  @Test
+  void concurrentAdd() {
+    final int n = 100_000;
+    final BlockedBloomFilter bf = BlockedBloomFilter.create(n, 0.01);
+    final long[] hs = hashes(n);
+    IntStream.range(0, n).parallel().forEach(i -> bf.addAtomic(hs[i]));
+    for (final long h: hs) assertTrue(bf.mightContain(h));
+  }
+}
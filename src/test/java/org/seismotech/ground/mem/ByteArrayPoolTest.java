@@ -0,0 +1,122 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteArrayPoolTest {
+
+  static final Random rnd = new Random();
+
+  @Test
+  void leasesAreRecycled() {
+    for (final boolean direct: new boolean[] {false, true}) {
+      final ByteArrayPool pool = new ByteArrayPool(direct);
+      final ByteArrayPool.Lease a = pool.lease(100);
+      assertEquals(100, a.size());
+      assertEquals(128, a.capacity());
+      final ByteArray block = a.byteArray();
+      a.close();
+      try (final ByteArrayPool.Lease b = pool.lease(120)) {
+        assertSame(block, b.byteArray());
+      }
+      try (final ByteArrayPool.Lease big = pool.lease(3 << 20)) {
+        assertEquals(3 << 20, big.capacity());
+      }
+    }
+  }
+
+  @Test
+  void debugModeChecksReleases() {
+    final ByteArrayPool pool = new ByteArrayPool(
+      false, ByteArray.Flavor.CHECKED, 4, 10, 2, 4, true);
+    final ByteArrayPool.Lease a = pool.lease(10);
+    final ByteArrayPool.Lease b = pool.lease(10);
+    assertEquals(2, pool.outstanding());
+    a.close();
+    assertEquals(1, pool.outstanding());
+    assertThrows(IllegalStateException.class, () -> a.byteArray());
+    assertThrows(IllegalStateException.class, () -> a.close());
+    b.close();
+    assertEquals(0, pool.outstanding());
+    assertEquals(0, pool.leaked());
+  }
+
+  @Test
+  void debugModeChecksStaleLeases() {
+    final ByteArrayPool pool = new ByteArrayPool(
+      false, ByteArray.Flavor.CHECKED, 4, 10, 2, 4, true);
+    final ByteArrayPool.Lease stale = pool.lease(10);
+    final ByteArray staleArr = stale.byteArray();
+    stale.close();
+    //The same block, leased again
+    final ByteArrayPool.Lease fresh = pool.lease(10);
+    assertTrue(stale != fresh);
+    assertThrows(IllegalStateException.class, () -> stale.close());
+    assertThrows(IllegalStateException.class, () -> stale.byteArray());
+    assertThrows(IllegalStateException.class, () -> staleArr.set(0, (byte) 1));
+    assertThrows(IllegalStateException.class,
+      () -> staleArr.subarray(0, 4).get(0));
+    fresh.byteArray().set64(0, 7);
+    assertEquals(7, fresh.byteArray().get64(0));
+    fresh.close();
+    assertEquals(0, pool.outstanding());
+  }
+
+  @Test
+  void fastBlocksAreAligned() {
+    for (final boolean direct: new boolean[] {false, true}) {
+      final ByteArrayPool pool = new ByteArrayPool(
+        direct, ByteArray.Flavor.FAST, 4, 10, 2, 4, false);
+      for (int k = 0; k < 10; k++) {
+        final ByteArray arr = pool.lease(16).byteArray();
+        assertTrue(arr.compareAndSet64(0, 0, k));
+        assertEquals(0, arr.getAndBitwiseOr64(8, 1));
+      }
+    }
+  }
+
+  @Test
+  void blocksDoNotOverlap() {
+    final ByteArrayPool pool = new ByteArrayPool(
+      true, ByteArray.Flavor.FAST, 3, 8, 4, 8, false);
+    final int n = 500;
+    final ByteArrayPool.Lease[] leases = new ByteArrayPool.Lease[n];
+    for (int i = 0; i < n; i++) {
+      leases[i] = pool.lease(1 + rnd.nextInt(256));
+      leases[i].byteArray().fill(0, leases[i].capacity(), (byte) i);
+    }
+    for (int i = 0; i < n; i++) {
+      final ByteArray arr = leases[i].byteArray();
+      for (int j = 0; j < arr.size(); j++) assertEquals((byte) i, arr.get(j));
+      leases[i].close();
+    }
+  }
+
+  @Test
+  void drainOnPool() {
+    final ByteArrayPool pool = new ByteArrayPool(false);
+    try (final ByteDrain.OnPool drain = new ByteDrain.OnPool(pool, 16)) {
+      for (int round = 0; round < 3; round++) {
+        drain.reset();
+        final long[] ref = new long[100 + rnd.nextInt(1000)];
+        for (int i = 0; i < ref.length; i++) {
+          ref[i] = rnd.nextLong();
+          drain.drain(ref[i]);
+        }
+        assertEquals(8*ref.length, drain.used());
+        assertTrue(drain.buffer().size() >= drain.used());
+        final ByteFlux flux = new ByteFlux.OnByteArray(
+          drain.buffer(), 0, drain.used());
+        for (int i = 0; i < ref.length; i++) {
+          assertEquals(ref[i], flux.nextLong());
+        }
+        assertEquals(0, flux.remaining());
+      }
+    }
+  }
+}
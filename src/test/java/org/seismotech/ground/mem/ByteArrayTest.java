@@ -2,16 +2,21 @@ package org.seismotech.ground.mem;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.function.IntFunction;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.seismotech.ground.math.DMath;
 
@@ -39,14 +44,97 @@ class ByteArrayTest {
   }
 
   //----------------------------------------------------------------------
-  static Stream byteArrays() {
+  static final OffHeapArena UNSAFE_ARENA
+    = new OffHeapArena(ByteArray.Flavor.UNSAFE);
+  static final OffHeapArena CHECKED_ARENA
+    = new OffHeapArena(ByteArray.Flavor.CHECKED);
+
+  @AfterAll
+  static void closeArenas() {
+    UNSAFE_ARENA.close();
+    CHECKED_ARENA.close();
+  }
+
+  static Stream<IntFunction<ByteArray>> byteArrays() {
     return Stream.of(
       (IntFunction<ByteArray>) n -> ByteArray.unchecked(new byte[n]),
       (IntFunction<ByteArray>) n -> ByteArray.unchecked(
-        ByteBuffer.allocateDirect(n).order(ByteOrder.LITTLE_ENDIAN))
+        ByteBuffer.allocateDirect(n).order(ByteOrder.LITTLE_ENDIAN)),
+      (IntFunction<ByteArray>) n -> ByteArray.checked(new byte[n]),
+      (IntFunction<ByteArray>) n -> ByteArray.checked(
+        ByteBuffer.allocateDirect(n).order(ByteOrder.LITTLE_ENDIAN)),
+      (IntFunction<ByteArray>) n -> ByteArray.fast(
+        new byte[n + ByteArray.FAST_PADDING], 0, n),
+      (IntFunction<ByteArray>) n -> ByteArray.fast(
+        ByteBuffer.allocateDirect(n + ByteArray.FAST_PADDING)
+        .order(ByteOrder.LITTLE_ENDIAN), 0, n),
+      (IntFunction<ByteArray>) n -> ByteArray.unsafe(new byte[n]),
+      (IntFunction<ByteArray>) n -> ByteArray.unsafe(
+        ByteBuffer.allocateDirect(n).order(ByteOrder.LITTLE_ENDIAN)),
+      (IntFunction<ByteArray>) n -> UNSAFE_ARENA.allocateByteArray(n),
+      (IntFunction<ByteArray>) n -> CHECKED_ARENA.allocateByteArray(n),
+      (IntFunction<ByteArray>) n -> new ChunkedByteArray(4, n)
     );
   }
 
+  @Test
+  void fastNeedsPadding() {
+    assertThrows(IllegalArgumentException.class,
+      () -> ByteArray.fast(new byte[10], 0, 10));
+    assertThrows(IllegalArgumentException.class,
+      () -> ByteArray.fast(new byte[10], 0, 11 - ByteArray.FAST_PADDING));
+    assertEquals(3, ByteArray.fast(new byte[10], 0, 3).size());
+  }
+
+  @Test
+  void fastFlavorAcceptsStoresWithoutPadding() {
+    final byte[] bs = new byte[10];
+    assertTrue(ByteArray.Flavor.FAST.on(bs, 0, 3)
+      instanceof ByteArray.FastOnBytes);
+    final ByteArray arr = ByteArray.Flavor.FAST.on(bs, 0, 10);
+    assertTrue(arr instanceof ByteArray.UncheckedOnBytes);
+    arr.cset64(6, -1L);
+    assertEquals(0xFFFF_FFFFL, arr.pget64(6));
+    final ByteBuffer bb = ByteBuffer.allocate(10)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(0, ByteArray.Flavor.FAST.on(bb, 0, 10).pget64(3));
+  }
+
+  @Test
+  void fastPaddedAccessAtTheEndIsEmpty() {
+    final byte[] bs = new byte[16];
+    Arrays.fill(bs, (byte) -1);
+    final ByteArray arr = ByteArray.fast(bs, 0, 8);
+    assertEquals(0, arr.pget64(8));
+    assertEquals(0, arr.pget32(8));
+    assertEquals(0, arr.pget16(8));
+    arr.cset64(8, 0);
+    arr.cset32(8, 0);
+    for (int i = 8; i < bs.length; i++) assertEquals(-1, bs[i]);
+  }
+
+  @Test
+  void unknownFlavorIsUnchecked() {
+    assertEquals(ByteArray.Flavor.FAST, ByteArray.Flavor.named("fast"));
+    assertEquals(ByteArray.Flavor.UNCHECKED, ByteArray.Flavor.named(null));
+    assertEquals(ByteArray.Flavor.UNCHECKED, ByteArray.Flavor.named("fats"));
+  }
+
+  @Test
+  void checkedThrowsOutOfBounds() {
+    final ByteArray arr = ByteArray.checked(new byte[16]).subarray(2, 10);
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.get(8));
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.get(-1));
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.get32(5));
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.set64(1, 0));
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.pget64(8));
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.clear(0, 9));
+    assertThrows(IndexOutOfBoundsException.class, () -> arr.subarray(4, 9));
+    assertEquals(0, arr.pget64(7));
+    arr.cset64(4, -1L);
+    assertEquals(0xFFFF_FFFFL, arr.pget64(4));
+  }
+
   static final Word[] WORDS = {
     Word.Width16.THE, Word.Width32.THE, Word.Width64.THE,
   };
@@ -74,14 +162,135 @@ class ByteArrayTest {
   @MethodSource("byteArrays")
   void correctAccessSmall(IntFunction<ByteArray> arrayBuilder) {
     for (int size = 1; size < 8; size++) {
-      final byte[] bs = new byte[size];
-      final ByteArray arr = ByteArray.unchecked(bs);
+      final ByteArray arr = arrayBuilder.apply(size);
       for (final Word word: WORDS) {
         correctAccess(arr, arr, 0, 0, 0, word);
       }
     }
   }
 
+  @Test
+  void bulkTransfers() {
+    final Random rnd = new Random();
+    final int size = 300;
+    final List<IntFunction<ByteArray>> builders = byteArrays().toList();
+    for (final IntFunction<ByteArray> sb: builders) {
+      for (final IntFunction<ByteArray> tb: builders) {
+        final ByteArray src = sb.apply(size);
+        final ByteArray trg = tb.apply(size);
+        final byte[] ref = new byte[size];
+        rnd.nextBytes(ref);
+        assertEquals(size, src.set(0, ref));
+        final byte[] back = new byte[size];
+        assertEquals(size-10, src.get(10, back, 5, size-5));
+        assertEquals(ref[10], back[5]);
+        assertEquals(ref[size-1], back[size-6]);
+
+        final int i = rnd.nextInt(size), j = rnd.nextInt(size);
+        final int n = rnd.nextInt(size);
+        final int copied = src.copyTo(i, trg, j, n);
+        assertEquals(Math.min(n, Math.min(size-i, size-j)), copied);
+        for (int k = 0; k < copied; k++) {
+          assertEquals(ref[i+k], trg.get(j+k));
+        }
+
+        src.copyTo(0, src, 1, size);
+        for (int k = 1; k < size; k++) assertEquals(ref[k-1], src.get(k));
+      }
+    }
+  }
+
+  @Test
+  void bulkOperations() {
+    final Random rnd = new Random();
+    final int size = 200;
+    final List<IntFunction<ByteArray>> builders = byteArrays().toList();
+    for (final IntFunction<ByteArray> ab: builders) {
+      for (final IntFunction<ByteArray> bb: builders) {
+        final ByteArray a = ab.apply(size);
+        final ByteArray b = bb.apply(size);
+        final byte[] ra = new byte[size], rb = new byte[size];
+        rnd.nextBytes(ra);
+        a.set(0, ra);
+        System.arraycopy(ra, 0, rb, 0, size);
+        b.set(0, rb);
+
+        final int i = rnd.nextInt(size/2), n = rnd.nextInt(size/2);
+        assertEquals(-1, a.mismatch(i, b, i, n));
+        assertTrue(a.equals(i, b, i, n));
+        assertEquals(0, a.compareUnsigned(i, n, b, i, n));
+        assertTrue(a.compareUnsigned(i, n, b, i, n+1) < 0);
+        if (n > 0) {
+          final int k = rnd.nextInt(n);
+          b.set(i+k, (byte) (rb[i+k] ^ 0x80));
+          assertEquals(k, a.mismatch(i, b, i, n));
+          assertFalse(a.equals(i, b, i, n));
+          assertEquals(
+            Integer.compare(ra[i+k] & 0xFF, (rb[i+k] ^ 0x80) & 0xFF),
+            a.compareUnsigned(i, n, b, i, n));
+          b.set(i+k, rb[i+k]);
+        }
+
+        rnd.nextBytes(rb);
+        b.set(0, rb);
+        final int j = rnd.nextInt(size/2);
+        for (final BitOp op: BitOp.values()) {
+          a.combine(op, i, b, j, n);
+          for (int k = 0; k < n; k++) {
+            ra[i+k] = (byte) op.apply(ra[i+k], rb[j+k]);
+          }
+          for (int k = 0; k < size; k++) assertEquals(ra[k], a.get(k));
+        }
+
+        a.fill(i, i+n, (byte) 0x5A);
+        for (int k = 0; k < n; k++) assertEquals(0x5A, a.get(i+k));
+        a.fill64(i, i+n, 0x0807_0605_0403_0201L);
+        for (int k = 0; k < n; k++) assertEquals(1 + k%8, a.get(i+k));
+        if (i > 0) assertEquals(ra[i-1], a.get(i-1));
+        assertEquals(ra[i+n], a.get(i+n));
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("byteArrays")
+  void atomicAccess(IntFunction<ByteArray> arrayBuilder)
+  throws InterruptedException {
+    final int THREADS = 4, TIMES = 10_000;
+    final ByteArray arr = arrayBuilder.apply(64);
+    final Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int bit = t;
+      threads[t] = new Thread(() -> {
+        for (int k = 0; k < TIMES; k++) {
+          arr.getAndAdd64(8, 1);
+          arr.getAndAdd32(20, 3);
+          int v;
+          do {v = arr.get32Volatile(24);}
+          while (!arr.compareAndSet32(24, v, v+2));
+        }
+        arr.getAndBitwiseOr64(32, 1L << (60+bit));
+        arr.getAndBitwiseAnd64(40, ~(1L << bit));
+      });
+    }
+    arr.set64Release(40, -1L);
+    for (final Thread t: threads) t.start();
+    for (final Thread t: threads) t.join();
+    assertEquals(THREADS*TIMES, arr.get64Acquire(8));
+    assertEquals(3*THREADS*TIMES, arr.get32(20));
+    assertEquals(2*THREADS*TIMES, arr.get32Acquire(24));
+    assertEquals(0xFL << 60, arr.get64Volatile(32));
+    assertEquals(~0xFL, arr.get64(40));
+  }
+
+  @Test
+  void misalignedAtomicAccess() {
+    final ByteArray arr = ByteArray.unchecked(new byte[64]);
+    assertThrows(IllegalStateException.class, () -> arr.getAndAdd64(4, 1));
+    assertThrows(IllegalStateException.class, () -> arr.get32Volatile(2));
+    assertEquals(0, arr.subarray(4, 64).getAndAdd64(4, 1));
+  }
+
   private void correctAccess(ByteArray main,
       ByteArray arr, int init, int end, int off, Word word) {
     //System.err.println(init + "-" + end + ":" + off + "[" + word + "]");
@@ -0,0 +1,55 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ByteDrainTest {
+
+  static final Random rnd = new Random();
+
+  @Test
+  void drainOnChunks() {
+    final ByteDrain.OnChunks drain = new ByteDrain.OnChunks(3);
+    final int n = 1000;
+    final long[] ref = new long[n];
+    for (int i = 0; i < n; i++) {
+      ref[i] = rnd.nextLong();
+      drain.drain((byte) ref[i]);
+      drain.drain((short) ref[i]);
+      drain.drain((int) ref[i]);
+      drain.drain(ref[i]);
+    }
+    assertEquals(15*n, drain.used());
+    final ByteFlux flux = new ByteFlux.OnByteArray(drain.byteArray());
+    for (int i = 0; i < n; i++) {
+      assertEquals((byte) ref[i], flux.nextByte());
+      assertEquals((short) ref[i], flux.nextShort());
+      assertEquals((int) ref[i], flux.nextInt());
+      assertEquals(ref[i], flux.nextLong());
+    }
+    assertEquals(0, flux.remaining());
+  }
+
+  @Test
+  void drainManyChunks() {
+    final ByteDrain.OnChunks drain = new ByteDrain.OnChunks(3);
+    final int n = 1 << 18;
+    for (int i = 0; i < n; i++) drain.drain(i);
+    assertEquals(4*n, drain.used());
+    final ByteArray drained = drain.byteArray();
+    for (int i = 0; i < n; i++) assertEquals(i, drained.get32(4*i));
+  }
+
+  @Test
+  void chunksAllocatedOnDemand() {
+    final ChunkedByteArray st = new ChunkedByteArray(3, 9);
+    assertEquals(16, st.capacity());
+    st.grow(17);
+    assertEquals(24, st.capacity());
+    st.grow(25);
+    assertEquals(32, st.capacity());
+    assertEquals(0, st.getLong(24));
+  }
+}
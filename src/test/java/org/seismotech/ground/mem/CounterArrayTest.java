@@ -0,0 +1,51 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CounterArrayTest {
+
+  static final Random rnd = new Random();
+
+  @Test
+  void saturateAndHalve() {
+    for (int width = 1; width <= PacketArray.MAX_WIDTH_64; width++) {
+      final int n = 1 + rnd.nextInt(500);
+      final CounterArray cs = new CounterArray(width, n);
+      final long max = cs.max();
+      final long[] ref = new long[n];
+      for (int t = 0; t < 5000; t++) {
+        final int i = rnd.nextInt(n);
+        if (rnd.nextInt(8) == 0) {
+          final long d = rnd.nextLong() >> rnd.nextInt(64);
+          assertEquals(ref[i], cs.add(i, d));
+          ref[i] = (d >= 0) ? (d >= max - ref[i] ? max : ref[i] + d)
+            : (d <= -ref[i] ? 0 : ref[i] + d);
+        } else {
+          assertEquals(ref[i] < max, cs.increment(i));
+          if (ref[i] < max) ref[i]++;
+        }
+      }
+      for (int i = 0; i < n; i++) assertEquals(ref[i], cs.get(i));
+      cs.halve();
+      for (int i = 0; i < n; i++) assertEquals(ref[i] >>> 1, cs.get(i));
+      cs.clear();
+      for (int i = 0; i < n; i++) assertEquals(0, cs.get(i));
+    }
+  }
+
+  @Test
+  void concurrentIncrements() {
+    final int n = 777, threads = 8;
+    final CounterArray cs = new CounterArray(8, n);
+    IntStream.range(0, threads).parallel().forEach(th -> {
+      for (int k = 0; k < 20; k++) {
+        for (int i = 0; i < n; i++) cs.increment(i);
+      }
+    });
+    for (int i = 0; i < n; i++) assertEquals(160, cs.get(i));
+  }
+}
@@ -0,0 +1,111 @@
+package org.seismotech.ground.mem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuckooFilterTest {
+
+  static final Random rnd = new Random();
+
+  @ParameterizedTest
+  @ValueSource(ints = {8, 16})
+  void noFalseNegatives(int f) {
+    final CuckooFilter cf = new CuckooFilter(
+      ByteArray.on(new byte[CuckooFilter.storeSize(f, 10)]), f, 10);
+    final List<Long> added = new ArrayList<>();
+    for (int t = 0; t < 20_000; t++) {
+      if (added.isEmpty() || rnd.nextInt(5) < 3) {
+        final long h = rnd.nextLong();
+        if (cf.add(h)) added.add(h);
+        else assertTrue(cf.isFull());
+      } else {
+        final long h = added.remove(rnd.nextInt(added.size()));
+        assertTrue(cf.remove(h));
+      }
+      assertEquals(added.size(), cf.size());
+      if (t % 1000 == 0) for (final long h: added) {
+        assertTrue(cf.mightContain(h));
+      }
+    }
+    for (final long h: added) assertTrue(cf.mightContain(h));
+    for (final long h: added) assertTrue(cf.remove(h));
+    assertEquals(0, cf.size());
+  }
+
+  @Test
+  void fillsUp() {
+    final CuckooFilter cf = new CuckooFilter(
+      ByteArray.on(new byte[CuckooFilter.storeSize(16, 8)]), 16, 8);
+    final List<Long> added = new ArrayList<>();
+    while (!cf.isFull()) {
+      final long h = rnd.nextLong();
+      assertTrue(cf.add(h));
+      added.add(h);
+    }
+    //High load before the first failure
+    assertTrue(added.size() > 0.9 * CuckooFilter.SLOTS * cf.buckets(),
+      "load " + added.size());
+    assertFalse(cf.add(rnd.nextLong()));
+    for (final long h: added) assertTrue(cf.mightContain(h));
+    //Room in a bucket of the fingerprint kept aside takes it back
+    int removed = 0;
+    while (cf.isFull()) assertTrue(cf.remove(added.get(removed++)));
+    assertEquals(added.size() - removed, cf.size());
+    for (int i = removed; i < added.size(); i++) {
+      assertTrue(cf.mightContain(added.get(i)));
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(doubles = {0.03, 0.001})
+  void falsePositives(double fpp) {
+    final int n = 100_000;
+    final CuckooFilter cf = CuckooFilter.create(n, fpp);
+    for (int i = 0; i < n; i++) assertTrue(cf.add(rnd.nextLong()));
+    int fp = 0;
+    for (int i = 0; i < n; i++) if (cf.mightContain(rnd.nextLong())) fp++;
+    assertTrue(fp <= 1.5 * fpp * n, "false positives: " + fp);
+  }
+
+  @Test
+  void serialization() {
+    final CuckooFilter cf = CuckooFilter.create(1000, 0.01);
+    final long[] hs = new long[1000];
+    for (int i = 0; i < hs.length; i++) cf.add(hs[i] = rnd.nextLong());
+    final int size = cf.serializedSize();
+    final ByteArray trg = ByteArray.on(new byte[size + 8]);
+    assertEquals(size, cf.serialize(trg, 8));
+    final CuckooFilter read = new CuckooFilter(trg, 8);
+    assertEquals(cf.size(), read.size());
+    assertEquals(cf.buckets(), read.buckets());
+    for (final long h: hs) assertTrue(read.mightContain(h));
+    for (final long h: hs) assertTrue(read.remove(h));
+    assertEquals(0, read.size());
+    assertThrows(IllegalArgumentException.class,
+      () -> new CuckooFilter(trg, 0));
+    assertThrows(IllegalArgumentException.class,
+      () -> cf.serialize(trg, 9));
+    assertThrows(IllegalArgumentException.class,
+      () -> CuckooFilter.storeSize(12, 3));
+  }
+
+  @Test
+  void largestShapes() {
+    assertEquals(1 << 30,
+      CuckooFilter.storeSize(8, CuckooFilter.MAX_LOG2_BUCKETS));
+    assertEquals(1 << 30,
+      CuckooFilter.storeSize(16, CuckooFilter.MAX_LOG2_BUCKETS - 1));
+    assertThrows(IllegalArgumentException.class,
+      () -> CuckooFilter.storeSize(8, CuckooFilter.MAX_LOG2_BUCKETS + 1));
+    assertThrows(IllegalArgumentException.class,
+      () -> CuckooFilter.storeSize(16, CuckooFilter.MAX_LOG2_BUCKETS));
+    assertThrows(IllegalArgumentException.class,
+      () -> new CuckooFilter(ByteArray.on(new byte[64]), 16, 28));
+  }
+}
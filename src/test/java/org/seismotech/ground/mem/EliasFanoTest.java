@@ -0,0 +1,109 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.seismotech.ground.cursor.CursorOf;
+
+class EliasFanoTest {
+
+  static final Random rnd = new Random();
+
+  static long[] sorted(int n, long u) {
+    final long[] xs = new long[n];
+    for (int i = 0; i < n; i++) xs[i] = Math.floorMod(rnd.nextLong(), u);
+    Arrays.sort(xs);
+    return xs;
+  }
+
+  static EliasFano build(long[] xs, long u) {
+    final EliasFano.Builder b = new EliasFano.Builder(xs.length, u);
+    for (final long x: xs) b.add(x);
+    return b.build();
+  }
+
+  static void check(long[] xs, EliasFano ef) {
+    assertEquals(xs.length, ef.size());
+    for (int i = 0; i < xs.length; i++) assertEquals(xs[i], ef.get(i));
+    final CursorOf.Longs it = ef.longs();
+    for (int i = 0; i < xs.length; i++) {
+      assertTrue(it.advance());
+      assertEquals(xs[i], it.longValue());
+    }
+    assertFalse(it.advance());
+  }
+
+  static int nextGEQ(long[] xs, long x) {
+    int i = 0;
+    while (i < xs.length && xs[i] < x) i++;
+    return i;
+  }
+
+  @ParameterizedTest
+  @ValueSource(longs = {1, 7, 1000, 1L << 20, 1L << 40, Long.MAX_VALUE})
+  void accessAndSearch(long u) {
+    for (final int n: new int[] {0, 1, 2, 63, 64, 65, 1000}) {
+      final long[] xs = sorted(n, u);
+      final EliasFano ef = build(xs, u);
+      check(xs, ef);
+      for (int t = 0; t < 200; t++) {
+        final long x = Math.floorMod(rnd.nextLong(), u);
+        assertEquals(nextGEQ(xs, x), ef.nextGEQ(x));
+      }
+      for (final long x: xs) {
+        assertEquals(nextGEQ(xs, x), ef.nextGEQ(x));
+        assertEquals(nextGEQ(xs, x+1), ef.nextGEQ(x+1));
+      }
+      assertEquals(0, ef.nextGEQ(-5));
+      assertEquals(n, ef.nextGEQ(u));
+    }
+  }
+
+  @Test
+  void compact() {
+    final int n = 10_000;
+    final long u = 1L << 32;
+    final EliasFano ef = build(sorted(n, u), u);
+    //2 + log2(u/n) bits per value, plus the header
+    assertTrue(ef.byteArray().size() <= 32 + n * (2 + 19) / 8 + 16);
+  }
+
+  @Test
+  void serialization() {
+    final long u = 12345;
+    final long[] xs = sorted(777, u);
+    final EliasFano ef = EliasFano.of(new CursorOf.Longs() {
+        int i = -1;
+        @Override public boolean advance() {return ++i < xs.length;}
+        @Override public long longValue() {return xs[i];}
+      }, xs.length, u);
+    check(xs, ef);
+    final int size = EliasFano.serializedSize(xs.length, u);
+    final ByteArray trg = ByteArray.on(new byte[size + 13]);
+    assertEquals(size, ef.serialize(trg, 13));
+    final EliasFano read = new EliasFano(trg, 13);
+    check(xs, read);
+    assertEquals(u, read.universe());
+    assertThrows(IllegalArgumentException.class,
+      () -> new EliasFano(trg, 0));
+    assertThrows(IllegalArgumentException.class,
+      () -> ef.serialize(ByteArray.on(new byte[size - 1]), 0));
+  }
+
+  @Test
+  void illegalValues() {
+    final EliasFano.Builder b = new EliasFano.Builder(2, 100);
+    b.add(50);
+    assertThrows(IllegalArgumentException.class, () -> b.add(49));
+    assertThrows(IllegalArgumentException.class, () -> b.add(100));
+    assertThrows(IllegalStateException.class, () -> b.build());
+    b.add(50);
+    assertThrows(IllegalStateException.class, () -> b.add(60));
+    check(new long[] {50, 50}, b.build());
+  }
+}
@@ -0,0 +1,95 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.seismotech.ground.cursor.CursorOf;
+
+class FrameOfReferenceTest {
+
+  static final Random rnd = new Random();
+
+  static long[] randomValues(int n, int bits, boolean sorted) {
+    final long base = rnd.nextLong();
+    final long[] xs = new long[n];
+    for (int i = 0; i < n; i++) {
+      final long x = (bits == 64) ? rnd.nextLong()
+        : rnd.nextLong() & ~(-1L << bits);
+      xs[i] = sorted ? ((i == 0) ? base : xs[i-1] + x) : base + x;
+    }
+    return xs;
+  }
+
+  static void check(long[] xs, FrameOfReference fr) {
+    final int n = xs.length;
+    assertEquals(n, fr.size());
+    for (int i = 0; i < n; i++) assertEquals(xs[i], fr.get(i));
+    final CursorOf.Longs it = fr.longs();
+    for (int i = 0; i < n; i++) {
+      assertTrue(it.advance());
+      assertEquals(xs[i], it.longValue());
+    }
+    assertFalse(it.advance());
+    final int from = rnd.nextInt(n + 1);
+    final int len = rnd.nextInt(n - from + 1);
+    final long[] ys = new long[len + 2];
+    fr.get(from, ys, 2, len);
+    for (int k = 0; k < len; k++) assertEquals(xs[from+k], ys[2+k]);
+  }
+
+  @Test
+  void roundTrip() {
+    for (final int bits: new int[] {0, 1, 7, 20, 33, 57, 58, 64}) {
+      for (final boolean sorted: new boolean[] {false, true}) {
+        for (int t = 0; t < 10; t++) {
+          final int n = rnd.nextInt(500);
+          final long[] xs = randomValues(n, bits, sorted);
+          final FrameOfReference.Builder builder
+            = new FrameOfReference.Builder().delta(sorted);
+          if (rnd.nextBoolean()) builder.addAll(xs, 0, n);
+          else for (final long x: xs) builder.add(x);
+          final int size = builder.encodedSize();
+          final int off = rnd.nextInt(16);
+          final ByteArray st = ByteArray.unchecked(new byte[off + size]);
+          assertEquals(size, builder.encode(st, off));
+          final FrameOfReference fr = new FrameOfReference(st, off);
+          assertEquals(size, fr.encodedSize());
+          assertTrue(fr.entryWidth() <= Math.max(bits, 1)
+            || bits > PacketArray.MAX_WIDTH_64);
+          check(xs, fr);
+        }
+      }
+    }
+  }
+
+  @Test
+  void deltaShrinksSortedSequences() {
+    final long[] xs = new long[10_000];
+    for (int i = 1; i < xs.length; i++) {
+      xs[i] = xs[i-1] + 1000 + rnd.nextInt(16);
+    }
+    final FrameOfReference.Builder builder = new FrameOfReference.Builder()
+      .addAll(xs, 0, xs.length).delta(true);
+    final ByteDrain.OnChunks drain = new ByteDrain.OnChunks(10);
+    assertEquals(builder.encodedSize(), builder.encode(drain));
+    final FrameOfReference fr = new FrameOfReference(drain.byteArray(), 0);
+    assertTrue(fr.isDelta());
+    assertEquals(4, fr.entryWidth());
+    assertEquals(1000, fr.base());
+    check(xs, fr);
+    assertEquals(Arrays.stream(xs).sum(), sum(fr));
+  }
+
+  static long sum(FrameOfReference fr) {
+    long s = 0;
+    for (final CursorOf.Longs it = fr.longs(); it.advance(); ) {
+      s += it.longValue();
+    }
+    return s;
+  }
+}
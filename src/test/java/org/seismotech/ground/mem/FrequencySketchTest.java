@@ -0,0 +1,67 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrequencySketchTest {
+
+  static final Random rnd = new Random();
+
+  @Test
+  void neverUnderestimates() {
+    final FrequencySketch sketch
+      = new FrequencySketch(1000, 4, 8, Integer.MAX_VALUE);
+    final long[] keys = new long[500];
+    final int[] counts = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) keys[i] = rnd.nextLong();
+    for (int t = 0; t < 20_000; t++) {
+      final int i = (int) Math.min(keys.length - 1,
+        Math.abs(rnd.nextGaussian()) * keys.length / 4);
+      sketch.increment(keys[i]);
+      counts[i] = Math.min(255, counts[i] + 1);
+    }
+    int exact = 0;
+    for (int i = 0; i < keys.length; i++) {
+      assertTrue(counts[i] <= sketch.frequency(keys[i]));
+      if (counts[i] == sketch.frequency(keys[i])) exact++;
+    }
+    assertTrue(exact > keys.length * 3 / 4, "exact " + exact);
+  }
+
+  @Test
+  void admissionAndAging() {
+    final FrequencySketch sketch = new FrequencySketch(256);
+    final long hot = rnd.nextLong(), cold = rnd.nextLong();
+    for (int t = 0; t < 10; t++) sketch.increment(hot);
+    sketch.increment(cold);
+    assertEquals(10, sketch.frequency(hot));
+    assertTrue(sketch.admit(hot, cold));
+    assertFalse(sketch.admit(cold, hot));
+    //Saturation at 15
+    for (int t = 0; t < 20; t++) sketch.increment(hot);
+    assertEquals(15, sketch.frequency(hot));
+    sketch.age();
+    assertEquals(7, sketch.frequency(hot));
+    sketch.clear();
+    assertEquals(0, sketch.frequency(hot));
+  }
+
+  @Test
+  void automaticAging() {
+    final FrequencySketch sketch = new FrequencySketch(1 << 14, 4, 4, 100);
+    final long hot = rnd.nextLong();
+    for (int t = 0; t < 10; t++) sketch.increment(hot);
+    for (int t = 0; t < 89; t++) sketch.increment(rnd.nextLong());
+    assertEquals(10, sketch.frequency(hot));
+    sketch.increment(rnd.nextLong());
+    assertEquals(5, sketch.frequency(hot));
+  }
+
+  @Test
+  void illegalShape() {
+    assertThrows(IllegalArgumentException.class,
+      () -> new FrequencySketch(new CounterArray(4, 100), 30, 4, 10));
+  }
+}
@@ -0,0 +1,102 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HyperLogLogTest {
+
+  static final Random rnd = new Random();
+
+  static long[] hashes(int n) {
+    final long[] hs = new long[n];
+    for (int i = 0; i < n; i++) hs[i] = rnd.nextLong();
+    return hs;
+  }
+
+  static void assertClose(long expected, long actual, double relerr) {
+    assertTrue(Math.abs(actual - expected) <= relerr * expected + 1,
+      "expected " + expected + " but was " + actual);
+  }
+
+  static HyperLogLog copy(HyperLogLog hll) {
+    final ByteArray bs = ByteArray.on(new byte[hll.serializedSize()]);
+    hll.serialize(bs, 0);
+    return new HyperLogLog(bs, 0);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {10, 100, 1000, 10_000, 100_000, 1_000_000})
+  void accuracy(int n) {
+    final HyperLogLog hll = new HyperLogLog(14);
+    final long[] hs = hashes(n);
+    hll.addAll(hs, 0, n);
+    //Repeated elements do not count
+    for (int i = 0; i < n; i += 3) hll.add(hs[i]);
+    //Standard error of 1.04/sqrt(2^14) < 1%
+    assertClose(n, hll.cardinality(), 0.04);
+  }
+
+  @Test
+  void sparseToDense() {
+    final HyperLogLog hll = new HyperLogLog(10);
+    final long[] hs = hashes(5000);
+    int n = 0;
+    for (; hll.isSparse(); n++) hll.add(hs[n]);
+    assertTrue(n > 100);
+    assertClose(n, hll.cardinality(), 0.1);
+    //Converting from sparse gives the same registers as adding to dense
+    final HyperLogLog other = new HyperLogLog(10);
+    other.addAll(hs, 0, 2000);
+    for (int i = n; i < 5000; i++) hll.add(hs[i]);
+    final int size = hll.serializedSize();
+    final ByteArray a = ByteArray.on(new byte[size]);
+    final ByteArray b = ByteArray.on(new byte[size]);
+    hll.serialize(a, 0);
+    other.addAll(hs, 2000, 3000);
+    other.serialize(b, 0);
+    assertEquals(-1, a.mismatch(0, b, 0, size));
+  }
+
+  @Test
+  void merge() {
+    final int n = 20_000;
+    final long[] hs = hashes(n);
+    for (final int split: new int[] {5, 500, n/2}) {
+      final HyperLogLog all = new HyperLogLog(12);
+      final HyperLogLog a = new HyperLogLog(12), b = new HyperLogLog(12);
+      all.addAll(hs, 0, n);
+      a.addAll(hs, 0, split);
+      b.addAll(hs, split/2, n - split/2);
+      for (final HyperLogLog[] pair: new HyperLogLog[][] {{a, b}, {b, a}}) {
+        final HyperLogLog m = copy(pair[0]);
+        m.merge(pair[1]);
+        assertEquals(all.cardinality(), m.cardinality());
+      }
+    }
+    assertThrows(IllegalArgumentException.class,
+      () -> new HyperLogLog(12).merge(new HyperLogLog(13)));
+  }
+
+  @Test
+  void serialization() {
+    for (final int n: new int[] {0, 30, 50_000}) {
+      final HyperLogLog hll = new HyperLogLog(11);
+      hll.addAll(hashes(n), 0, n);
+      final int size = hll.serializedSize();
+      final ByteArray trg = ByteArray.on(new byte[size + 5]);
+      assertEquals(size, hll.serialize(trg, 5));
+      final HyperLogLog read = new HyperLogLog(trg, 5);
+      assertEquals(hll.isSparse(), read.isSparse());
+      assertEquals(hll.cardinality(), read.cardinality());
+      assertThrows(IllegalArgumentException.class,
+        () -> new HyperLogLog(trg, 0));
+      assertThrows(IllegalArgumentException.class,
+        () -> hll.serialize(trg, 6));
+    }
+    assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+  }
+}
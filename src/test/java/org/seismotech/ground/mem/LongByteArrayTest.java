@@ -0,0 +1,155 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongByteArrayTest {
+
+  static final Random rnd = new Random();
+
+  @Test
+  void arenaLifeCycle() {
+    final OffHeapArena arena = new OffHeapArena();
+    assertTrue(arena.isAlive());
+    arena.allocate(100);
+    arena.allocateByteArray(28);
+    assertEquals(128, arena.allocated());
+    arena.close();
+    assertFalse(arena.isAlive());
+    assertEquals(0, arena.allocated());
+    assertThrows(IllegalStateException.class, () -> arena.allocate(10));
+    arena.close();
+  }
+
+  @Test
+  void allocationRacingClose() throws InterruptedException {
+    for (int t = 0; t < 20; t++) {
+      final OffHeapArena arena = new OffHeapArena();
+      final Thread[] allocators = new Thread[4];
+      for (int k = 0; k < allocators.length; k++) {
+        allocators[k] = new Thread(() -> {
+          try {
+            for (;;) arena.allocate(1 << 16);
+          } catch (IllegalStateException e) {
+            //Closed
+          }
+        });
+        allocators[k].start();
+      }
+      Thread.sleep(1);
+      arena.close();
+      for (final Thread a: allocators) a.join();
+      assertEquals(0, arena.allocated());
+    }
+  }
+
+  @Test
+  void wordsAndViews() {
+    final int size = 1 << 12;
+    try (final OffHeapArena arena = new OffHeapArena()) {
+      final LongByteArray mem = arena.allocate(size);
+      assertEquals(size, mem.size());
+      for (long i = 0; i < size; i += 8) assertEquals(0, mem.get64(i));
+      final long[] ref = new long[size/8 - 1];
+      for (int i = 0; i < ref.length; i++) {
+        ref[i] = rnd.nextLong();
+        mem.set64(3 + 8L*i, ref[i]);
+      }
+      for (int i = 0; i < ref.length; i++) {
+        assertEquals(ref[i], mem.get64(3 + 8L*i));
+        assertEquals((int) ref[i], mem.get32(3 + 8L*i));
+      }
+      final ByteArray view = mem.byteArray(3, size);
+      for (int i = 0; i < ref.length; i++) {
+        assertEquals(ref[i], view.get64(8*i));
+      }
+
+      final LongByteArray tail = mem.subarray(size-5, size);
+      assertEquals(5, tail.size());
+      tail.cset64(0, -1L);
+      assertEquals(0xFF_FFFF_FFFFL, tail.pget64(0));
+      assertEquals(0xFFFF, tail.pget32(3));
+      assertEquals(0xFF, tail.pget16(4));
+      mem.clear(size-5, size-1);
+      assertEquals(0xFF_0000_0000L, tail.pget64(0));
+    }
+  }
+
+  @Test
+  void tooBigViews() {
+    try (final OffHeapArena arena = new OffHeapArena()) {
+      final LongByteArray mem = arena.allocate(16);
+      assertThrows(IllegalArgumentException.class,
+        () -> mem.byteArray(0, 1L + Integer.MAX_VALUE));
+    }
+  }
+
+  @Test
+  void flavors() {
+    try (final OffHeapArena unsafe = new OffHeapArena(ByteArray.Flavor.UNSAFE);
+        final OffHeapArena checked = new OffHeapArena(ByteArray.Flavor.FAST)) {
+      assertEquals(LongByteArray.UnsafeOnMemory.class,
+        unsafe.allocate(8).getClass());
+      assertEquals(ByteArray.UnsafeOnMemory.class,
+        unsafe.allocateByteArray(8).getClass());
+      assertEquals(LongByteArray.CheckedOnMemory.class,
+        checked.allocate(8).getClass());
+      assertEquals(ByteArray.CheckedOnMemory.class,
+        checked.allocateByteArray(8).getClass());
+    }
+  }
+
+  @Test
+  void checkedRanges() {
+    try (final OffHeapArena arena
+        = new OffHeapArena(ByteArray.Flavor.CHECKED)) {
+      final LongByteArray mem = arena.allocate(16);
+      assertThrows(IndexOutOfBoundsException.class, () -> mem.get(16));
+      assertThrows(IndexOutOfBoundsException.class, () -> mem.get(-1));
+      assertThrows(IndexOutOfBoundsException.class, () -> mem.get64(9));
+      assertThrows(IndexOutOfBoundsException.class, () -> mem.set32(13, 1));
+      assertThrows(IndexOutOfBoundsException.class, () -> mem.pget64(16));
+      assertThrows(IndexOutOfBoundsException.class, () -> mem.clear(8, 17));
+      assertThrows(IndexOutOfBoundsException.class,
+        () -> mem.subarray(4, 17));
+      assertThrows(IndexOutOfBoundsException.class,
+        () -> mem.byteArray(4, 17));
+      assertThrows(IndexOutOfBoundsException.class,
+        () -> mem.get(0, new byte[4], 2, 3));
+      mem.cset64(12, -1L);
+      assertEquals(0xFFFF_FFFFL, mem.pget64(12));
+
+      final ByteArray view = mem.byteArray(4, 16);
+      assertThrows(IndexOutOfBoundsException.class, () -> view.get64(5));
+      assertThrows(IndexOutOfBoundsException.class, () -> view.get(12));
+      assertThrows(IndexOutOfBoundsException.class,
+        () -> view.copyTo(13, ByteArray.checked(new byte[4]), 0, 4));
+      assertThrows(IllegalStateException.class, () -> view.get32Acquire(1));
+      view.set64Release(4, 7);
+      assertEquals(7, mem.get64(8));
+    }
+  }
+
+  @Test
+  void checkedAfterClose() {
+    final OffHeapArena arena = new OffHeapArena(ByteArray.Flavor.CHECKED);
+    final LongByteArray mem = arena.allocate(16);
+    final ByteArray view = arena.allocateByteArray(16);
+    final ByteArray other = ByteArray.checked(new byte[16]);
+    arena.close();
+    assertThrows(IllegalStateException.class, () -> mem.get(0));
+    assertThrows(IllegalStateException.class, () -> mem.set64(0, 1));
+    assertThrows(IllegalStateException.class, () -> mem.clear());
+    assertThrows(IllegalStateException.class, () -> view.get64(0));
+    assertThrows(IllegalStateException.class, () -> view.fill(0, 16, (byte) 1));
+    assertThrows(IllegalStateException.class,
+      () -> view.copyTo(0, other, 0, 16));
+    assertThrows(IllegalStateException.class,
+      () -> other.copyTo(0, view, 0, 16));
+  }
+}
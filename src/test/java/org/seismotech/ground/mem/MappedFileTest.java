@@ -0,0 +1,78 @@
+package org.seismotech.ground.mem;
+
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedFileTest {
+
+  static final Random rnd = new Random();
+
+  @TempDir
+  Path tmp;
+
+  @Test
+  void writeAndReadBack() throws IOException {
+    final Path file = tmp.resolve("words.bin");
+    final int n = 1000;
+    final long[] ref = new long[n];
+    for (int i = 0; i < n; i++) ref[i] = rnd.nextLong();
+
+    try (final MappedFile mf = MappedFile.open(
+           file, MappedFile.Mode.READ_WRITE, 0, 8*n)) {
+      final ByteArray arr = mf.byteArray();
+      assertEquals(8*n, arr.size());
+      for (int i = 0; i < n; i++) arr.set64(8*i, ref[i]);
+      mf.force();
+    }
+    assertEquals(8*n, Files.size(file));
+
+    try (final MappedFile mf = MappedFile.open(
+           file, MappedFile.Mode.READ_ONLY).preload()) {
+      final ByteArray arr = mf.byteArray(ByteArray.Flavor.CHECKED);
+      for (int i = 0; i < n; i++) assertEquals(ref[i], arr.get64(8*i));
+      assertThrows(ReadOnlyBufferException.class, () -> arr.set64(0, 1));
+    }
+
+    try (final MappedFile mf = MappedFile.open(
+           file, MappedFile.Mode.READ_ONLY, 8*(n-1), -1)) {
+      assertEquals(ref[n-1], mf.byteArray().get64(0));
+    }
+  }
+
+  @Test
+  void closedOrReadOnlyMisuse() throws IOException {
+    final Path file = tmp.resolve("small.bin");
+    Files.write(file, new byte[64]);
+    final MappedFile mf = MappedFile.open(file, MappedFile.Mode.READ_ONLY);
+    assertThrows(IllegalArgumentException.class,
+      () -> mf.byteArray(ByteArray.Flavor.UNSAFE));
+    final ByteArray arr = mf.byteArray();
+    assertEquals(64, arr.size());
+    mf.close();
+    //Still mapped while reachable
+    assertEquals(0, arr.get64(56));
+    assertThrows(IllegalStateException.class, () -> mf.byteArray());
+    assertThrows(IllegalStateException.class,
+      () -> mf.byteArray(ByteArray.Flavor.CHECKED));
+    assertThrows(IllegalStateException.class, () -> mf.preload());
+    assertThrows(IllegalStateException.class, () -> mf.isLoaded());
+    assertThrows(IllegalStateException.class, () -> mf.force());
+    assertThrows(IllegalStateException.class, () -> mf.force(0, 8));
+    mf.close();
+    mf.unsafeUnmap();
+
+    final MappedFile unmapped
+      = MappedFile.open(file, MappedFile.Mode.READ_ONLY);
+    unmapped.unsafeUnmap();
+    assertThrows(IllegalStateException.class, () -> unmapped.byteArray());
+    assertEquals(64, unmapped.size());
+  }
+}
@@ -4,15 +4,19 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import org.seismotech.ground.cursor.CursorOf;
 import org.seismotech.ground.math.DMath;
 
 class PacketArrayTest {
@@ -123,4 +127,152 @@ class PacketArrayTest {
       }
     }
   }
+
+  @ParameterizedTest
+  @MethodSource("models")
+  void bulkGetSet(Model model) {
+    for (int width = 1; width <= PacketCodec.MAX_WIDTH; width++) {
+      final long mask = ~(-1L << width);
+      for (int off = 0; off <= 8; off++) {
+        for (int t = 0; t < 20; t++) {
+          final int size = 1 + rnd.nextInt(400);
+          final PacketArray store = model.newArray(width, off, size);
+          final long[] ref = new long[size];
+          for (int i = 0; i < size; i++) {
+            ref[i] = rnd.nextLong() & mask;
+            store.set(i, ref[i]);
+          }
+          final int from = rnd.nextInt(size);
+          final int n = rnd.nextInt(size - from + 1);
+          final long[] ls = new long[n + 1];
+          store.get(from, ls, 1, n);
+          for (int k = 0; k < n; k++) assertEquals(ref[from+k], ls[1+k]);
+          if (width <= 32) {
+            final int[] is = new int[n];
+            store.get(from, is, 0, n);
+            for (int k = 0; k < n; k++) assertEquals((int) ref[from+k], is[k]);
+          }
+
+          for (int k = 0; k < n; k++) {
+            ls[1+k] = rnd.nextLong();
+            ref[from+k] = ls[1+k] & mask;
+          }
+          store.set(from, ls, 1, n);
+          for (int i = 0; i < size; i++) assertEquals(ref[i], store.get(i));
+          if (width <= 32) {
+            final int[] is = new int[n];
+            for (int k = 0; k < n; k++) {
+              is[k] = rnd.nextInt();
+              ref[from+k] = Bits.uint(is[k]) & mask;
+            }
+            store.set(from, is, 0, n);
+            for (int i = 0; i < size; i++) assertEquals(ref[i], store.get(i));
+          }
+        }
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("models")
+  void sequentialCursorAndWriter(Model model) {
+    for (int width = 1; width <= PacketArray.MAX_WIDTH_64; width++) {
+      final long mask = ~(-1L << width);
+      for (int off = 0; off <= 8; off++) {
+        for (int t = 0; t < 20; t++) {
+          final int size = 1 + rnd.nextInt(300);
+          final PacketArray store = model.newArray(width, off, size);
+          final long[] ref = new long[size];
+          for (int i = 0; i < size; i++) {
+            ref[i] = rnd.nextLong() & mask;
+            store.set(i, ref[i]);
+          }
+          final int init = rnd.nextInt(size);
+          final int end = init + rnd.nextInt(size - init + 1);
+
+          final CursorOf.Longs ls = store.longs(init, end);
+          for (int i = init; i < end; i++) {
+            assertTrue(ls.advance());
+            assertEquals(ref[i], ls.longValue());
+          }
+          assertFalse(ls.advance());
+          final CursorOf.Ints is = store.ints(init, end);
+          for (int i = init; i < end; i++) {
+            assertTrue(is.advance());
+            assertEquals((int) ref[i], is.intValue());
+          }
+          assertFalse(is.advance());
+
+          final PacketArray.Writer w = store.writer(init);
+          for (int i = init; i < end; i++) {
+            ref[i] = rnd.nextLong();
+            w.put(ref[i]);
+            ref[i] &= mask;
+          }
+          assertEquals(end, w.position());
+          w.flush();
+          for (int i = 0; i < size; i++) assertEquals(ref[i], store.get(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  void concurrentMatchesPlain() {
+    for (int width = 1; width <= PacketArray.MAX_WIDTH_64; width++) {
+      final long mask = ~(-1L << width);
+      final int size = 1 + rnd.nextInt(300);
+      final long[] ref = new long[size];
+      final PacketArray.Concurrent arr = PacketArray.concurrent(
+        ByteArray.unchecked(
+          new byte[PacketArray.concurrentSize(width, size)]),
+        width, size);
+      for (int c = 0; c < 2000; c++) {
+        final int i = rnd.nextInt(size);
+        final long v = rnd.nextLong() >> rnd.nextInt(64);
+        switch (c % 5) {
+        case 0: arr.set(i, v); ref[i] = v & mask; break;
+        case 1: arr.orblend(i, v); ref[i] |= v & mask; break;
+        case 2:
+          final long expect = rnd.nextBoolean() ? ref[i] : v;
+          assertEquals((expect & mask) == ref[i],
+            arr.compareAndSet(i, expect, ~v));
+          if ((expect & mask) == ref[i]) ref[i] = ~v & mask;
+          break;
+        case 3:
+          assertEquals(ref[i], arr.getAndAdd(i, v));
+          ref[i] = (v >= 0)
+            ? (v >= mask - ref[i] ? mask : ref[i] + v)
+            : (v <= -ref[i] ? 0 : ref[i] + v);
+          break;
+        default: assertEquals(ref[i], arr.getAndSet(i, v)); ref[i] = v & mask;
+        }
+        assertEquals(ref[i], arr.get(i));
+      }
+      for (int i = 0; i < size; i++) assertEquals(ref[i], arr.get(i));
+      final int init = rnd.nextInt(size), end = init + rnd.nextInt(size-init);
+      arr.clear(init, end);
+      final PacketArray sub = arr.subarray(init, size);
+      for (int i = 0; i < size; i++) {
+        assertEquals(init <= i && i < end ? 0 : ref[i], arr.get(i));
+        if (init <= i) assertEquals(arr.get(i), sub.get(i - init));
+      }
+    }
+    assertThrows(IllegalArgumentException.class,
+      () -> PacketArray.concurrent(ByteArray.unchecked(new byte[8]), 5, 13));
+  }
+
+  @Test
+  void concurrentCounters() {
+    final int size = 1000, width = 6, threads = 8, adds = 20_000;
+    final PacketArray.Concurrent counters = PacketArray.concurrent(
+      ByteArray.unchecked(new byte[PacketArray.concurrentSize(width, size)]),
+      width, size);
+    IntStream.range(0, threads).parallel().forEach(th -> {
+      for (int k = 0; k < adds; k++) counters.getAndAdd(k % 10, 1);
+      for (int k = 0; k < size; k++) counters.getAndAdd(k, 1);
+    });
+    for (int i = 0; i < 10; i++) assertEquals(63, counters.get(i));
+    for (int i = 10; i < size; i++) assertEquals(threads, counters.get(i));
+  }
 }
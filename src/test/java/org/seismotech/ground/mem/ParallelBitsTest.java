@@ -0,0 +1,78 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelBitsTest {
+
+  static final Random rnd = new Random();
+
+  static final int SIZE = 5 * ParallelBits.THRESHOLD + 12345;
+
+  static BitArray randomBits(int ones) {
+    final BitArray bits = ByteArray.unchecked(new byte[SIZE/8 + 8])
+      .bitArray(0, SIZE);
+    for (int k = 0; k < ones; k++) bits.set(rnd.nextInt(SIZE));
+    return bits;
+  }
+
+  @Test
+  void popcntAndNext1() {
+    final BitArray bits = randomBits(1000);
+    for (int t = 0; t < 20; t++) {
+      final int init = rnd.nextInt(SIZE);
+      final int end = init + rnd.nextInt(SIZE - init + 1);
+      assertEquals(bits.popcnt(init, end),
+        ParallelBits.popcnt(bits, init, end));
+      assertEquals(bits.next1(init, end), ParallelBits.next1(bits, init, end));
+    }
+    assertEquals(bits.popcnt(), ParallelBits.popcnt(bits));
+    final BitArray empty = randomBits(0);
+    assertEquals(SIZE, ParallelBits.next1(empty, 0, SIZE));
+    empty.set(SIZE-1);
+    assertEquals(SIZE-1, ParallelBits.next1(empty, 3, SIZE));
+  }
+
+  @Test
+  void clearAndCombine() {
+    for (final BitOp op: BitOp.values()) {
+      final BitArray a = randomBits(100_000), b = randomBits(100_000);
+      final BitArray expected = randomBits(0);
+      expected.combine(BitOp.OR, 0, a, 0, SIZE);
+      final int i = rnd.nextInt(1000), j = rnd.nextInt(1000);
+      final int len = SIZE - Math.max(i, j) - rnd.nextInt(1000);
+      expected.combine(op, i, b, j, len);
+      ParallelBits.combine(op, a, i, b, j, len);
+      assertEquals(0, expected.popcnt(BitOp.XOR, 0, a, 0, SIZE));
+
+      final int init = rnd.nextInt(SIZE/2), end = SIZE - rnd.nextInt(SIZE/2);
+      expected.clear(init, end);
+      ParallelBits.clear(a, init, end);
+      assertEquals(0, expected.popcnt(BitOp.XOR, 0, a, 0, SIZE));
+    }
+  }
+
+  /** Updates on a BitArray that is not word aligned in its store
+   * must not lose the bits near the chunk boundaries. */
+  @Test
+  void unalignedUpdates() {
+    for (int t = 0; t < 4; t++) {
+      final BitArray base = randomBits(0);
+      final int shift = 1 + rnd.nextInt(63);
+      final BitArray bits = base.subarray(shift, SIZE);
+      final int n = bits.size();
+      final BitArray ones = randomBits(0);
+      ones.not(0, SIZE);
+      ParallelBits.combine(BitOp.OR, bits, 0, ones, 0, n);
+      assertEquals(n, bits.popcnt());
+      final BitArray zeros = randomBits(0);
+      ParallelBits.combine(BitOp.AND, bits, 5, zeros, 7, n - 5);
+      assertEquals(5, bits.popcnt());
+      bits.not(0, n);
+      ParallelBits.clear(bits, 3, n);
+      assertEquals(0, bits.popcnt());
+    }
+  }
+}
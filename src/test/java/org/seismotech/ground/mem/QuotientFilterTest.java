@@ -0,0 +1,118 @@
+package org.seismotech.ground.mem;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.seismotech.ground.cursor.CursorOf;
+
+class QuotientFilterTest {
+
+  static final Random rnd = new Random();
+
+  /** Fingerprints of the filter, that should match the model. */
+  static void check(TreeSet<Long> model, QuotientFilter qf) {
+    assertEquals(model.size(), qf.size());
+    final CursorOf.Longs fps = qf.fingerprints();
+    for (final long fp: model) {
+      assertTrue(fps.advance());
+      assertEquals(fp, fps.longValue());
+    }
+    assertFalse(fps.advance());
+  }
+
+  @Test
+  void matchesExactModel() {
+    //Few bits, to have long clusters and wrap around
+    for (int t = 0; t < 50; t++) {
+      final int q = 3 + rnd.nextInt(6), r = 1 + rnd.nextInt(4);
+      final QuotientFilter qf = new QuotientFilter(q, r);
+      final int p = q + r;
+      final TreeSet<Long> model = new TreeSet<>();
+      for (int c = 0; c < 3000; c++) {
+        final long h = rnd.nextLong();
+        final long fp = h >>> -p;
+        switch (rnd.nextInt(3)) {
+        case 0:
+          if (model.size() < qf.capacity()) {
+            assertEquals(model.add(fp), qf.add(h));
+          }
+          break;
+        case 1: assertEquals(model.remove(fp), qf.remove(h)); break;
+        default: assertEquals(model.contains(fp), qf.mightContain(h));
+        }
+        if (c % 100 == 0) check(model, qf);
+      }
+      check(model, qf);
+      for (final long fp: model) {
+        assertTrue(qf.mightContain(fp << -p));
+      }
+    }
+  }
+
+  @Test
+  void growKeepsFingerprints() {
+    final QuotientFilter qf = new QuotientFilter(4, 20);
+    final TreeSet<Long> model = new TreeSet<>();
+    for (int i = 0; i < 1000; i++) {
+      final long h = rnd.nextLong();
+      model.add(h >>> -24);
+      qf.add(h);
+    }
+    assertEquals(24, qf.quotientBits() + qf.remainderBits());
+    assertTrue(qf.quotientBits() >= 10);
+    check(model, qf);
+    final QuotientFilter tiny = new QuotientFilter(2, 1);
+    tiny.add(0);
+    tiny.add(-1);
+    tiny.add(1L << 62);
+    assertThrows(IllegalStateException.class, () -> tiny.add(1L << 61));
+  }
+
+  @Test
+  void addAllSorted() {
+    final QuotientFilter qf = new QuotientFilter(6, 16);
+    final TreeSet<Long> model = new TreeSet<>();
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 30; i++) {
+        final long h = rnd.nextLong();
+        model.add(h >>> -22);
+        qf.add(h);
+      }
+      final long[] hs = new long[100 + rnd.nextInt(500)];
+      for (int i = 0; i < hs.length; i++) {
+        hs[i] = rnd.nextBoolean() ? rnd.nextLong() : -rnd.nextInt(1000);
+      }
+      hs[0] = hs[hs.length-1];
+      //Sorted as unsigned longs
+      final long[] sorted = Arrays.stream(hs)
+        .map(h -> h ^ Long.MIN_VALUE).sorted()
+        .map(h -> h ^ Long.MIN_VALUE).toArray();
+      for (final long h: sorted) model.add(h >>> -22);
+      qf.addAllSorted(sorted, 0, sorted.length);
+      check(model, qf);
+      for (int i = 0; i < 100; i++) {
+        final long h = rnd.nextLong();
+        assertEquals(model.remove(h >>> -22), qf.remove(h));
+      }
+      check(model, qf);
+    }
+    final long[] unsorted = {5L << 50, 3L << 50};
+    assertThrows(IllegalArgumentException.class,
+      () -> qf.addAllSorted(unsorted, 0, 2));
+    check(model, qf);
+  }
+
+  @Test
+  void falsePositives() {
+    final int n = 100_000;
+    final QuotientFilter qf = QuotientFilter.create(n, 0.01);
+    for (int i = 0; i < n; i++) qf.add(rnd.nextLong());
+    int fp = 0;
+    for (int i = 0; i < n; i++) if (qf.mightContain(rnd.nextLong())) fp++;
+    assertTrue(fp < 0.015 * n, "false positives: " + fp);
+  }
+}
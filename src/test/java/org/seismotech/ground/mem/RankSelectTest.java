@@ -0,0 +1,45 @@
+package org.seismotech.ground.mem;
+
+import java.util.Random;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.seismotech.ground.math.DMath;
+
+class RankSelectTest {
+
+  static final Random rnd = new Random();
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 10, 50, 99, 100})
+  void rankSelect(int percent) {
+    for (final int size: new int[] {0, 1, 63, 2048, 2049, 100_000}) {
+      final int off = rnd.nextInt(8);
+      final BitArray bits = ByteArray
+        .unchecked(new byte[DMath.cdiv(off + size, 8)])
+        .bitArray(off, off + size);
+      for (int i = 0; i < size; i++) {
+        if (rnd.nextInt(100) < percent) bits.set(i);
+      }
+      final RankSelect rs = new RankSelect(bits);
+      int ones = 0;
+      for (int i = 0; i < size; i++) {
+        assertEquals(ones, rs.rank1(i));
+        assertEquals(i - ones, rs.rank0(i));
+        if (bits.has(i)) {
+          assertEquals(i, rs.select1(ones));
+          ones++;
+        } else {
+          assertEquals(i, rs.select0(i - ones));
+        }
+      }
+      assertEquals(ones, rs.rank1(size));
+      assertEquals(ones, rs.ones());
+      assertEquals(size - ones, rs.zeros());
+      assertEquals(size, rs.select1(ones));
+      assertEquals(size, rs.select0(size - ones));
+    }
+  }
+}
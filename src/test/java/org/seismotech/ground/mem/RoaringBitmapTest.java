@@ -0,0 +1,178 @@
+package org.seismotech.ground.mem;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoaringBitmapTest {
+
+  static final Random rnd = new Random();
+
+  static final int CHUNKS = 6;
+
+  /** Random set on CHUNKS chunks, with sparse, dense and clustered chunks. */
+  static BitSet randomSet() {
+    final BitSet set = new BitSet();
+    for (int c = 0; c < CHUNKS; c++) {
+      final int base = c << 16;
+      switch (rnd.nextInt(4)) {
+      case 0: break;
+      case 1:
+        for (int k = rnd.nextInt(5000); k > 0; k--) {
+          set.set(base + rnd.nextInt(1 << 16));
+        }
+        break;
+      case 2:
+        for (int k = 20_000 + rnd.nextInt(30_000); k > 0; k--) {
+          set.set(base + rnd.nextInt(1 << 16));
+        }
+        break;
+      default:
+        for (int k = rnd.nextInt(20); k > 0; k--) {
+          final int init = base + rnd.nextInt(1 << 16);
+          set.set(init, Math.min(base + (1 << 16), init + rnd.nextInt(5000)));
+        }
+      }
+    }
+    return set;
+  }
+
+  static RoaringBitmap roaring(BitSet set) {
+    final RoaringBitmap r = new RoaringBitmap();
+    set.stream().forEach(r::add);
+    if (rnd.nextBoolean()) r.runOptimize();
+    return r;
+  }
+
+  static void check(BitSet expected, RoaringBitmap r) {
+    assertEquals(expected.cardinality(), r.cardinality());
+    assertArrayEquals(expected.stream().toArray(), r.toArray());
+    for (int k = 0; k < 1000; k++) {
+      final int x = rnd.nextInt(CHUNKS << 16);
+      assertEquals(expected.get(x), r.contains(x));
+    }
+  }
+
+  @Test
+  void addRemove() {
+    for (int t = 0; t < 10; t++) {
+      final BitSet set = randomSet();
+      final RoaringBitmap r = roaring(set);
+      check(set, r);
+      for (int k = 0; k < 20_000; k++) {
+        final int x = rnd.nextInt(CHUNKS << 16);
+        if (rnd.nextBoolean()) {
+          assertEquals(!set.get(x), r.add(x));
+          set.set(x);
+        } else {
+          assertEquals(set.get(x), r.remove(x));
+          set.clear(x);
+        }
+      }
+      check(set, r);
+      r.runOptimize();
+      check(set, r);
+    }
+  }
+
+  @Test
+  void unsignedOrder() {
+    final RoaringBitmap r = new RoaringBitmap();
+    final int[] xs = {0, 1, 0x7FFF_FFFF, 0x8000_0000, -1};
+    for (int i = xs.length-1; i >= 0; i--) assertTrue(r.add(xs[i]));
+    assertArrayEquals(xs, r.toArray());
+    assertFalse(r.contains(2));
+    assertEquals(4, r.chunks());
+  }
+
+  @Test
+  void binaryOperations() {
+    for (int t = 0; t < 20; t++) {
+      final BitSet a = randomSet(), b = randomSet();
+      final RoaringBitmap ra = roaring(a), rb = roaring(b);
+
+      final BitSet and = (BitSet) a.clone();
+      and.and(b);
+      check(and, RoaringBitmap.and(ra, rb));
+
+      final BitSet or = (BitSet) a.clone();
+      or.or(b);
+      final RoaringBitmap ror = RoaringBitmap.or(ra, rb);
+      check(or, ror);
+
+      final BitSet andNot = (BitSet) a.clone();
+      andNot.andNot(b);
+      check(andNot, RoaringBitmap.andNot(ra, rb));
+
+      //Shared containers are copied on update
+      for (int k = 0; k < 1000; k++) ror.add(rnd.nextInt(CHUNKS << 16));
+      check(a, ra);
+      check(b, rb);
+    }
+  }
+
+  @Test
+  void serialization() {
+    for (int t = 0; t < 10; t++) {
+      final BitSet set = randomSet();
+      final RoaringBitmap r = roaring(set);
+      final int off = rnd.nextInt(16);
+      final byte[] raw = new byte[off + r.serializedSize()];
+      final ByteArray st = ByteArray.unchecked(raw);
+      assertEquals(r.serializedSize(), r.serialize(st, off));
+      final byte[] copy = raw.clone();
+
+      final RoaringBitmap v = RoaringBitmap.view(st, off);
+      check(set, v);
+      for (int k = 0; k < 5000; k++) {
+        final int x = rnd.nextInt(CHUNKS << 16);
+        if (rnd.nextBoolean()) {v.add(x); set.set(x);}
+        else {v.remove(x); set.clear(x);}
+      }
+      check(set, v);
+      assertArrayEquals(copy, raw);
+    }
+    assertThrows(IllegalArgumentException.class,
+      () -> RoaringBitmap.view(ByteArray.unchecked(new byte[16]), 0));
+  }
+
+  /** Byte sequences of the RoaringFormatSpec, as written by the
+   * reference implementations. */
+  @Test
+  void portableFormat() {
+    final RoaringBitmap r = new RoaringBitmap();
+    for (final int x: new int[] {1, 2, 3, 0x10000 | 7}) r.add(x);
+    assertArrayEquals(new byte[] {
+        0x3A, 0x30, 0, 0,  2, 0, 0, 0,
+        0, 0, 2, 0,  1, 0, 0, 0,
+        24, 0, 0, 0,  30, 0, 0, 0,
+        1, 0, 2, 0, 3, 0,  7, 0,
+      }, serialized(r));
+    r.runOptimize();
+    //{1,2,3} as a run; no offsets with less than 4 chunks
+    assertArrayEquals(new byte[] {
+        0x3B, 0x30, 1, 0,  1,
+        0, 0, 2, 0,  1, 0, 0, 0,
+        1, 0, 1, 0, 2, 0,  7, 0,
+      }, serialized(r));
+    final byte[] raw = serialized(r);
+    assertArrayEquals(new int[] {1, 2, 3, 0x10000 | 7},
+      RoaringBitmap.view(ByteArray.unchecked(raw), 0).toArray());
+
+    final RoaringBitmap empty = new RoaringBitmap();
+    assertArrayEquals(new byte[] {0x3A, 0x30, 0, 0, 0, 0, 0, 0},
+      serialized(empty));
+  }
+
+  static byte[] serialized(RoaringBitmap r) {
+    final byte[] raw = new byte[r.serializedSize()];
+    assertEquals(raw.length, r.serialize(ByteArray.unchecked(raw), 0));
+    return raw;
+  }
+}